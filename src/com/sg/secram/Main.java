@@ -35,6 +35,7 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -46,6 +47,7 @@ import com.sg.secram.example.Bam2SecramFile;
 import com.sg.secram.example.Secram2BamFile;
 
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.Namespace;
@@ -75,6 +77,7 @@ public class Main {
 						+ "Main keygen -o example.key\n"
 						+ "Main bam2secram -k example.key -r example.fa -i example.bam -o example.secram\n"
 						+ "Main secram2bam -k example.key -r example.fa -i example.secram -o example.bam\n"
+						+ "Main secram2bam -k example.key -r example.fa -i example.secram -L 7:117120017-117308718 --format sam\n"
 						+ "Main bam2secramDir -k example.key -r example.fa -i exampleFolder");
 		parser.addArgument("executable")
 				.choices("keygen", "bam2secram", "secram2bam", "bam2secramdDir")
@@ -94,7 +97,19 @@ public class Main {
 				"Path to the input file (or directory for bam2secramDir)");
 
 		parser.addArgument("-o", "--output").help(
-				"Path to the output file (not needed for bam2secramDir)");
+				"Path to the output file (not needed for bam2secramDir). "
+						+ "For secram2bam with regions, '-' or no output streams to the standard output.");
+
+		parser.addArgument("-L", "--region")
+				.action(Arguments.append())
+				.help("secram2bam: only restore the reads starting in a region 'chr', 'chr:start' or 'chr:start-end' "
+						+ "(1-based, inclusive). Can be repeated.");
+
+		parser.addArgument("--bed").help(
+				"secram2bam: only restore the reads starting in the regions of a BED file");
+
+		parser.addArgument("--format").choices("bam", "sam").setDefault("bam")
+				.help("secram2bam: format of the restored regions");
 
 		Namespace ns = null;
 		try {
@@ -125,8 +140,15 @@ public class Main {
 			Bam2SecramFile.bam2secram(ns.getString("input"),
 					ns.getString("output"), ns.getString("reference"), key);
 		} else if (ns.get("executable").equals("secram2bam")) {
-			Secram2BamFile.secram2bam(ns.getString("input"),
-					ns.getString("output"), ns.getString("reference"), key);
+			List<String> regions = ns.getList("region");
+			if (regions != null || ns.getString("bed") != null)
+				Secram2BamFile.secram2bam(ns.getString("input"),
+						ns.getString("output"), ns.getString("reference"), key,
+						regions, ns.getString("bed"), ns.getString("format")
+								.equals("sam"));
+			else
+				Secram2BamFile.secram2bam(ns.getString("input"),
+						ns.getString("output"), ns.getString("reference"), key);
 		} else {
 			Bam2SecramDir.convertDirectory(ns.getString("input"),
 					ns.getString("reference"), key);
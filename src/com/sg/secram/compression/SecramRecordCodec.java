@@ -46,6 +46,7 @@ import htsjdk.samtools.cram.encoding.DataSeriesType;
 import htsjdk.samtools.cram.io.DefaultBitInputStream;
 import htsjdk.samtools.cram.io.DefaultBitOutputStream;
 import htsjdk.samtools.cram.io.ExposedByteArrayOutputStream;
+import htsjdk.samtools.cram.io.LTF8;
 
 /**
  * Codec for serializing / deserializig a SECRAM record.
@@ -70,6 +71,20 @@ public class SecramRecordCodec {
 	 * Whether we use lossy quality scores.
 	 */
 	private boolean lossyQual;
+	/**
+	 * Whether the next positions are stored as offsets at the beginning of
+	 * the sensitive field, rather than in the next position series.
+	 */
+	private boolean mateOffsets;
+	/**
+	 * Whether the sensitive fields are kept in the records to be decoded
+	 * later by {@link #readSensitiveField(SecramRecord)}.
+	 */
+	private boolean deferSensitiveField;
+	/**
+	 * Position of the next sensitive field in the sensitive block.
+	 */
+	private long sensitiveFieldPosition = 0;
 
 	/**
 	 * External codec.
@@ -187,6 +202,24 @@ public class SecramRecordCodec {
 		this.lossyQual = lossyQual;
 	}
 
+	/**
+	 * Specify whether the next positions are stored as offsets in the
+	 * sensitive field (see {@link ReadHeader#nextPositionOffset}).
+	 */
+	public void setMateOffsets(boolean mateOffsets) {
+		this.mateOffsets = mateOffsets;
+	}
+
+	/**
+	 * Specify whether {@link #read(SecramRecord)} keeps the sensitive field
+	 * of the record, with its position in the sensitive block, rather than
+	 * decoding it. This allows to decrypt and decode only the sensitive
+	 * fields of some records.
+	 */
+	public void setDeferSensitiveField(boolean deferSensitiveField) {
+		this.deferSensitiveField = deferSensitiveField;
+	}
+
 	/**
 	 * Serialize this record to the output streams of different field codecs.
 	 * @param record The record to be seriazlied.
@@ -201,9 +234,11 @@ public class SecramRecordCodec {
 			readNameCodec.writeField(rh.mReadName.getBytes(charset));
 			flagCodec.writeField(rh.mFlags);
 			templateLengthCodec.writeField(rh.mTemplateLength);
-			long tmp = rh.getNextAbsolutePosition()
-					- record.getAbsolutePosition();
-			nextAbsolutePositionCodec.writeField(tmp);
+			if (!mateOffsets) {
+				long tmp = rh.getNextAbsolutePosition()
+						- record.getAbsolutePosition();
+				nextAbsolutePositionCodec.writeField(tmp);
+			}
 			tagsCodec.writeField(rh.mTags);
 		}
 		qualityScoreLengthCodec.writeField(record.qualityLenDelta);
@@ -219,6 +254,11 @@ public class SecramRecordCodec {
 
 		{ // encode the sensitive field
 			ExposedByteArrayOutputStream bitBAOS = new ExposedByteArrayOutputStream();
+			if (mateOffsets)
+				for (ReadHeader rh : record.mReadHeaders)
+					LTF8.writeUnsignedLTF8(
+							(rh.nextPositionOffset << 1) ^ (rh.nextPositionOffset >> 63),
+							bitBAOS);
 			DefaultBitOutputStream bitOutputStream = new DefaultBitOutputStream(
 					bitBAOS);
 
@@ -280,8 +320,10 @@ public class SecramRecordCodec {
 			rh.mReadName = new String(readNameCodec.readField(), charset);
 			rh.mFlags = flagCodec.readField();
 			rh.mTemplateLength = templateLengthCodec.readField();
-			long tmp = nextAbsolutePositionCodec.readField();
-			rh.setNextAbsolutionPosition(tmp + record.getAbsolutePosition());
+			if (!mateOffsets) {
+				long tmp = nextAbsolutePositionCodec.readField();
+				rh.setNextAbsolutionPosition(tmp + record.getAbsolutePosition());
+			}
 			rh.mTags = tagsCodec.readField();
 
 			record.mReadHeaders.add(rh);
@@ -301,8 +343,38 @@ public class SecramRecordCodec {
 
 		int numberOfFeatures = numberOfFeaturesCodec.readField();
 		byte[] sensitiveField = sensitiveFieldCodec.readField();
+		if (deferSensitiveField) {
+			record.sensitiveField = sensitiveField;
+			record.sensitiveFieldPosition = sensitiveFieldPosition;
+			record.numberOfFeatures = numberOfFeatures;
+		} else
+			readSensitiveField(record, numberOfFeatures, sensitiveField);
+		sensitiveFieldPosition += sensitiveField.length;
+
+		prevRecord = record;
+	}
+
+	/**
+	 * Decode the sensitive field kept in a record by
+	 * {@link #read(SecramRecord)}, which must be decrypted.
+	 * @throws IOException
+	 */
+	public void readSensitiveField(final SecramRecord record)
+			throws IOException {
+		readSensitiveField(record, record.numberOfFeatures,
+				record.sensitiveField);
+		record.sensitiveField = null;
+	}
+
+	private void readSensitiveField(final SecramRecord record,
+			int numberOfFeatures, byte[] sensitiveField) throws IOException {
 		{// decode the sensitive field
 			ByteArrayInputStream bai = new ByteArrayInputStream(sensitiveField);
+			if (mateOffsets)
+				for (ReadHeader rh : record.mReadHeaders) {
+					long zigzag = LTF8.readUnsignedLTF8(bai);
+					rh.nextPositionOffset = (zigzag >>> 1) ^ -(zigzag & 1);
+				}
 			DefaultBitInputStream bitInputStream = new DefaultBitInputStream(
 					bai);
 			featureOrderCodec.setBitInputStream(bitInputStream);
@@ -369,8 +441,6 @@ public class SecramRecordCodec {
 						features);
 
 		}
-
-		prevRecord = record;
 	}
 
 	/**
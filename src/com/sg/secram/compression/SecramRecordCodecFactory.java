@@ -38,6 +38,7 @@ import htsjdk.samtools.cram.encoding.EncodingFactory;
 import htsjdk.samtools.cram.io.BitInputStream;
 import htsjdk.samtools.cram.io.BitOutputStream;
 import htsjdk.samtools.cram.io.ExposedByteArrayOutputStream;
+import htsjdk.samtools.cram.structure.EncodingID;
 import htsjdk.samtools.cram.structure.EncodingParams;
 
 import java.io.IOException;
@@ -77,6 +78,10 @@ public class SecramRecordCodecFactory {
 			Map<Integer, ExposedByteArrayOutputStream> outputMap)
 			throws IllegalArgumentException, IllegalAccessException {
 		SecramRecordCodec recordCodec = new SecramRecordCodec(false);
+		// without a next position series, the offsets of the next positions
+		// are in the sensitive field
+		recordCodec.setMateOffsets(h.encodingMap
+				.get(SecramEncodingKey.NP_NextAbsolutePosition).id == EncodingID.NULL);
 
 		for (Field f : recordCodec.getClass().getFields()) {
 			if (f.isAnnotationPresent(SecramDataSeries.class)) {
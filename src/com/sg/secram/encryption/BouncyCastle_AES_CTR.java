@@ -31,6 +31,8 @@
  */
 package com.sg.secram.encryption;
 
+import java.util.Arrays;
+
 import org.bouncycastle.crypto.engines.AESEngine;
 import org.bouncycastle.crypto.modes.SICBlockCipher;
 import org.bouncycastle.crypto.params.KeyParameter;
@@ -46,7 +48,7 @@ import com.sg.secram.encryption.SECRAMEncryptionMethod;
  * @author zhihuang
  */
 
-public class BouncyCastle_AES_CTR implements SECRAMEncryptionMethod<byte[]> {
+public class BouncyCastle_AES_CTR implements SECRAMSeekableCipher {
 
 	private SICBlockCipher encryptCipher = null;
 	private SICBlockCipher decryptCipher = null;
@@ -142,6 +144,43 @@ public class BouncyCastle_AES_CTR implements SECRAMEncryptionMethod<byte[]> {
 		return out;
 	}
 
+	/**
+	 * Zero the AES key, and drop the ciphers holding its expansion.
+	 */
+	@Override
+	public void destroy() {
+		Arrays.fill(key, (byte) 0);
+		encryptCipher = null;
+		decryptCipher = null;
+	}
+
+	/**
+	 * Start a new key stream at the block containing the given position, by
+	 * adding the block index to the IV as a big-endian counter, and skip the
+	 * bytes of that block before the position. The ciphers of this object are
+	 * left untouched, so that ranges can be decrypted concurrently.
+	 */
+	@Override
+	public void decryptRange(byte[] buffer, int offset, int length,
+			long position) {
+		byte[] counter = IV.clone();
+		long carry = position / blockSize;
+		for (int i = blockSize - 1; i >= 0 && carry != 0; i--) {
+			carry += counter[i] & 0xFF;
+			counter[i] = (byte) carry;
+			carry >>>= 8;
+		}
+		SICBlockCipher rangeCipher = new SICBlockCipher(new AESEngine());
+		rangeCipher.init(false, new ParametersWithIV(new KeyParameter(key),
+				counter));
+		int skip = (int) (position % blockSize);
+		if (skip > 0)
+			rangeCipher.processBytes(new byte[skip], 0, skip, new byte[skip], 0);
+		int noBytesProcessed = rangeCipher.processBytes(buffer, offset,
+				length, buffer, offset);
+		assert (noBytesProcessed == length);
+	}
+
 	@Override
 	public byte[] encrypt(byte[] objectToEncrypt, String key) {
 		return CTREncrypt(objectToEncrypt);
@@ -0,0 +1,183 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.encryption;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Implementation of AES in CTR mode using the JCE provider of the JVM, which
+ * benefits from the AES instructions of the processor. The output is the same
+ * as {@link BouncyCastle_AES_CTR} with the same key and IV.
+ * <p>
+ * Each call to {@link #encrypt(byte[], String)} or
+ * {@link #decrypt(byte[], String)} processes the whole message from the IV,
+ * <b>in place</b>: the given array is overwritten and returned. A cipher
+ * instance is reused per thread, so the same object can be used concurrently.
+ * <p>
+ * Note: Don't use the same (key, IV) pair to encrypt different messages.
+ * 
+ * @author zhihuang
+ */
+public class JCE_AES_CTR implements SECRAMSeekableCipher {
+
+	private static final String TRANSFORMATION = "AES/CTR/NoPadding";
+
+	private static final ThreadLocal<Cipher> CIPHER = ThreadLocal
+			.withInitial(() -> {
+				try {
+					return Cipher.getInstance(TRANSFORMATION);
+				} catch (GeneralSecurityException e) {
+					throw new RuntimeException(e);
+				}
+			});
+
+	/** The default block size is 16 bytes */
+	private static final int blockSize = 16;
+
+	/** The AES key */
+	private final byte[] key;
+
+	/** The initialization vector needed by the CTR mode */
+	private final IvParameterSpec ivSpec;
+
+	/**
+	 * This constructor uses zero IV. It is up to the user to make sure that he
+	 * never uses the same key "keyBytes" to construct this cipher and then
+	 * encrypts different messages.
+	 * @param keyBytes
+	 * 				AES key.
+	 */
+	public JCE_AES_CTR(byte[] keyBytes) {
+		this(keyBytes, new byte[blockSize]);
+	}
+
+	public JCE_AES_CTR(byte[] keyBytes, byte[] iv) {
+		key = keyBytes.clone();
+		byte[] IV = new byte[blockSize];
+		System.arraycopy(iv, 0, IV, 0, iv.length);
+		ivSpec = new IvParameterSpec(IV);
+	}
+
+	/**
+	 * @return AES key.
+	 */
+	public byte[] getKey() {
+		return key;
+	}
+
+	/**
+	 * Encrypt or decrypt (which is the same in CTR mode) a range of bytes in
+	 * place.
+	 */
+	public void process(byte[] buffer, int offset, int length) {
+		Cipher cipher = CIPHER.get();
+		try {
+			cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"),
+					ivSpec);
+			cipher.doFinal(buffer, offset, length, buffer, offset);
+		} catch (GeneralSecurityException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Start the key stream at the block containing the given position, by
+	 * adding the block index to the IV as a big-endian counter, and skip the
+	 * bytes of that block before the position.
+	 */
+	@Override
+	public void decryptRange(byte[] buffer, int offset, int length,
+			long position) {
+		byte[] counter = ivSpec.getIV();
+		long carry = position / blockSize;
+		for (int i = blockSize - 1; i >= 0 && carry != 0; i--) {
+			carry += counter[i] & 0xFF;
+			counter[i] = (byte) carry;
+			carry >>>= 8;
+		}
+		int skip = (int) (position % blockSize);
+		Cipher cipher = CIPHER.get();
+		try {
+			cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"),
+					new IvParameterSpec(counter));
+			if (skip > 0)
+				cipher.update(new byte[skip]);
+			cipher.doFinal(buffer, offset, length, buffer, offset);
+		} catch (GeneralSecurityException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @param in
+	 *            Array of bytes to be encrypted, overwritten by the
+	 *            ciphertext.
+	 * @return The same array.
+	 */
+	public byte[] CTREncrypt(byte[] in) {
+		process(in, 0, in.length);
+		return in;
+	}
+
+	/**
+	 * @param in
+	 *            Array of bytes to be decrypted, overwritten by the plaintext.
+	 * @return The same array.
+	 */
+	public byte[] CTRDecrypt(byte[] in) {
+		process(in, 0, in.length);
+		return in;
+	}
+
+	/**
+	 * Zero the AES key.
+	 */
+	@Override
+	public void destroy() {
+		Arrays.fill(key, (byte) 0);
+	}
+
+	@Override
+	public byte[] encrypt(byte[] objectToEncrypt, String key) {
+		return CTREncrypt(objectToEncrypt);
+	}
+
+	@Override
+	public byte[] decrypt(byte[] objectToDecrypt, String key) {
+		return CTRDecrypt(objectToDecrypt);
+	}
+}
@@ -33,15 +33,17 @@ package com.sg.secram.encryption;
 
 import htsjdk.samtools.util.Log;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.Mac;
 import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.engines.AESFastEngine;
 import org.bouncycastle.crypto.macs.HMac;
 import org.bouncycastle.crypto.params.KeyParameter;
 
@@ -51,51 +53,200 @@ import com.sg.secram.encryption.SECRAMEncryptionMethod;
  * Order-preserving encryption. The notation and algorithms here are from the
  * paper "Order-preserving symmetric encryption" by Boldyreva et Al., 2009.
  * <p>
- * This OPE implementation works for 40-bit plaintext integer.
+ * This OPE implementation works by default for 40-bit plaintext integers,
+ * which are mapped to 48-bit ciphertext integers. Smaller domains give a
+ * shallower tree, and thus fewer node evaluations per number.
  * <p>
  * Order-preseving property: If x <= y, then OPE(x) <= OPE(y).
+ * <p>
+ * The random coins of each node of the OPE tree are derived from the key and
+ * the node with HMAC-SHA1. In the original version ({@link #COINS_SHA1PRNG}),
+ * they are expanded by a SHA1PRNG instance per node. In the current version
+ * ({@link #COINS_AES_CTR}), they are expanded by AES in counter mode with
+ * reusable per-thread buffers, which is much faster. The two versions give
+ * different ciphertexts, so the version is recorded in the SECRAM header.
+ * <p>
+ * Instances are thread-safe: the PRF and the coin generators are per thread,
+ * and the node cache is shared, see {@link OPENodeCache}.
  * 
  * @author zhihuang
  */
 
-public class OPE implements SECRAMEncryptionMethod<Long> {
+public class OPE implements SECRAMPositionEncryption {
 	private static final int BitsForRCoins = 64;
 	private static final int BitsForHGDCoins = 128;
 
+	/**
+	 * Coins expanded by SHA1PRNG, used by the files written before the coin
+	 * version was recorded.
+	 */
+	public static final int COINS_SHA1PRNG = 0;
+	/**
+	 * Coins expanded by AES in counter mode.
+	 */
+	public static final int COINS_AES_CTR = 1;
+
+	private static final byte[] COINS_KEY_INFO = "SECRAM OPE coins"
+			.getBytes();
+	private static final byte[] CACHE_ID_INFO = "SECRAM OPE cache"
+			.getBytes();
+
+	/** Log of factorials from 0 to 7, see {@link #AFC(double)} */
+	private static final double[] AL = new double[] { 0.0, 0.0,
+			0.6931471806, 1.791759469, 3.178053830, 4.787491743, 6.579251212,
+			8.525161361 };
+
 	/** secret key used for OPE algorithm */
 	private byte[] key = null;
 
-	/** The supported plaintext space is 40 bits */
-	private static final int plainTextSpace = 40;
+	/** The default plaintext space is 40 bits */
+	public static final int DEFAULT_PLAINTEXT_BITS = 40;
 	public static final long MIN_PLAINTEXT = 0;
-	public static final long MAX_PLAINTEXT = (1l << plainTextSpace) - 1;
+	public static final long MAX_PLAINTEXT = maxPlaintext(DEFAULT_PLAINTEXT_BITS);
 
-	/** The ciphertext space is 48 bits */
-	private static final int cipherTextSpace = 48;
+	/** The default ciphertext space is 48 bits */
+	public static final int DEFAULT_CIPHERTEXT_BITS = 48;
 	public static final long MIN_CIPHERTEXT = 0;
-	public static final long MAX_CIPHERTEXT = (1l << cipherTextSpace) - 10;
+	public static final long MAX_CIPHERTEXT = maxCiphertext(DEFAULT_CIPHERTEXT_BITS);
 
-	private Mac VIL_PRF;
+	/** Number of bits of the plaintext space and of the ciphertext space */
+	private int plainTextBits, cipherTextBits;
+	private long maxPlaintext, maxCiphertext;
 
-	private Hashtable<Long, Long> cache;
-	private static final int maxCacheSize = 4000000;
+	/** Per-thread PRF of the nodes, since a MAC instance is not thread-safe */
+	private ThreadLocal<Mac> VIL_PRF;
+
+	private int coinsVersion;
+	/** Per-thread coin generators of {@link #COINS_AES_CTR} */
+	private ThreadLocal<StreamCoins> streamCoins;
+
+	/** Split points of the tree, shared by the instances with the same key */
+	private OPENodeCache cache;
 
 	private Log log = Log.getInstance(OPE.class);
 	private boolean DEBUG = false;
 
 	/**
-	 * Construct OPE with a key
+	 * Construct OPE with a key, with the original coin generation.
 	 * @param keyBytes Key bytes.
 	 */
 	public OPE(byte[] keyBytes) {
+		this(keyBytes, COINS_SHA1PRNG);
+	}
+
+	/**
+	 * Construct OPE with a key.
+	 * @param keyBytes Key bytes.
+	 * @param coinsVersion How the coins of the nodes are generated, either
+	 * {@link #COINS_SHA1PRNG} or {@link #COINS_AES_CTR}.
+	 */
+	public OPE(byte[] keyBytes, int coinsVersion) {
+		this(keyBytes, coinsVersion, DEFAULT_PLAINTEXT_BITS,
+				DEFAULT_CIPHERTEXT_BITS);
+	}
+
+	/**
+	 * Construct OPE with a key, for a given size of the plaintext space and of
+	 * the ciphertext space.
+	 * @param keyBytes Key bytes.
+	 * @param coinsVersion How the coins of the nodes are generated, either
+	 * {@link #COINS_SHA1PRNG} or {@link #COINS_AES_CTR}.
+	 * @param plainTextBits Number of bits of the plaintexts.
+	 * @param cipherTextBits Number of bits of the ciphertexts, which must be
+	 * larger than plainTextBits.
+	 */
+	public OPE(byte[] keyBytes, int coinsVersion, int plainTextBits,
+			int cipherTextBits) {
+		if (coinsVersion != COINS_SHA1PRNG && coinsVersion != COINS_AES_CTR)
+			throw new IllegalArgumentException(
+					"Unsupported OPE coin generation version: " + coinsVersion);
+		if (plainTextBits < 1 || cipherTextBits <= plainTextBits
+				|| cipherTextBits > 62)
+			throw new IllegalArgumentException(String.format(
+					"Invalid OPE domain: %d-bit plaintexts, %d-bit ciphertexts",
+					plainTextBits, cipherTextBits));
+		this.plainTextBits = plainTextBits;
+		this.cipherTextBits = cipherTextBits;
+		this.maxPlaintext = maxPlaintext(plainTextBits);
+		this.maxCiphertext = maxCiphertext(cipherTextBits);
 		// get the key
 		key = new byte[keyBytes.length];
 		System.arraycopy(keyBytes, 0, key, 0, keyBytes.length);
 
-		VIL_PRF = new HMac(new SHA1Digest());
-		VIL_PRF.init(new KeyParameter(key));
+		VIL_PRF = ThreadLocal.withInitial(() -> {
+			Mac prf = new HMac(new SHA1Digest());
+			prf.init(new KeyParameter(key));
+			return prf;
+		});
+
+		this.coinsVersion = coinsVersion;
+		if (coinsVersion == COINS_AES_CTR) {
+			Mac prf = VIL_PRF.get();
+			byte[] coinsKey = new byte[prf.getMacSize()];
+			prf.update(COINS_KEY_INFO, 0, COINS_KEY_INFO.length);
+			prf.doFinal(coinsKey, 0);
+			byte[] aesKey = Arrays.copyOf(coinsKey, 16);
+			streamCoins = ThreadLocal.withInitial(() -> new StreamCoins(key,
+					aesKey));
+		}
+
+		this.cache = OPENodeCache.forKey(cacheIdentity());
+	}
+
+	/**
+	 * Identify the tree of this instance for the shared node caches, without
+	 * revealing the key.
+	 */
+	private String cacheIdentity() {
+		Mac prf = VIL_PRF.get();
+		byte[] id = new byte[prf.getMacSize()];
+		prf.update(CACHE_ID_INFO, 0, CACHE_ID_INFO.length);
+		prf.doFinal(id, 0);
+		StringBuilder sb = new StringBuilder();
+		for (byte b : id)
+			sb.append(String.format("%02x", b));
+		return sb.append(':').append(coinsVersion).append(':')
+				.append(plainTextBits).append(':').append(cipherTextBits)
+				.toString();
+	}
+
+	/**
+	 * @return The cache of the split points of the tree, which is shared by
+	 *         the OPE instances with the same key.
+	 */
+	public OPENodeCache getNodeCache() {
+		return cache;
+	}
+
+	/**
+	 * @return How the coins of the nodes are generated.
+	 */
+	public int getCoinsVersion() {
+		return coinsVersion;
+	}
+
+	public int getPlainTextBits() {
+		return plainTextBits;
+	}
+
+	public int getCipherTextBits() {
+		return cipherTextBits;
+	}
+
+	public long getMaxPlaintext() {
+		return maxPlaintext;
+	}
+
+	public long getMaxCiphertext() {
+		return maxCiphertext;
+	}
+
+	private static long maxPlaintext(int bits) {
+		return (1l << bits) - 1;
+	}
 
-		this.cache = new Hashtable<Long, Long>(maxCacheSize);
+	private static long maxCiphertext(int bits) {
+		return (1l << bits) - 10;
 	}
 
 	/**
@@ -115,8 +266,8 @@ public class OPE implements SECRAMEncryptionMethod<Long> {
 	 */
 	public long encrypt(long plainNum) throws IOException, HGDException,
 			NoSuchAlgorithmException {
-		if (plainNum < MIN_PLAINTEXT || plainNum > MAX_PLAINTEXT) {
-			if (plainNum < MIN_CIPHERTEXT || plainNum > MAX_CIPHERTEXT) { 
+		if (plainNum < MIN_PLAINTEXT || plainNum > maxPlaintext) {
+			if (plainNum < MIN_CIPHERTEXT || plainNum > maxCiphertext) { 
 				if (DEBUG)
 					log.debug("OPE cannot encrypt number "
 							+ plainNum
@@ -126,10 +277,10 @@ public class OPE implements SECRAMEncryptionMethod<Long> {
 			throw new IllegalArgumentException(
 					"OPE encryption failed: the given plaintext number "
 							+ plainNum + " is out of plaintet range ["
-							+ MIN_PLAINTEXT + ", " + MAX_PLAINTEXT + "]");
+							+ MIN_PLAINTEXT + ", " + maxPlaintext + "]");
 		}
-		long result = EncK(MIN_PLAINTEXT, MAX_PLAINTEXT, MIN_CIPHERTEXT,
-				MAX_CIPHERTEXT, plainNum);
+		long result = EncK(MIN_PLAINTEXT, maxPlaintext, MIN_CIPHERTEXT,
+				maxCiphertext, plainNum);
 
 		return result;
 	}
@@ -148,41 +299,70 @@ public class OPE implements SECRAMEncryptionMethod<Long> {
 	 */
 	private long EncK(long lowD, long highD, long lowR, long highR, long m)
 			throws IOException, HGDException, NoSuchAlgorithmException {
+		for (int depth = 0; highD > lowD; depth++) {
+			long y = lowR - 1 + (highR - lowR + 2) / 2;
+			long x = splitPoint(lowD, highD, lowR, highR, y, depth);
+			if (m <= x) {
+				highD = x;
+				highR = y;
+			} else {
+				lowD = x + 1;
+				lowR = y + 1;
+			}
+		}
+		return leafCiphertext(lowD, highD, lowR, highR, m);
+	}
+
+	/**
+	 * Encrypt a sorted array of plaintext numbers. The numbers are encrypted in
+	 * a single traversal of the OPE tree, so that the nodes on the common paths
+	 * of the numbers are evaluated only once. Numbers out of the plaintext
+	 * range are handled as in {@link #encrypt(long)}.
+	 * @param plainNums Plaintext numbers in ascending order.
+	 * @return The ciphertext numbers, in the same order.
+	 */
+	public long[] encrypt(long[] plainNums) throws IOException, HGDException,
+			NoSuchAlgorithmException {
+		checkSorted(plainNums);
+		long[] result = new long[plainNums.length];
+		int from = 0, to = plainNums.length;
+		while (from < to && plainNums[from] < MIN_PLAINTEXT)
+			result[from] = encrypt(plainNums[from++]);
+		while (to > from && plainNums[to - 1] > maxPlaintext) {
+			to--;
+			result[to] = encrypt(plainNums[to]);
+		}
+		if (from < to)
+			EncK(MIN_PLAINTEXT, maxPlaintext, MIN_CIPHERTEXT, maxCiphertext,
+					0, plainNums, result, from, to);
+		return result;
+	}
+
+	/**
+	 * Encrypt the sorted plaintext numbers m[from, to), which all belong to the
+	 * given plaintext domain of a node at the given depth, into c[from, to).
+	 */
+	private void EncK(long lowD, long highD, long lowR, long highR,
+			int depth, long[] m, long[] c, int from, int to) throws IOException, HGDException,
+			NoSuchAlgorithmException {
 		long M = highD - lowD + 1;
 		long N = highR - lowR + 1;
 		long d = lowD - 1;
 		long r = lowR - 1;
 		long y = r + (N + 1) / 2;
 
-		byte[] coins;
 		if (M == 1) {
-			// generate coins for random selection in the range[lowR, highR]
-			coins = TapeGen(lowD, highD, lowR, highR, m, BitsForRCoins);
-			SecureRandom sr = SecureRandom.getInstance("SHA1PRNG");
-			sr.setSeed(coins);
-			long result = lowR + ((sr.nextLong() & 0x7fffffffffffffffl) % N);
-			return result;
-		}
-		Long x = cache.get(y);
-		if (x == null) {
-			coins = TapeGen(lowD, highD, lowR, highR, y, BitsForHGDCoins);
-			x = lowD + HGD(y - lowR, M, N - M, coins);
-			if (cache.size() > maxCacheSize)
-				cache.clear();
-			cache.put(y, x);
-		}
-		if (m <= x) {
-			lowD = d + 1;
-			highD = x;
-			lowR = r + 1;
-			highR = y;
-		} else {
-			lowD = x + 1;
-			highD = d + M;
-			lowR = y + 1;
-			highR = r + N;
+			long result = leafCiphertext(lowD, highD, lowR, highR, lowD);
+			for (int i = from; i < to; i++)
+				c[i] = result;
+			return;
 		}
-		return EncK(lowD, highD, lowR, highR, m);
+		long x = splitPoint(lowD, highD, lowR, highR, y, depth);
+		int split = upperBound(m, from, to, x);
+		if (split > from)
+			EncK(d + 1, x, r + 1, y, depth + 1, m, c, from, split);
+		if (split < to)
+			EncK(x + 1, d + M, y + 1, r + N, depth + 1, m, c, split, to);
 	}
 
 	/**
@@ -190,15 +370,15 @@ public class OPE implements SECRAMEncryptionMethod<Long> {
 	 */
 	public long decrypt(long cipherNum) throws IOException, HGDException,
 			NoSuchAlgorithmException {
-		if (cipherNum < MIN_CIPHERTEXT || cipherNum > MAX_CIPHERTEXT) {
+		if (cipherNum < MIN_CIPHERTEXT || cipherNum > maxCiphertext) {
 			if (DEBUG)
 				log.debug("OPE cannot decrypt number "
 						+ cipherNum
 						+ " because it is out of the ciphertext range. It has been returned without any change.");
 			return cipherNum;
 		}
-		long result = DecK(MIN_PLAINTEXT, MAX_PLAINTEXT, MIN_CIPHERTEXT,
-				MAX_CIPHERTEXT, cipherNum);
+		long result = DecK(MIN_PLAINTEXT, maxPlaintext, MIN_CIPHERTEXT,
+				maxCiphertext, cipherNum);
 
 		return result;
 	}
@@ -217,49 +397,207 @@ public class OPE implements SECRAMEncryptionMethod<Long> {
 	 */
 	private long DecK(long lowD, long highD, long lowR, long highR, long c)
 			throws IOException, HGDException, NoSuchAlgorithmException {
+		for (int depth = 0; highD > lowD; depth++) {
+			long y = lowR - 1 + (highR - lowR + 2) / 2;
+			long x = splitPoint(lowD, highD, lowR, highR, y, depth);
+			if (c <= y) {
+				highD = x;
+				highR = y;
+			} else {
+				lowD = x + 1;
+				lowR = y + 1;
+			}
+		}
+		checkLeaf(lowD, highD, lowR, highR, c);
+		return lowD;
+	}
+
+	/**
+	 * Decrypt a sorted array of ciphertext numbers. The numbers are decrypted
+	 * in a single traversal of the OPE tree, so that the nodes on the common
+	 * paths of the numbers are evaluated only once. Numbers out of the
+	 * ciphertext range are returned without change, as in
+	 * {@link #decrypt(long)}.
+	 * @param cipherNums Ciphertext numbers in ascending order.
+	 * @return The plaintext numbers, in the same order.
+	 */
+	public long[] decrypt(long[] cipherNums) throws IOException, HGDException,
+			NoSuchAlgorithmException {
+		checkSorted(cipherNums);
+		long[] result = new long[cipherNums.length];
+		int from = 0, to = cipherNums.length;
+		while (from < to && cipherNums[from] < MIN_CIPHERTEXT)
+			result[from] = cipherNums[from++];
+		while (to > from && cipherNums[to - 1] > maxCiphertext) {
+			to--;
+			result[to] = cipherNums[to];
+		}
+		if (from < to)
+			DecK(MIN_PLAINTEXT, maxPlaintext, MIN_CIPHERTEXT, maxCiphertext,
+					0, cipherNums, result, from, to);
+		return result;
+	}
+
+	/**
+	 * Decrypt the sorted ciphertext numbers c[from, to), which all belong to
+	 * the given ciphertext range of a node at the given depth, into m[from,
+	 * to).
+	 */
+	private void DecK(long lowD, long highD, long lowR, long highR,
+			int depth, long[] c, long[] m, int from, int to) throws IOException, HGDException,
+			NoSuchAlgorithmException {
 		long M = highD - lowD + 1;
 		long N = highR - lowR + 1;
 		long d = lowD - 1;
 		long r = lowR - 1;
 		long y = r + (N + 1) / 2;
 
-		long m;
-		byte[] coins;
 		if (M == 1) {
-			m = lowD;
-			coins = TapeGen(lowD, highD, lowR, highR, m, BitsForRCoins);
-			SecureRandom sr = SecureRandom.getInstance("SHA1PRNG");
-			sr.setSeed(coins);
-			long w = lowR + ((sr.nextLong() & 0x7fffffffffffffffl) % N);
-			if (w == c)
-				return m;
-			else {
-				log.error(String.format(
-						"This value %d was not encrypted correctly", c));
-				throw new IllegalArgumentException();
+			// all the ciphertexts of this leaf must be the same
+			checkLeaf(lowD, highD, lowR, highR, c[from]);
+			if (c[to - 1] != c[from])
+				checkLeaf(lowD, highD, lowR, highR, c[to - 1]);
+			for (int i = from; i < to; i++)
+				m[i] = lowD;
+			return;
+		}
+		long x = splitPoint(lowD, highD, lowR, highR, y, depth);
+		int split = upperBound(c, from, to, y);
+		if (split > from)
+			DecK(d + 1, x, r + 1, y, depth + 1, c, m, from, split);
+		if (split < to)
+			DecK(x + 1, d + M, y + 1, r + N, depth + 1, c, m, split, to);
+	}
+
+	/**
+	 * Evaluate the split points of the top levels of the tree, which are
+	 * shared by all the plaintexts.
+	 * @param levels Number of levels from the root.
+	 * @return The ciphertext and plaintext split points (y, x) of the nodes,
+	 *         interleaved, in breadth-first order.
+	 */
+	public long[] getTopSplitPoints(int levels) throws IOException,
+			HGDException, NoSuchAlgorithmException {
+		List<long[]> nodes = new ArrayList<long[]>();
+		nodes.add(new long[] { MIN_PLAINTEXT, maxPlaintext, MIN_CIPHERTEXT,
+				maxCiphertext });
+		long[] splitPoints = new long[0];
+		int count = 0;
+		for (int depth = 0; depth < levels && !nodes.isEmpty(); depth++) {
+			List<long[]> children = new ArrayList<long[]>(nodes.size() * 2);
+			if (splitPoints.length < 2 * (count + nodes.size()))
+				splitPoints = Arrays.copyOf(splitPoints,
+						2 * (count + nodes.size()));
+			for (long[] node : nodes) {
+				long lowD = node[0], highD = node[1], lowR = node[2], highR = node[3];
+				long y = lowR - 1 + (highR - lowR + 2) / 2;
+				long x = splitPoint(lowD, highD, lowR, highR, y, depth);
+				splitPoints[2 * count] = y;
+				splitPoints[2 * count + 1] = x;
+				count++;
+				if (x > lowD)
+					children.add(new long[] { lowD, x, lowR, y });
+				if (highD > x + 1)
+					children.add(new long[] { x + 1, highD, y + 1, highR });
 			}
+			nodes = children;
+		}
+		return Arrays.copyOf(splitPoints, 2 * count);
+	}
+
+	/**
+	 * Load split points of the top levels of the tree, as produced by
+	 * {@link #getTopSplitPoints(int)} with the same key, into the node cache.
+	 * They are kept for the lifetime of the cache.
+	 */
+	public void pinSplitPoints(long[] splitPoints) {
+		for (int i = 0; i + 1 < splitPoints.length; i += 2)
+			cache.pin(splitPoints[i], splitPoints[i + 1]);
+	}
+
+	/**
+	 * Get the plaintext split point x of an inner node, which is mapped to the
+	 * ciphertext split point y (the middle of the ciphertext range).
+	 * @param depth Depth of the node in the tree (0 for the root).
+	 */
+	private long splitPoint(long lowD, long highD, long lowR, long highR,
+			long y, int depth) throws IOException, HGDException,
+			NoSuchAlgorithmException {
+		long x = cache.get(y, depth);
+		if (x < 0) {
+			long M = highD - lowD + 1;
+			long N = highR - lowR + 1;
+			x = lowD
+					+ HGD(y - lowR, M, N - M,
+							nodeCoins(lowD, highD, lowR, highR, y,
+									BitsForHGDCoins));
+			cache.put(y, depth, x);
 		}
+		return x;
+	}
+
+	/**
+	 * Randomly select the ciphertext of the only plaintext m of a leaf, in the
+	 * range [lowR, highR].
+	 */
+	private long leafCiphertext(long lowD, long highD, long lowR, long highR,
+			long m) throws IOException, NoSuchAlgorithmException {
+		// generate coins for random selection in the range[lowR, highR]
+		Coins coins = nodeCoins(lowD, highD, lowR, highR, m, BitsForRCoins);
+		return lowR
+				+ ((coins.nextLong() & 0x7fffffffffffffffl) % (highR - lowR + 1));
+	}
 
-		Long x = cache.get(y);
-		if (x == null) {
-			coins = TapeGen(lowD, highD, lowR, highR, y, BitsForHGDCoins);
-			x = lowD + HGD(y - lowR, M, N - M, coins);
-			if (cache.size() > maxCacheSize)
-				cache.clear();
-			cache.put(y, x);
+	/**
+	 * Get the random coins of a node, as specified by the coin generation
+	 * version. With {@link #COINS_AES_CTR}, the returned coins are reused by
+	 * the next call in the same thread.
+	 * @param numOfBits Number of random bits of the seed, in the original
+	 * version.
+	 */
+	private Coins nodeCoins(long lowD, long highD, long lowR, long highR,
+			long m, int numOfBits) throws IOException,
+			NoSuchAlgorithmException {
+		if (coinsVersion == COINS_AES_CTR) {
+			StreamCoins coins = streamCoins.get();
+			coins.reset(lowD, highD, lowR, highR, m);
+			return coins;
 		}
-		if (c <= y) {
-			lowD = d + 1;
-			highD = x;
-			lowR = r + 1;
-			highR = y;
-		} else {
-			lowD = x + 1;
-			highD = d + M;
-			lowR = y + 1;
-			highR = r + N;
+		SecureRandom sr = SecureRandom.getInstance("SHA1PRNG");
+		sr.setSeed(TapeGen(lowD, highD, lowR, highR, m, numOfBits));
+		return new SecureRandomCoins(sr);
+	}
+
+	private void checkLeaf(long lowD, long highD, long lowR, long highR, long c)
+			throws IOException, NoSuchAlgorithmException {
+		if (leafCiphertext(lowD, highD, lowR, highR, lowD) != c) {
+			log.error(String.format(
+					"This value %d was not encrypted correctly", c));
+			throw new IllegalArgumentException();
 		}
-		return DecK(lowD, highD, lowR, highR, c);
+	}
+
+	/**
+	 * @return The first index in the sorted values[from, to) whose value is
+	 *         bigger than the key, or <code>to</code> if there is none.
+	 */
+	private static int upperBound(long[] values, int from, int to, long key) {
+		int low = from, high = to;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (values[mid] <= key)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private static void checkSorted(long[] values) {
+		for (int i = 1; i < values.length; i++)
+			if (values[i] < values[i - 1])
+				throw new IllegalArgumentException(
+						"The values to be encrypted or decrypted in batch should be sorted");
 	}
 
 	/**
@@ -270,16 +608,13 @@ public class OPE implements SECRAMEncryptionMethod<Long> {
 			int numOfBits) throws IOException, NoSuchAlgorithmException {
 		int numOfBytes = (numOfBits + 7) / 8;
 
-		byte[] input = longsToBytes(new long[] { lowD, highD, lowR, highR, m });
-		byte[] seed = new byte[VIL_PRF.getMacSize()];
-		// Javax.crypto.mac is not thread-safe. Synchronized it if multiple
-		// threads will access the mac instance,
-		// otherwise Exception will be thrown (you can try to remove
-		// synchronized and see what happens)
-		synchronized (VIL_PRF) {
-			VIL_PRF.update(input, 0, input.length);
-			VIL_PRF.doFinal(seed, 0);
-		}
+		byte[] input = new byte[5 * Long.BYTES];
+		putLongs(input, lowD, highD, lowR, highR, m);
+		// a MAC instance is not thread-safe, so each thread has its own
+		Mac prf = VIL_PRF.get();
+		byte[] seed = new byte[prf.getMacSize()];
+		prf.update(input, 0, input.length);
+		prf.doFinal(seed, 0);
 		SecureRandom sr = SecureRandom.getInstance("SHA1PRNG");
 		sr.setSeed(seed);
 		byte[] coins = new byte[numOfBytes];
@@ -305,7 +640,11 @@ public class OPE implements SECRAMEncryptionMethod<Long> {
 			throws HGDException, NoSuchAlgorithmException {
 		SecureRandom sr = SecureRandom.getInstance("SHA1PRNG");
 		sr.setSeed(coins);
+		return HGD(KK, NN1, NN2, new SecureRandomCoins(sr));
+	}
 
+	private long HGD(long KK, long NN1, long NN2, Coins sr)
+			throws HGDException {
 		double JX;
 		double TN, N1, N2, K;
 		double P, U, V, A, IX = 0, XL, XR, M;
@@ -576,9 +915,6 @@ public class OPE implements SECRAMEncryptionMethod<Long> {
 	 * 
 	 */
 	private double AFC(double I) {
-		double[] AL = new double[] { 0.0, 0.0, 0.6931471806, 1.791759469,
-				3.178053830, 4.787491743, 6.579251212, 8.525161361 };
-
 		if (I <= 7) {
 			return AL[(int) Math.round(I)];
 		} else {
@@ -588,22 +924,166 @@ public class OPE implements SECRAMEncryptionMethod<Long> {
 	}
 
 	/**
-	 * Transform a long array to a byte array
+	 * Write five longs in big-endian order into a 40-byte buffer
+	 */
+	private static void putLongs(byte[] buffer, long a, long b, long c,
+			long d, long e) {
+		putLong(buffer, 0, a);
+		putLong(buffer, 8, b);
+		putLong(buffer, 16, c);
+		putLong(buffer, 24, d);
+		putLong(buffer, 32, e);
+	}
+
+	private static void putLong(byte[] buffer, int offset, long value) {
+		for (int i = 7; i >= 0; i--) {
+			buffer[offset + i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+
+	/**
+	 * Source of the random coins of a node.
+	 */
+	private interface Coins {
+		long nextLong();
+
+		double nextDouble();
+	}
+
+	private static final class SecureRandomCoins implements Coins {
+		private final SecureRandom sr;
+
+		SecureRandomCoins(SecureRandom sr) {
+			this.sr = sr;
+		}
+
+		@Override
+		public long nextLong() {
+			return sr.nextLong();
+		}
+
+		@Override
+		public double nextDouble() {
+			return sr.nextDouble();
+		}
+	}
+
+	/**
+	 * Coins of {@link #COINS_AES_CTR}: the node is hashed with HMAC-SHA1, and
+	 * the first 12 bytes of the hash, followed by a 32-bit counter, are
+	 * encrypted with AES to produce the coins. All the buffers are reused from
+	 * one node to the next, so an instance must not be shared by threads.
 	 */
-	private byte[] longsToBytes(long[] values) throws IOException {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		DataOutputStream dos = new DataOutputStream(baos);
-		for (int i = 0; i < values.length; ++i) {
-			dos.writeLong(values[i]);
+	private static final class StreamCoins implements Coins {
+		private final Mac prf = new HMac(new SHA1Digest());
+		private final BlockCipher aes = new AESFastEngine();
+		private final byte[] input = new byte[5 * Long.BYTES];
+		private final byte[] seed;
+		private final byte[] counterBlock = new byte[16];
+		private final byte[] block = new byte[16];
+		private int counter;
+		private int used;
+
+		StreamCoins(byte[] prfKey, byte[] aesKey) {
+			prf.init(new KeyParameter(prfKey));
+			aes.init(true, new KeyParameter(aesKey));
+			seed = new byte[prf.getMacSize()];
+		}
+
+		void reset(long lowD, long highD, long lowR, long highR, long m) {
+			putLongs(input, lowD, highD, lowR, highR, m);
+			prf.update(input, 0, input.length);
+			prf.doFinal(seed, 0);
+			System.arraycopy(seed, 0, counterBlock, 0, 12);
+			counter = 0;
+			used = block.length;
+		}
+
+		@Override
+		public long nextLong() {
+			if (used == block.length) {
+				counterBlock[12] = (byte) (counter >>> 24);
+				counterBlock[13] = (byte) (counter >>> 16);
+				counterBlock[14] = (byte) (counter >>> 8);
+				counterBlock[15] = (byte) counter;
+				counter++;
+				aes.processBlock(counterBlock, 0, block, 0);
+				used = 0;
+			}
+			long value = 0;
+			for (int i = 0; i < 8; i++)
+				value = (value << 8) | (block[used++] & 0xFF);
+			return value;
 		}
 
-		return baos.toByteArray();
+		@Override
+		public double nextDouble() {
+			return (nextLong() >>> 11) * 0x1.0p-53;
+		}
 	}
 
 	class HGDException extends Exception {
 
 	}
 
+	@Override
+	public int getSchemeID() {
+		return SECRAMEncryptionFactory.POSITION_SCHEME_OPE;
+	}
+
+	@Override
+	public long encryptPosition(long position) {
+		try {
+			return encrypt(position);
+		} catch (NoSuchAlgorithmException | IOException | HGDException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public long decryptPosition(long encPosition) {
+		try {
+			return decrypt(encPosition);
+		} catch (NoSuchAlgorithmException | IOException | HGDException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * The positions are encrypted in a single traversal of the OPE tree, see
+	 * {@link #encrypt(long[])}.
+	 */
+	@Override
+	public long[] encryptPositions(long[] sortedPositions) {
+		try {
+			return encrypt(sortedPositions);
+		} catch (NoSuchAlgorithmException | IOException | HGDException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * The positions are decrypted in a single traversal of the OPE tree, see
+	 * {@link #decrypt(long[])}.
+	 */
+	@Override
+	public long[] decryptPositions(long[] sortedEncPositions) {
+		try {
+			return decrypt(sortedEncPositions);
+		} catch (NoSuchAlgorithmException | IOException | HGDException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * The ciphertexts have the order of the plaintexts.
+	 */
+	@Override
+	public int compareEncrypted(long encPosition1, long encPosition2) {
+		return Long.compare(encPosition1, encPosition2);
+	}
+
 	@Override
 	public Long encrypt(Long objectToEncrypt, String key) {
 
@@ -0,0 +1,339 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.encryption;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Cache of the split points of the OPE tree, mapping the ciphertext split
+ * point y of a node to its plaintext split point x.
+ * <p>
+ * The nodes of the top {@link #PINNED_LEVELS} levels of the tree are shared
+ * by all the positions, so they are kept for the lifetime of the cache. The
+ * deeper nodes are kept until the cache reaches its capacity, at which point
+ * only they are evicted. Nodes loaded with {@link #pin(long, long)} are never
+ * evicted either. Both tiers are open-addressing tables of primitive
+ * longs, which start small and grow on demand. Lookups are lock-free in the
+ * absence of concurrent insertions.
+ * <p>
+ * Caches are shared by all the {@link OPE} instances with the same key and
+ * coin generation, see {@link #forKey(String)}. The registry only keeps the
+ * caches of no live instance while their total size is below
+ * {@link #MAX_IDLE_CACHE_BYTES}.
+ * 
+ * @author zhihuang
+ */
+public class OPENodeCache {
+	/** Number of top levels of the tree which are never evicted */
+	public static final int PINNED_LEVELS = 16;
+	/** Maximum number of cached nodes below the pinned levels */
+	public static final int MAX_DEEP_NODES = 1 << 21;
+	/**
+	 * Total size of the most recently used caches that the registry keeps
+	 * alive when no OPE instance uses them. The most recent one is always
+	 * kept.
+	 */
+	public static final long MAX_IDLE_CACHE_BYTES = 128L << 20;
+
+	/**
+	 * Caches by identity, which are shared as long as an OPE instance uses
+	 * them. All accesses are synchronized on the map.
+	 */
+	private static final Map<String, WeakReference<OPENodeCache>> sharedCaches = new HashMap<String, WeakReference<OPENodeCache>>();
+	/**
+	 * Least recently used caches, kept alive within
+	 * {@link #MAX_IDLE_CACHE_BYTES}.
+	 */
+	private static final LinkedHashMap<String, OPENodeCache> recentCaches = new LinkedHashMap<String, OPENodeCache>(
+			16, 0.75f, true);
+
+	private final StampedLock lock = new StampedLock();
+	private final LongTable pinned = new LongTable();
+	private final LongTable deep = new LongTable();
+	private final int maxDeepNodes;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Construct a private cache.
+	 * @param maxDeepNodes Maximum number of cached nodes below the pinned
+	 * levels.
+	 */
+	public OPENodeCache(int maxDeepNodes) {
+		this.maxDeepNodes = maxDeepNodes;
+	}
+
+	/**
+	 * Get the cache shared by the OPE instances with the given identity. The
+	 * most recently used caches are kept alive, even when no OPE instance
+	 * uses them, so that the tree stays warm across readers of the same file,
+	 * as long as their total size is below {@link #MAX_IDLE_CACHE_BYTES}. As
+	 * the caches grow after they are returned, the size is checked at each
+	 * call.
+	 * @param identity Identifies the OPE tree, which must not reveal the key.
+	 */
+	public static OPENodeCache forKey(String identity) {
+		synchronized (sharedCaches) {
+			WeakReference<OPENodeCache> reference = sharedCaches.get(identity);
+			OPENodeCache cache = null == reference ? null : reference.get();
+			if (null == cache) {
+				// drop the caches which have been collected
+				sharedCaches.values().removeIf(r -> null == r.get());
+				cache = new OPENodeCache(MAX_DEEP_NODES);
+				sharedCaches.put(identity, new WeakReference<>(cache));
+			}
+			recentCaches.put(identity, cache);
+			long bytes = 0;
+			for (OPENodeCache recent : recentCaches.values())
+				bytes += recent.getMemoryBytes();
+			Iterator<OPENodeCache> eldest = recentCaches.values().iterator();
+			while (bytes > MAX_IDLE_CACHE_BYTES && recentCaches.size() > 1) {
+				bytes -= eldest.next().getMemoryBytes();
+				eldest.remove();
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * Get the plaintext split point of a node.
+	 * @param y Ciphertext split point of the node.
+	 * @param depth Depth of the node in the tree (0 for the root).
+	 * @return The plaintext split point, or -1 if the node is not cached.
+	 */
+	public long get(long y, int depth) {
+		long stamp = lock.tryOptimisticRead();
+		long x = lookup(y, depth);
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				x = lookup(y, depth);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		if (x < 0)
+			misses.increment();
+		else
+			hits.increment();
+		return x;
+	}
+
+	private long lookup(long y, int depth) {
+		long x = pinned.get(y);
+		if (x < 0 && depth >= PINNED_LEVELS)
+			x = deep.get(y);
+		return x;
+	}
+
+	/**
+	 * Cache the plaintext split point of a node.
+	 * @param y Ciphertext split point of the node.
+	 * @param depth Depth of the node in the tree (0 for the root).
+	 * @param x Plaintext split point of the node.
+	 */
+	public void put(long y, int depth, long x) {
+		long stamp = lock.writeLock();
+		try {
+			if (depth < PINNED_LEVELS)
+				pinned.put(y, x);
+			else {
+				if (deep.size >= maxDeepNodes) {
+					deep.clear();
+					evictions.increment();
+				}
+				deep.put(y, x);
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Cache the plaintext split point of a node, which is never evicted,
+	 * whatever its depth.
+	 */
+	public void pin(long y, long x) {
+		long stamp = lock.writeLock();
+		try {
+			pinned.put(y, x);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return Number of times the nodes below the pinned levels were evicted.
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return Fraction of the lookups which found the node, or 0 if there was
+	 *         no lookup.
+	 */
+	public double getHitRate() {
+		long h = hits.sum(), total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	/**
+	 * @return Approximate number of bytes used by the tables of the cache.
+	 */
+	public long getMemoryBytes() {
+		return pinned.getMemoryBytes() + deep.getMemoryBytes();
+	}
+
+	/**
+	 * @return Number of cached nodes.
+	 */
+	public int size() {
+		long stamp = lock.readLock();
+		try {
+			return pinned.size + deep.size;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("OPE node cache: %d nodes, hit rate %.4f, %d evictions",
+				size(), getHitRate(), getEvictions());
+	}
+
+	/**
+	 * Open-addressing hash table from non-negative longs to non-negative
+	 * longs, with linear probing. The keys and values are interleaved in a
+	 * single array, which is replaced as a whole when the table grows or is
+	 * cleared, so that a reader never mixes the keys of a table with the
+	 * values of another. The caller synchronizes the writes.
+	 */
+	private static final class LongTable {
+		private static final long EMPTY = -1;
+		private static final int INITIAL_CAPACITY = 1024;
+
+		/** Key of slot i at 2i, and its value at 2i + 1 */
+		private long[] slots = newArray(INITIAL_CAPACITY);
+		private int size;
+
+		private static long[] newArray(int capacity) {
+			long[] array = new long[2 * capacity];
+			Arrays.fill(array, EMPTY);
+			return array;
+		}
+
+		private static int slot(long key, int mask) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32)) & mask;
+		}
+
+		long getMemoryBytes() {
+			return 8L * slots.length;
+		}
+
+		/**
+		 * Safe to call concurrently with a writer, as long as the result is
+		 * discarded when a write happened: the array is read once, and
+		 * probing is bounded by its length.
+		 */
+		long get(long key) {
+			long[] s = slots;
+			int capacity = s.length / 2, mask = capacity - 1;
+			int i = slot(key, mask);
+			for (int probes = 0; probes < capacity; probes++) {
+				long current = s[2 * i];
+				if (current == key)
+					return s[2 * i + 1];
+				if (current == EMPTY)
+					return EMPTY;
+				i = (i + 1) & mask;
+			}
+			return EMPTY;
+		}
+
+		void put(long key, long value) {
+			int capacity = slots.length / 2;
+			if ((size + 1) * 4L > capacity * 3L) {
+				resize(capacity * 2);
+				capacity *= 2;
+			}
+			int mask = capacity - 1;
+			int i = slot(key, mask);
+			while (slots[2 * i] != EMPTY && slots[2 * i] != key)
+				i = (i + 1) & mask;
+			if (slots[2 * i] == EMPTY)
+				size++;
+			slots[2 * i + 1] = value;
+			slots[2 * i] = key;
+		}
+
+		void clear() {
+			slots = newArray(INITIAL_CAPACITY);
+			size = 0;
+		}
+
+		private void resize(int capacity) {
+			long[] oldSlots = slots;
+			long[] newSlots = newArray(capacity);
+			int mask = capacity - 1;
+			for (int j = 0; j < oldSlots.length; j += 2) {
+				if (oldSlots[j] == EMPTY)
+					continue;
+				int i = slot(oldSlots[j], mask);
+				while (newSlots[2 * i] != EMPTY)
+					i = (i + 1) & mask;
+				newSlots[2 * i] = oldSlots[j];
+				newSlots[2 * i + 1] = oldSlots[j + 1];
+			}
+			slots = newSlots;
+		}
+	}
+}
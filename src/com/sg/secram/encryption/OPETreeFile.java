@@ -0,0 +1,208 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.encryption;
+
+import htsjdk.samtools.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.bouncycastle.crypto.Mac;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/**
+ * Sidecar file holding the split points of the top levels of the OPE tree of
+ * a SECRAM file, so that a reader does not need to evaluate them again.
+ * <p>
+ * The split points are encrypted with AES in CTR mode, and the whole file is
+ * authenticated with HMAC-SHA256. Both keys are derived from the master key,
+ * the OPE salt of the SECRAM file and a random salt drawn every time the
+ * sidecar is written, so no two sidecars share a keystream, even when they
+ * are written for files with the same master key and OPE salt. The coin
+ * generation version and the domain of the OPE are bound into both keys, so
+ * a sidecar only authenticates for the tree it was written for.
+ * <p>
+ * Layout: magic, random salt, coin generation version, number of bits of the
+ * plaintexts and of the ciphertexts, number of levels, number of nodes, the
+ * encrypted (y, x) pairs as big-endian longs, and the MAC of all the
+ * preceding bytes.
+ * 
+ * @author zhihuang
+ */
+public class OPETreeFile {
+	public static final String EXTENSION = ".secrat";
+
+	private static final byte[] MAGIC = "SECRAMOT".getBytes();
+	private static final int SALT_LENGTH = 16;
+	private static final int HEADER_LENGTH = MAGIC.length + SALT_LENGTH + 5
+			* 4;
+	private static final int MAC_LENGTH = 32;
+	private static final int MAC_KEY_LEN = 32;
+
+	private static final byte[] ENCRYPTION_INFO = "SECRAM OPE tree encryption"
+			.getBytes();
+	private static final byte[] AUTHENTICATION_INFO = "SECRAM OPE tree authentication"
+			.getBytes();
+
+	private static Log log = Log.getInstance(OPETreeFile.class);
+
+	/**
+	 * Evaluate the top levels of the tree and write them to a sidecar file.
+	 * @param file Sidecar file.
+	 * @param ope The OPE of the SECRAM file.
+	 * @param masterKey Master key of the SECRAM file.
+	 * @param salt OPE salt of the SECRAM file.
+	 * @param levels Number of levels from the root.
+	 */
+	public static void write(File file, OPE ope, byte[] masterKey, long salt,
+			int levels) throws IOException {
+		long[] splitPoints;
+		try {
+			splitPoints = ope.getTopSplitPoints(levels);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		ByteBuffer payload = ByteBuffer.allocate(splitPoints.length * 8);
+		payload.asLongBuffer().put(splitPoints);
+		byte[] fileSalt = SECRAMEncryptionFactory.generateSecret(SALT_LENGTH);
+		byte[] encPayload = new BouncyCastle_AES_CTR(deriveKey(masterKey,
+				fileSalt, salt, ope, ENCRYPTION_INFO,
+				SECRAMEncryptionFactory.BLOCK_CIPHER_KEY_LEN)).encrypt(
+				payload.array(), null);
+
+		ByteBuffer content = ByteBuffer.allocate(HEADER_LENGTH
+				+ encPayload.length + MAC_LENGTH);
+		content.put(MAGIC);
+		content.put(fileSalt);
+		content.putInt(ope.getCoinsVersion());
+		content.putInt(ope.getPlainTextBits());
+		content.putInt(ope.getCipherTextBits());
+		content.putInt(levels);
+		content.putInt(splitPoints.length / 2);
+		content.put(encPayload);
+		content.put(mac(masterKey, fileSalt, salt, ope, content.array(),
+				content.position()));
+		Files.write(file.toPath(), content.array());
+	}
+
+	/**
+	 * Load the top levels of the tree from a sidecar file into the node cache
+	 * of the OPE. A file which is missing, does not match the OPE, or fails
+	 * authentication is ignored, in which case the nodes are evaluated on
+	 * demand as usual.
+	 * @param file Sidecar file.
+	 * @param ope The OPE of the SECRAM file.
+	 * @param masterKey Master key of the SECRAM file.
+	 * @param salt OPE salt of the SECRAM file.
+	 * @return Whether the split points were loaded.
+	 */
+	public static boolean load(File file, OPE ope, byte[] masterKey, long salt)
+			throws IOException {
+		if (!file.isFile())
+			return false;
+		byte[] content = Files.readAllBytes(file.toPath());
+		if (content.length < HEADER_LENGTH + MAC_LENGTH
+				|| !Arrays.equals(MAGIC, Arrays.copyOf(content, MAGIC.length))) {
+			log.warn("Ignoring " + file + ": not an OPE tree file.");
+			return false;
+		}
+		byte[] fileSalt = Arrays.copyOfRange(content, MAGIC.length,
+				MAGIC.length + SALT_LENGTH);
+		int macOffset = content.length - MAC_LENGTH;
+		byte[] expectedMac = mac(masterKey, fileSalt, salt, ope, content,
+				macOffset);
+		if (!MessageDigest.isEqual(expectedMac,
+				Arrays.copyOfRange(content, macOffset, content.length))) {
+			log.warn("Ignoring " + file + ": authentication failed.");
+			return false;
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(content, MAGIC.length
+				+ SALT_LENGTH, HEADER_LENGTH - MAGIC.length - SALT_LENGTH);
+		int coinsVersion = buffer.getInt();
+		int plainTextBits = buffer.getInt();
+		int cipherTextBits = buffer.getInt();
+		buffer.getInt(); // levels
+		int count = buffer.getInt();
+		if (coinsVersion != ope.getCoinsVersion()
+				|| plainTextBits != ope.getPlainTextBits()
+				|| cipherTextBits != ope.getCipherTextBits()
+				|| count * 16L != macOffset - HEADER_LENGTH) {
+			log.warn("Ignoring " + file + ": it does not match the file.");
+			return false;
+		}
+
+		byte[] payload = new BouncyCastle_AES_CTR(deriveKey(masterKey,
+				fileSalt, salt, ope, ENCRYPTION_INFO,
+				SECRAMEncryptionFactory.BLOCK_CIPHER_KEY_LEN))
+				.decrypt(Arrays.copyOfRange(content, HEADER_LENGTH, macOffset),
+						null);
+		long[] splitPoints = new long[2 * count];
+		ByteBuffer.wrap(payload).asLongBuffer().get(splitPoints);
+		ope.pinSplitPoints(splitPoints);
+		return true;
+	}
+
+	/**
+	 * Derive a key from the random salt of the sidecar, and bind it to the
+	 * OPE salt of the SECRAM file and to the tree of the OPE through the
+	 * context information.
+	 */
+	private static byte[] deriveKey(byte[] masterKey, byte[] fileSalt,
+			long opeSalt, OPE ope, byte[] info, int length) {
+		ByteBuffer context = ByteBuffer.allocate(info.length + 8 + 3 * 4);
+		context.put(info);
+		context.putLong(opeSalt);
+		context.putInt(ope.getCoinsVersion());
+		context.putInt(ope.getPlainTextBits());
+		context.putInt(ope.getCipherTextBits());
+		return SECRAMEncryptionFactory.deriveKey(masterKey, fileSalt,
+				context.array(), length);
+	}
+
+	private static byte[] mac(byte[] masterKey, byte[] fileSalt, long opeSalt,
+			OPE ope, byte[] content, int length) {
+		Mac mac = new HMac(new SHA256Digest());
+		mac.init(new KeyParameter(deriveKey(masterKey, fileSalt, opeSalt, ope,
+				AUTHENTICATION_INFO, MAC_KEY_LEN)));
+		mac.update(content, 0, length);
+		byte[] result = new byte[MAC_LENGTH];
+		mac.doFinal(result, 0);
+		return result;
+	}
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.encryption;
+
+/**
+ * Order-revealing encryption of the positions, after the scheme of Chenette,
+ * Lewi, Weis and Wu ("Practical Order-Revealing Encryption with Limited
+ * Leakage", FSE 2016).
+ * <p>
+ * The i-th bit b<sub>i</sub> of a plaintext (from the most significant one) is
+ * encrypted as u<sub>i</sub> = F(i, b<sub>1</sub>...b<sub>i-1</sub>) +
+ * b<sub>i</sub> mod 3, where F is a PRF keyed with the secret key (here
+ * SipHash-2-4). The ciphertext packs the u<sub>i</sub>'s on two bits each, so
+ * the plaintexts have at most {@link #MAX_PLAINTEXT_BITS} bits. Two
+ * ciphertexts are compared at their first different u<sub>i</sub>, which is
+ * one more (mod 3) for the larger plaintext. Comparing ciphertexts thus
+ * reveals the order of the plaintexts and the index of their first different
+ * bit, but, unlike {@link OPE}, the ciphertexts are not numerically ordered:
+ * they must be compared with {@link #compareEncrypted(long, long)}.
+ * <p>
+ * Encryption and decryption evaluate the PRF once per bit, and comparison
+ * does not evaluate it, which is much cheaper than the OPE. Instances are
+ * thread-safe.
+ * 
+ * @author zhihuang
+ */
+public class ORE implements SECRAMPositionEncryption {
+	/**
+	 * Maximum number of bits of the plaintexts, such that the ciphertexts fit
+	 * in a long.
+	 */
+	public static final int MAX_PLAINTEXT_BITS = 32;
+
+	/** SipHash key */
+	private final long k0, k1;
+
+	private final int plainTextBits;
+	private final long maxPlaintext;
+
+	/**
+	 * Construct the ORE with a key and the number of bits of the plaintexts.
+	 * @param keyBytes Key bytes, of which the first 16 are used.
+	 * @param plainTextBits Number of bits of the plaintexts, at most
+	 *            {@link #MAX_PLAINTEXT_BITS}.
+	 */
+	public ORE(byte[] keyBytes, int plainTextBits) {
+		if (keyBytes.length < 16)
+			throw new IllegalArgumentException(
+					"The ORE key should have at least 16 bytes");
+		if (plainTextBits < 1 || plainTextBits > MAX_PLAINTEXT_BITS)
+			throw new IllegalArgumentException("The ORE plaintexts have 1 to "
+					+ MAX_PLAINTEXT_BITS + " bits, not " + plainTextBits);
+		this.k0 = littleEndianLong(keyBytes, 0);
+		this.k1 = littleEndianLong(keyBytes, 8);
+		this.plainTextBits = plainTextBits;
+		this.maxPlaintext = (1L << plainTextBits) - 1;
+	}
+
+	public int getPlainTextBits() {
+		return plainTextBits;
+	}
+
+	public long getMaxPlaintext() {
+		return maxPlaintext;
+	}
+
+	@Override
+	public int getSchemeID() {
+		return SECRAMEncryptionFactory.POSITION_SCHEME_ORE;
+	}
+
+	@Override
+	public long encryptPosition(long position) {
+		checkPlaintext(position);
+		return encrypt(position, 0, 0);
+	}
+
+	@Override
+	public long decryptPosition(long encPosition) {
+		return decrypt(encPosition, 0, 0);
+	}
+
+	/**
+	 * The bits shared with the previous position give the same part of the
+	 * ciphertext, so the PRF is only evaluated on the remaining bits.
+	 */
+	@Override
+	public long[] encryptPositions(long[] sortedPositions) {
+		long[] result = new long[sortedPositions.length];
+		long prev = 0, prevEnc = 0;
+		for (int i = 0; i < sortedPositions.length; i++) {
+			long position = sortedPositions[i];
+			checkPlaintext(position);
+			int common = i == 0 ? 0 : commonBits(position, prev,
+					plainTextBits);
+			result[i] = prevEnc = encrypt(position, common, prevEnc);
+			prev = position;
+		}
+		return result;
+	}
+
+	/**
+	 * The trits shared with the previous ciphertext give the same bits of the
+	 * plaintext, so the PRF is only evaluated on the remaining trits.
+	 */
+	@Override
+	public long[] decryptPositions(long[] sortedEncPositions) {
+		long[] result = new long[sortedEncPositions.length];
+		long prev = 0, prevEnc = 0;
+		for (int i = 0; i < sortedEncPositions.length; i++) {
+			long encPosition = sortedEncPositions[i];
+			int common = i == 0 ? 0 : commonBits(encPosition, prevEnc,
+					2 * plainTextBits) / 2;
+			result[i] = prev = decrypt(encPosition, common, prev);
+			prevEnc = encPosition;
+		}
+		return result;
+	}
+
+	@Override
+	public int compareEncrypted(long encPosition1, long encPosition2) {
+		return compare(encPosition1, encPosition2);
+	}
+
+	/**
+	 * Compare two ciphertexts, which does not need the key.
+	 * @return A negative integer, zero, or a positive integer as the first
+	 *         plaintext is smaller than, equal to, or greater than the second
+	 *         one.
+	 */
+	public static int compare(long encPosition1, long encPosition2) {
+		long diff = encPosition1 ^ encPosition2;
+		if (diff == 0)
+			return 0;
+		int shift = (63 - Long.numberOfLeadingZeros(diff)) & ~1;
+		int u1 = (int) (encPosition1 >>> shift) & 3;
+		int u2 = (int) (encPosition2 >>> shift) & 3;
+		return u1 == (u2 + 1) % 3 ? 1 : -1;
+	}
+
+	/**
+	 * Encrypt the bits of a plaintext from a given index, the trits of the
+	 * previous bits being those of a ciphertext with the same previous bits.
+	 */
+	private long encrypt(long plain, int from, long prefixCipher) {
+		int n = plainTextBits;
+		long result = from == 0 ? 0 : prefixCipher
+				& (-1L << (2 * (n - from)));
+		for (int i = from; i < n; i++) {
+			long prefix = i == 0 ? 0 : plain >>> (n - i);
+			int bit = (int) (plain >>> (n - 1 - i)) & 1;
+			int u = (prf(i, prefix) + bit) % 3;
+			result |= (long) u << (2 * (n - 1 - i));
+		}
+		return result;
+	}
+
+	/**
+	 * Decrypt the trits of a ciphertext from a given index, the previous bits
+	 * being those of a plaintext with the same previous trits.
+	 */
+	private long decrypt(long cipher, int from, long prefixPlain) {
+		int n = plainTextBits;
+		if (n < MAX_PLAINTEXT_BITS && (cipher >>> (2 * n)) != 0)
+			throw new IllegalArgumentException("Invalid ORE ciphertext "
+					+ cipher);
+		long prefix = from == 0 ? 0 : prefixPlain >>> (n - from);
+		for (int i = from; i < n; i++) {
+			int u = (int) (cipher >>> (2 * (n - 1 - i))) & 3;
+			int bit = (u - prf(i, prefix) + 3) % 3;
+			if (u == 3 || bit > 1)
+				throw new IllegalArgumentException("Invalid ORE ciphertext "
+						+ cipher);
+			prefix = (prefix << 1) | bit;
+		}
+		return prefix;
+	}
+
+	private void checkPlaintext(long plain) {
+		if (plain < 0 || plain > maxPlaintext)
+			throw new IllegalArgumentException("ORE encryption failed: "
+					+ plain + " is out of plaintext range [0, " + maxPlaintext
+					+ "]");
+	}
+
+	/**
+	 * @return Number of most significant bits shared by two values of a given
+	 *         number of bits.
+	 */
+	private static int commonBits(long a, long b, int bits) {
+		return Math.min(bits, Long.numberOfLeadingZeros(a ^ b) - (64 - bits));
+	}
+
+	/**
+	 * @return The PRF of the i-th bit given the previous bits, mod 3.
+	 */
+	private int prf(int i, long prefix) {
+		return (int) Long.remainderUnsigned(sipHash24(prefix, i), 3);
+	}
+
+	/**
+	 * SipHash-2-4 of a 16-byte message made of two little-endian words.
+	 */
+	private long sipHash24(long m0, long m1) {
+		long[] v = new long[] { k0 ^ 0x736f6d6570736575L,
+				k1 ^ 0x646f72616e646f6dL, k0 ^ 0x6c7967656e657261L,
+				k1 ^ 0x7465646279746573L };
+		compress(v, m0);
+		compress(v, m1);
+		compress(v, 16L << 56); // message length
+		v[2] ^= 0xff;
+		for (int r = 0; r < 4; r++)
+			sipRound(v);
+		return v[0] ^ v[1] ^ v[2] ^ v[3];
+	}
+
+	private static void compress(long[] v, long m) {
+		v[3] ^= m;
+		sipRound(v);
+		sipRound(v);
+		v[0] ^= m;
+	}
+
+	private static void sipRound(long[] v) {
+		v[0] += v[1];
+		v[1] = Long.rotateLeft(v[1], 13) ^ v[0];
+		v[0] = Long.rotateLeft(v[0], 32);
+		v[2] += v[3];
+		v[3] = Long.rotateLeft(v[3], 16) ^ v[2];
+		v[0] += v[3];
+		v[3] = Long.rotateLeft(v[3], 21) ^ v[0];
+		v[2] += v[1];
+		v[1] = Long.rotateLeft(v[1], 17) ^ v[2];
+		v[2] = Long.rotateLeft(v[2], 32);
+	}
+
+	private static long littleEndianLong(byte[] bytes, int offset) {
+		long result = 0;
+		for (int i = 7; i >= 0; i--)
+			result = (result << 8) | (bytes[offset + i] & 0xFF);
+		return result;
+	}
+
+	@Override
+	public Long encrypt(Long objectToEncrypt, String key) {
+		return encryptPosition(objectToEncrypt);
+	}
+
+	@Override
+	public Long decrypt(Long objectToDecrypt, String key) {
+		return decryptPosition(objectToDecrypt);
+	}
+}
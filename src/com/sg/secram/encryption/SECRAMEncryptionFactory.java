@@ -31,8 +31,10 @@
  */
 package com.sg.secram.encryption;
 
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Comparator;
 
 import org.bouncycastle.crypto.digests.SHA1Digest;
 import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
@@ -50,9 +52,35 @@ public class SECRAMEncryptionFactory {
 	public static final int BLOCK_CIPHER_KEY_LEN = 24;
 	public static final int OPE_KEY_LEN = 24;
 
+	/**
+	 * Container cipher implemented with the BouncyCastle lightweight api, see
+	 * {@link BouncyCastle_AES_CTR}.
+	 */
+	public static final int CONTAINER_CIPHER_BOUNCY_CASTLE = 0;
+	/**
+	 * Container cipher implemented with the JCE provider of the JVM, working
+	 * in place, see {@link JCE_AES_CTR}. The two implementations produce the
+	 * same output.
+	 */
+	public static final int CONTAINER_CIPHER_JCE = 1;
+
+	/**
+	 * Positions encrypted with the order-preserving encryption, see
+	 * {@link OPE}.
+	 */
+	public static final int POSITION_SCHEME_OPE = 0;
+	/**
+	 * Positions encrypted with the order-revealing encryption, see
+	 * {@link ORE}.
+	 */
+	public static final int POSITION_SCHEME_ORE = 1;
+
+	private static final byte[] POSITION_KEY_INFO = "SECRAM position encryption"
+			.getBytes();
+
 	/**
 	 * Derive a key from the master key and the salt, and use the derived key to
-	 * construct an AES block cipher.
+	 * construct an AES block cipher, with the JCE implementation.
 	 * 
 	 * @param masterKey
 	 * @param salt
@@ -60,28 +88,156 @@ public class SECRAMEncryptionFactory {
 	 */
 	public static SECRAMEncryptionMethod<byte[]> createContainerEM(
 			byte[] masterKey, long salt) {
+		return createContainerEM(masterKey, salt, CONTAINER_CIPHER_JCE);
+	}
+
+	/**
+	 * Derive a key from the master key and the salt, and use the derived key to
+	 * construct an AES block cipher.
+	 * 
+	 * @param masterKey
+	 * @param salt
+	 * @param implementation
+	 *            {@link #CONTAINER_CIPHER_BOUNCY_CASTLE} or
+	 *            {@link #CONTAINER_CIPHER_JCE}.
+	 * @return An AES block cipher in CTR mode.
+	 */
+	public static SECRAMEncryptionMethod<byte[]> createContainerEM(
+			byte[] masterKey, long salt, int implementation) {
 		if (null == masterKey)
 			return new DummyCipher<byte[]>();
 		byte[] derivedKey = deriveKey(masterKey, SECRAMUtils.longToBytes(salt),
 				null, BLOCK_CIPHER_KEY_LEN);
-		return new BouncyCastle_AES_CTR(derivedKey);
+		switch (implementation) {
+		case CONTAINER_CIPHER_BOUNCY_CASTLE:
+			return new BouncyCastle_AES_CTR(derivedKey);
+		case CONTAINER_CIPHER_JCE:
+			return new JCE_AES_CTR(derivedKey);
+		default:
+			throw new IllegalArgumentException(
+					"Unknown container cipher implementation: "
+							+ implementation);
+		}
 	}
 
 	/**
 	 * Derive a key from the master key and the salt, and use the derived key to
-	 * construct an OPE cipher.
+	 * construct an OPE cipher, with the original coin generation.
 	 * 
 	 * @param masterKey
 	 * @param salt
 	 * @return An OPE cipher.
 	 */
-	public static SECRAMEncryptionMethod<Long> createPositionEM(
+	public static SECRAMPositionEncryption createPositionEM(
 			byte[] masterKey, long salt) {
+		return createPositionEM(masterKey, salt, OPE.COINS_SHA1PRNG);
+	}
+
+	/**
+	 * Derive a key from the master key and the salt, and use the derived key to
+	 * construct an OPE cipher.
+	 * 
+	 * @param masterKey
+	 * @param salt
+	 * @param coinsVersion
+	 *            Coin generation version of the OPE, as recorded in the file
+	 *            header.
+	 * @return An OPE cipher.
+	 */
+	public static SECRAMPositionEncryption createPositionEM(
+			byte[] masterKey, long salt, int coinsVersion) {
+		return createPositionEM(masterKey, salt, coinsVersion,
+				OPE.DEFAULT_PLAINTEXT_BITS, OPE.DEFAULT_CIPHERTEXT_BITS);
+	}
+
+	/**
+	 * Derive a key from the master key and the salt, and use the derived key to
+	 * construct an OPE cipher on a given domain.
+	 * 
+	 * @param masterKey
+	 * @param salt
+	 * @param coinsVersion
+	 *            Coin generation version of the OPE, as recorded in the file
+	 *            header.
+	 * @param plainTextBits
+	 *            Number of bits of the plaintexts.
+	 * @param cipherTextBits
+	 *            Number of bits of the ciphertexts.
+	 * @return An OPE cipher.
+	 */
+	public static SECRAMPositionEncryption createPositionEM(
+			byte[] masterKey, long salt, int coinsVersion, int plainTextBits,
+			int cipherTextBits) {
+		return createPositionEM(masterKey, salt, POSITION_SCHEME_OPE,
+				coinsVersion, plainTextBits, cipherTextBits);
+	}
+
+	/**
+	 * Derive a key from the master key and the salt, and use the derived key to
+	 * construct the position encryption of a scheme on a given domain. The
+	 * scheme, the coin generation version and the domain are bound into the
+	 * derived key, so that the same master key and salt never key two
+	 * different trees, except for the original OPE (absolute domain, original
+	 * coins), whose key is derived as it always was.
+	 * 
+	 * @param masterKey
+	 * @param salt
+	 * @param scheme
+	 *            {@link #POSITION_SCHEME_OPE} or {@link #POSITION_SCHEME_ORE},
+	 *            as recorded in the file header.
+	 * @param coinsVersion
+	 *            Coin generation version of the OPE.
+	 * @param plainTextBits
+	 *            Number of bits of the plaintexts.
+	 * @param cipherTextBits
+	 *            Number of bits of the ciphertexts of the OPE.
+	 * @return A position encryption.
+	 */
+	public static SECRAMPositionEncryption createPositionEM(
+			byte[] masterKey, long salt, int scheme, int coinsVersion,
+			int plainTextBits, int cipherTextBits) {
 		if (null == masterKey)
-			return new DummyCipher<Long>();
+			return new DummyPositionEncryption();
+		byte[] info = null;
+		if (scheme != POSITION_SCHEME_OPE
+				|| coinsVersion != OPE.COINS_SHA1PRNG
+				|| plainTextBits != OPE.DEFAULT_PLAINTEXT_BITS
+				|| cipherTextBits != OPE.DEFAULT_CIPHERTEXT_BITS)
+			info = ByteBuffer.allocate(POSITION_KEY_INFO.length + 4 * 4)
+					.put(POSITION_KEY_INFO).putInt(scheme).putInt(coinsVersion)
+					.putInt(plainTextBits).putInt(cipherTextBits).array();
 		byte[] derivedKey = deriveKey(masterKey, SECRAMUtils.longToBytes(salt),
-				null, OPE_KEY_LEN);
-		return new OPE(derivedKey);
+				info, OPE_KEY_LEN);
+		switch (scheme) {
+		case POSITION_SCHEME_OPE:
+			return new OPE(derivedKey, coinsVersion, plainTextBits,
+					cipherTextBits);
+		case POSITION_SCHEME_ORE:
+			return new ORE(derivedKey, plainTextBits);
+		default:
+			throw new IllegalArgumentException(
+					"Unknown position encryption scheme: " + scheme);
+		}
+	}
+
+	/**
+	 * Get the order of the encrypted positions of a scheme, which does not
+	 * need the key, e.g., to look up the index.
+	 * 
+	 * @param scheme
+	 *            {@link #POSITION_SCHEME_OPE} or {@link #POSITION_SCHEME_ORE}.
+	 * @return A comparator of the encrypted positions.
+	 */
+	public static Comparator<Long> getPositionComparator(int scheme) {
+		switch (scheme) {
+		case POSITION_SCHEME_OPE:
+			return Comparator.naturalOrder();
+		case POSITION_SCHEME_ORE:
+			return ORE::compare;
+		default:
+			throw new IllegalArgumentException(
+					"Unknown position encryption scheme: " + scheme);
+		}
 	}
 
 	/**
@@ -37,6 +37,7 @@ package com.sg.secram.encryption;
  * See also:
  * <ul>
  * <li>{@link BouncyCastle_AES_CTR}</li>
+ * <li>{@link JCE_AES_CTR}</li>
  * <li>{@link OPE}</li>
  * </ul>
  * @author zhihuang
@@ -53,4 +54,11 @@ public interface SECRAMEncryptionMethod<T> {
 	 * Decrypt "objectToDecrypt" with "key"
 	 */
 	public T decrypt(T objectToDecrypt, String key);
+
+	/**
+	 * Erase the key material held by this method, which must not be used
+	 * afterwards.
+	 */
+	public default void destroy() {
+	}
 }
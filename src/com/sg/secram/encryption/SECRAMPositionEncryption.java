@@ -0,0 +1,97 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.encryption;
+
+import java.util.Comparator;
+
+/**
+ * Interface for the encryption of the positions, which must let the order of
+ * the positions be compared on their ciphertexts, so that a SECRAM file can be
+ * indexed and queried without the key.
+ * <p>
+ * Each scheme has an ID, recorded in the SECRAM header, see
+ * {@link SECRAMEncryptionFactory#createPositionEM(byte[], long, int, int, int, int)}.
+ * Implementations must be thread-safe.
+ * <p>
+ * See also:
+ * <ul>
+ * <li>{@link OPE}</li>
+ * <li>{@link ORE}</li>
+ * </ul>
+ * @author zhihuang
+ *
+ */
+public interface SECRAMPositionEncryption extends SECRAMEncryptionMethod<Long> {
+	/**
+	 * @return ID of the scheme, as recorded in the SECRAM header.
+	 */
+	public int getSchemeID();
+
+	/**
+	 * Encrypt a position.
+	 */
+	public long encryptPosition(long position);
+
+	/**
+	 * Decrypt a position.
+	 */
+	public long decryptPosition(long encPosition);
+
+	/**
+	 * Encrypt positions in batch.
+	 * @param sortedPositions Positions in ascending order.
+	 * @return The encrypted positions, in the same order.
+	 */
+	public long[] encryptPositions(long[] sortedPositions);
+
+	/**
+	 * Decrypt positions in batch.
+	 * @param sortedEncPositions Encrypted positions in ascending numerical
+	 *            order.
+	 * @return The positions, in the same order.
+	 */
+	public long[] decryptPositions(long[] sortedEncPositions);
+
+	/**
+	 * Compare two encrypted positions.
+	 * @return A negative integer, zero, or a positive integer as the first
+	 *         position is before, equal to, or after the second position.
+	 */
+	public int compareEncrypted(long encPosition1, long encPosition2);
+
+	/**
+	 * @return A comparator of the encrypted positions, e.g., for the index.
+	 */
+	public default Comparator<Long> comparator() {
+		return this::compareEncrypted;
+	}
+}
@@ -31,9 +31,21 @@
  */
 package com.sg.secram.example;
 
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
+import com.sg.secram.impl.SECRAMFileReader;
 import com.sg.secram.impl.converters.Secram2Bam;
 import com.sg.secram.util.SECRAMUtils;
 
@@ -75,4 +87,117 @@ public class Secram2BamFile {
 		System.out.println("Total time elapsed: "
 				+ SECRAMUtils.timeString(totalTime));
 	}
+
+	/**
+	 * Convert the reads starting in some regions of a SECRAM file to a SAM or
+	 * BAM file, or to the standard output.
+	 * @param inName
+	 * 				SECRAM file name.
+	 * @param outName
+	 * 				SAM or BAM file name, or null or "-" for the standard output.
+	 * @param refName
+	 * 				Reference file name.
+	 * @param key
+	 * 				Decryption key.
+	 * @param regions
+	 * 				Regions in the format "chr", "chr:start" or "chr:start-end" (1-based, inclusive).
+	 * @param bedName
+	 * 				BED file with more regions (0-based, half-open), or null.
+	 * @param sam
+	 * 				Whether to write SAM rather than BAM.
+	 */
+	public static void secram2bam(String inName, String outName,
+			String refName, byte[] key, List<String> regions, String bedName,
+			boolean sam) throws IOException {
+		SECRAMFileReader reader = new SECRAMFileReader(inName, refName, key);
+		SAMFileHeader header = reader.getSAMFileHeader();
+		List<QueryInterval> intervals = new ArrayList<QueryInterval>();
+		if (null != regions)
+			for (String region : regions)
+				intervals.add(parseRegion(region,
+						header.getSequenceDictionary()));
+		if (null != bedName)
+			intervals.addAll(readBedFile(new File(bedName),
+					header.getSequenceDictionary()));
+
+		SAMFileWriterFactory factory = new SAMFileWriterFactory();
+		SAMFileWriter writer;
+		if (null == outName || outName.equals("-"))
+			writer = sam ? factory.makeSAMWriter(header, true, System.out)
+					: factory.makeBAMWriter(header, true, System.out);
+		else
+			writer = sam ? factory.makeSAMWriter(header, true, new File(
+					outName)) : factory.makeBAMWriter(header, true, new File(
+					outName));
+		try {
+			Secram2Bam.convertRegions(reader, intervals, writer);
+		} finally {
+			writer.close();
+			reader.close();
+		}
+	}
+
+	/**
+	 * Parse a region in the format "chr", "chr:start" or "chr:start-end"
+	 * (1-based, inclusive).
+	 */
+	public static QueryInterval parseRegion(String region,
+			SAMSequenceDictionary dictionary) {
+		int colon = region.lastIndexOf(':');
+		SAMSequenceRecord sequence = dictionary.getSequence(region);
+		if (null != sequence || colon < 0) {
+			if (null == sequence)
+				throw new IllegalArgumentException("Unknown reference in region "
+						+ region);
+			return new QueryInterval(sequence.getSequenceIndex(), 1, 0);
+		}
+		sequence = dictionary.getSequence(region.substring(0, colon));
+		if (null == sequence)
+			throw new IllegalArgumentException("Unknown reference in region "
+					+ region);
+		String[] bounds = region.substring(colon + 1).replace(",", "")
+				.split("-", -1);
+		try {
+			int start = Integer.parseInt(bounds[0]);
+			int end = bounds.length > 1 && !bounds[1].isEmpty() ? Integer
+					.parseInt(bounds[1]) : 0;
+			if (bounds.length > 2 || start < 1 || (end > 0 && end < start))
+				throw new IllegalArgumentException("Invalid region " + region);
+			return new QueryInterval(sequence.getSequenceIndex(), start, end);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid region " + region, e);
+		}
+	}
+
+	/**
+	 * Read the regions of a BED file (0-based, half-open), skipping the
+	 * header and comment lines.
+	 */
+	public static List<QueryInterval> readBedFile(File bedFile,
+			SAMSequenceDictionary dictionary) throws IOException {
+		List<QueryInterval> intervals = new ArrayList<QueryInterval>();
+		try (BufferedReader bedReader = new BufferedReader(new FileReader(
+				bedFile))) {
+			String line;
+			while ((line = bedReader.readLine()) != null) {
+				if (line.trim().isEmpty() || line.startsWith("#")
+						|| line.startsWith("track") || line.startsWith("browser"))
+					continue;
+				String[] fields = line.split("\t");
+				if (fields.length < 3)
+					throw new IllegalArgumentException("Invalid BED line: "
+							+ line);
+				SAMSequenceRecord sequence = dictionary.getSequence(fields[0]);
+				if (null == sequence)
+					throw new IllegalArgumentException(
+							"Unknown reference in BED line: " + line);
+				int start = Integer.parseInt(fields[1].trim()) + 1;
+				int end = Integer.parseInt(fields[2].trim());
+				if (end >= start)
+					intervals.add(new QueryInterval(sequence
+							.getSequenceIndex(), start, end));
+			}
+		}
+		return intervals;
+	}
 }
@@ -0,0 +1,828 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.impl;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.bouncycastle.crypto.Mac;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import com.sg.secram.encryption.BouncyCastle_AES_CTR;
+import com.sg.secram.encryption.SECRAMEncryptionFactory;
+
+/**
+ * Coverage of a SECRAM file at several resolutions, like the zoom levels of a
+ * bigWig file, so that depth and summary queries do not decode any record.
+ * The finest level holds the runs of positions with the same depth, and each
+ * coarser level holds the minimum, maximum and sum of the depth, and the
+ * number of covered positions, in bins of {@link #BIN_SIZES} positions. The
+ * positions without record have a depth of 0, and the bins without covered
+ * position are not stored.
+ * <p>
+ * The pyramid is saved in a sidecar file of the SECRAM file by a
+ * {@link Writer}, as the records are written. The references are cut in
+ * chunks of {@link #CHUNK_SIZE} positions, the size of the coarsest bins, and
+ * the runs and finer bins of each covered chunk are stored in a block of
+ * their own. The coarsest bins and the offsets of the blocks are stored in an
+ * index block at the end of the file. Only the index is read when the pyramid
+ * is loaded, and the block of a chunk is read when a query reaches it.
+ * <p>
+ * Each block is compressed, encrypted with AES in CTR mode and authenticated
+ * with HMAC-SHA256, with keys derived from the master key and a random salt
+ * of the sidecar file. The number of the block is its IV, and is
+ * authenticated along with it. The blocks are stored in clear if the SECRAM
+ * file is not encrypted.
+ * <p>
+ * Layout: magic, whether the content is encrypted, salt, the chunk blocks,
+ * the index block, and the offset and length of the index block. Each block
+ * is followed by its MAC if it is encrypted.
+ * 
+ * @author zhihuang
+ *
+ */
+public class CoveragePyramid {
+	public static final String EXTENSION = ".secrac";
+
+	/**
+	 * Number of positions in the bins of the levels above the runs.
+	 */
+	public static final int[] BIN_SIZES = { 1 << 7, 1 << 14, 1 << 20 };
+
+	/**
+	 * Number of positions of the chunks stored in separate blocks.
+	 */
+	public static final int CHUNK_SIZE = BIN_SIZES[BIN_SIZES.length - 1];
+
+	/**
+	 * Maximum number of chunks kept in memory by a loaded pyramid.
+	 */
+	private static final int CHUNK_CACHE_SIZE = 16;
+
+	private static final byte[] MAGIC = "SECRAMCV".getBytes();
+	private static final int SALT_LENGTH = 16;
+	private static final int HEADER_LENGTH = MAGIC.length + 1 + SALT_LENGTH;
+	private static final int TRAILER_LENGTH = 8 + 4;
+	private static final int MAC_LENGTH = 32;
+	private static final int MAC_KEY_LEN = 32;
+	private static final int IV_LENGTH = 16;
+	/**
+	 * Number of the index block, the chunk blocks being numbered from 0.
+	 */
+	private static final long INDEX_BLOCK = -1;
+
+	private static final byte[] ENCRYPTION_INFO = "SECRAM coverage encryption"
+			.getBytes();
+	private static final byte[] AUTHENTICATION_INFO = "SECRAM coverage authentication"
+			.getBytes();
+
+	private static Log log = Log.getInstance(CoveragePyramid.class);
+
+	private File file;
+	private int[] referenceLengths;
+	private ReferenceIndex[] indexes;
+	/**
+	 * Keys of the blocks, or null if they are stored in clear.
+	 */
+	private byte[] encryptionKey = null;
+	private byte[] authenticationKey = null;
+
+	/**
+	 * Least recently used chunks, by reference index and chunk number.
+	 */
+	private final Map<Long, Track> chunks = new LinkedHashMap<Long, Track>(16,
+			0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Track> eldest) {
+			return size() > CHUNK_CACHE_SIZE;
+		}
+	};
+
+	private CoveragePyramid() {
+	}
+
+	/**
+	 * @return The depth of a 0-based position.
+	 */
+	public synchronized int getDepth(int referenceIndex, int position) {
+		Track track = getChunk(referenceIndex, position / CHUNK_SIZE);
+		if (null == track)
+			return 0;
+		int i = Arrays.binarySearch(track.runStarts, 0, track.nofRuns,
+				position);
+		if (i < 0)
+			i = -i - 2;
+		if (i < 0 || position >= track.runStarts[i] + track.runLengths[i])
+			return 0;
+		return track.runDepths[i];
+	}
+
+	/**
+	 * Summarize the depth of a range of positions, from the coarsest bins
+	 * inside the range and the finer levels at its edges. Only the chunks at
+	 * the edges of the range are read.
+	 * @param referenceIndex Reference index.
+	 * @param start 0-based first position.
+	 * @param end 0-based last position (inclusive).
+	 */
+	public synchronized Summary summarize(int referenceIndex, int start,
+			int end) {
+		Summary summary = new Summary();
+		start = Math.max(start, 0);
+		end = Math.min(end, referenceLengths[referenceIndex] - 1);
+		if (start > end)
+			return summary;
+		long firstChunk = (start + CHUNK_SIZE - 1L) / CHUNK_SIZE;
+		long lastChunk = (end + 1L) / CHUNK_SIZE - 1;
+		if (firstChunk > lastChunk) {
+			summarizeChunks(referenceIndex, start, end, summary);
+			return summary;
+		}
+		if (start < firstChunk * CHUNK_SIZE)
+			summarizeChunks(referenceIndex, start,
+					(int) (firstChunk * CHUNK_SIZE - 1), summary);
+		indexes[referenceIndex].chunks.summarize((int) firstChunk,
+				(int) lastChunk, CHUNK_SIZE, summary);
+		if ((lastChunk + 1) * CHUNK_SIZE <= end)
+			summarizeChunks(referenceIndex,
+					(int) ((lastChunk + 1) * CHUNK_SIZE), end, summary);
+		return summary;
+	}
+
+	/**
+	 * Summarize a range of positions from the finer levels of the chunks it
+	 * overlaps.
+	 */
+	private void summarizeChunks(int referenceIndex, int start, int end,
+			Summary summary) {
+		for (int chunk = start / CHUNK_SIZE; chunk <= end / CHUNK_SIZE; chunk++) {
+			int chunkStart = Math.max(start, chunk * CHUNK_SIZE);
+			int chunkEnd = (int) Math.min(end, (chunk + 1L) * CHUNK_SIZE - 1);
+			Track track = getChunk(referenceIndex, chunk);
+			if (null == track)
+				summary.add(chunkEnd - chunkStart + 1L, 0, 0, 0, 0);
+			else
+				summarize(track, BIN_SIZES.length - 2, chunkStart, chunkEnd,
+						summary);
+		}
+	}
+
+	private static void summarize(Track track, int level, int start, int end,
+			Summary summary) {
+		if (level < 0) {
+			track.summarizeRuns(start, end, summary);
+			return;
+		}
+		int binSize = BIN_SIZES[level];
+		long firstBin = (start + binSize - 1L) / binSize;
+		long lastBin = (end + 1L) / binSize - 1;
+		if (firstBin > lastBin) {
+			summarize(track, level - 1, start, end, summary);
+			return;
+		}
+		if (start < firstBin * binSize)
+			summarize(track, level - 1, start,
+					(int) (firstBin * binSize - 1), summary);
+		track.levels[level].summarize((int) firstBin, (int) lastBin, binSize,
+				summary);
+		if ((lastBin + 1) * binSize <= end)
+			summarize(track, level - 1, (int) ((lastBin + 1) * binSize), end,
+					summary);
+	}
+
+	/**
+	 * Get the runs and the finer bins of a chunk, and read its block if it is
+	 * not cached.
+	 * @return The chunk, or null if it has no covered position.
+	 */
+	private Track getChunk(int referenceIndex, int chunk) {
+		Long key = ((long) referenceIndex << 32) | chunk;
+		Track track = chunks.get(key);
+		if (null != track)
+			return track;
+		ReferenceIndex index = indexes[referenceIndex];
+		int i = Arrays.binarySearch(index.chunks.bins, 0,
+				index.chunks.nofBins, chunk);
+		if (i < 0)
+			return null;
+		try (DataInputStream is = new DataInputStream(new InflaterInputStream(
+				new ByteArrayInputStream(readBlock(index.firstBlock + i,
+						index.offsets[i], index.lengths[i]))))) {
+			track = Track.read(is);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		chunks.put(key, track);
+		return track;
+	}
+
+	/**
+	 * Read, authenticate and decrypt a block of the sidecar file.
+	 * @param number Number of the block.
+	 * @param offset Offset of the block in the file.
+	 * @param length Length of the block and its MAC.
+	 * @return The compressed content of the block.
+	 */
+	private byte[] readBlock(long number, long offset, int length)
+			throws IOException {
+		byte[] block = new byte[length];
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			raf.seek(offset);
+			raf.readFully(block);
+		}
+		if (null == encryptionKey)
+			return block;
+		int macOffset = length - MAC_LENGTH;
+		if (macOffset < 0
+				|| !MessageDigest.isEqual(mac(authenticationKey, number, block,
+						macOffset), Arrays.copyOfRange(block, macOffset, length)))
+			throw new IOException("Authentication of block " + number
+					+ " of " + file + " failed.");
+		return cipher(encryptionKey, number).decrypt(
+				Arrays.copyOf(block, macOffset), null);
+	}
+
+	/**
+	 * Load the index of a pyramid from a sidecar file. A file which is
+	 * missing, incomplete, or fails authentication, is ignored.
+	 * @param masterKey Master key of the SECRAM file, or null if it is not
+	 *            encrypted.
+	 * @return The pyramid, or null.
+	 */
+	public static CoveragePyramid read(File file, byte[] masterKey)
+			throws IOException {
+		if (!file.isFile())
+			return null;
+		byte[] header = new byte[HEADER_LENGTH];
+		long indexOffset;
+		int indexLength;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			if (raf.length() < HEADER_LENGTH + TRAILER_LENGTH) {
+				log.warn("Ignoring " + file + ": not a coverage file.");
+				return null;
+			}
+			raf.readFully(header);
+			raf.seek(raf.length() - TRAILER_LENGTH);
+			indexOffset = raf.readLong();
+			indexLength = raf.readInt();
+			if (indexOffset < HEADER_LENGTH || indexLength < 0
+					|| indexOffset + indexLength != raf.length()
+							- TRAILER_LENGTH) {
+				log.warn("Ignoring " + file + ": it is incomplete.");
+				return null;
+			}
+		}
+		if (!Arrays.equals(MAGIC, Arrays.copyOf(header, MAGIC.length))) {
+			log.warn("Ignoring " + file + ": not a coverage file.");
+			return null;
+		}
+		boolean encrypted = header[MAGIC.length] != 0;
+		if (encrypted != (null != masterKey)) {
+			log.warn("Ignoring " + file + ": it does not match the file.");
+			return null;
+		}
+
+		CoveragePyramid pyramid = new CoveragePyramid();
+		pyramid.file = file;
+		if (encrypted) {
+			byte[] salt = Arrays.copyOfRange(header, MAGIC.length + 1,
+					HEADER_LENGTH);
+			pyramid.encryptionKey = deriveKey(masterKey, salt,
+					ENCRYPTION_INFO,
+					SECRAMEncryptionFactory.BLOCK_CIPHER_KEY_LEN);
+			pyramid.authenticationKey = deriveKey(masterKey, salt,
+					AUTHENTICATION_INFO, MAC_KEY_LEN);
+		}
+		byte[] index;
+		try {
+			index = pyramid.readBlock(INDEX_BLOCK, indexOffset, indexLength);
+		} catch (IOException e) {
+			log.warn("Ignoring " + file + ": authentication failed.");
+			return null;
+		}
+		try (DataInputStream is = new DataInputStream(new InflaterInputStream(
+				new ByteArrayInputStream(index)))) {
+			int nofReferences = is.readInt();
+			pyramid.referenceLengths = new int[nofReferences];
+			pyramid.indexes = new ReferenceIndex[nofReferences];
+			long firstBlock = 0;
+			for (int i = 0; i < nofReferences; i++) {
+				pyramid.referenceLengths[i] = is.readInt();
+				pyramid.indexes[i] = ReferenceIndex.read(is, firstBlock);
+				firstBlock += pyramid.indexes[i].chunks.nofBins;
+			}
+		}
+		return pyramid;
+	}
+
+	private static byte[] deriveKey(byte[] masterKey, byte[] salt,
+			byte[] info, int length) {
+		return SECRAMEncryptionFactory.deriveKey(masterKey, salt, info, length);
+	}
+
+	/**
+	 * @return The cipher of a block, with the number of the block as IV.
+	 */
+	private static BouncyCastle_AES_CTR cipher(byte[] key, long number) {
+		return new BouncyCastle_AES_CTR(key, ByteBuffer.allocate(IV_LENGTH)
+				.putLong(number).array());
+	}
+
+	private static byte[] mac(byte[] key, long number, byte[] block,
+			int length) {
+		Mac mac = new HMac(new SHA256Digest());
+		mac.init(new KeyParameter(key));
+		mac.update(ByteBuffer.allocate(8).putLong(number).array(), 0, 8);
+		mac.update(block, 0, length);
+		byte[] result = new byte[MAC_LENGTH];
+		mac.doFinal(result, 0);
+		return result;
+	}
+
+	/**
+	 * Writer of a sidecar file, which stores the block of each chunk as soon
+	 * as the positions reach the next chunk, so that only one chunk is kept
+	 * in memory.
+	 */
+	public static class Writer implements Closeable {
+		private OutputStream os;
+		private long offset = 0;
+		private long nofBlocks = 0;
+		private int[] referenceLengths;
+		private ReferenceIndex[] indexes;
+		private byte[] encryptionKey = null;
+		private byte[] authenticationKey = null;
+
+		// the chunk being filled
+		private int referenceIndex = -1;
+		private int chunk = -1;
+		private Track track = null;
+
+		/**
+		 * Create a sidecar file for the references of a dictionary, to be
+		 * filled with {@link #add(int, int, int)}.
+		 * @param masterKey Master key of the SECRAM file, or null to save the
+		 *            pyramid in clear.
+		 */
+		public Writer(File file, SAMSequenceDictionary dictionary,
+				byte[] masterKey) throws IOException {
+			referenceLengths = new int[dictionary.size()];
+			indexes = new ReferenceIndex[referenceLengths.length];
+			for (int i = 0; i < referenceLengths.length; i++) {
+				referenceLengths[i] = dictionary.getSequence(i)
+						.getSequenceLength();
+				indexes[i] = new ReferenceIndex();
+			}
+			byte[] salt = SECRAMEncryptionFactory.generateSecret(SALT_LENGTH);
+			if (null != masterKey) {
+				encryptionKey = deriveKey(masterKey, salt, ENCRYPTION_INFO,
+						SECRAMEncryptionFactory.BLOCK_CIPHER_KEY_LEN);
+				authenticationKey = deriveKey(masterKey, salt,
+						AUTHENTICATION_INFO, MAC_KEY_LEN);
+			}
+			os = new BufferedOutputStream(new FileOutputStream(file));
+			os.write(MAGIC);
+			os.write(null != masterKey ? 1 : 0);
+			os.write(salt);
+			offset = HEADER_LENGTH;
+		}
+
+		/**
+		 * Add the depth of a position. The positions must be added in
+		 * increasing order of reference index and position.
+		 * @param referenceIndex Reference index.
+		 * @param position 0-based position on the reference.
+		 * @param depth Number of reads overlapping the position.
+		 */
+		public void add(int referenceIndex, int position, int depth)
+				throws IOException {
+			if (depth <= 0)
+				return;
+			int chunk = position / CHUNK_SIZE;
+			if (referenceIndex != this.referenceIndex || chunk != this.chunk) {
+				if (referenceIndex < this.referenceIndex
+						|| (referenceIndex == this.referenceIndex && chunk < this.chunk))
+					throw new IllegalArgumentException("Position "
+							+ position + " of reference " + referenceIndex
+							+ " is added after the chunk " + this.chunk
+							+ " of reference " + this.referenceIndex);
+				flushChunk();
+				this.referenceIndex = referenceIndex;
+				this.chunk = chunk;
+				track = new Track();
+			}
+			track.addRun(position, depth);
+			for (int level = 0; level < track.levels.length; level++)
+				track.levels[level].add(position / BIN_SIZES[level], depth);
+			indexes[referenceIndex].chunks.add(chunk, depth);
+		}
+
+		/**
+		 * Write the block of the chunk being filled.
+		 */
+		private void flushChunk() throws IOException {
+			if (null == track)
+				return;
+			for (Level level : track.levels)
+				level.flush();
+			ReferenceIndex index = indexes[referenceIndex];
+			index.chunks.flush();
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (DataOutputStream dos = new DataOutputStream(
+					new DeflaterOutputStream(bytes))) {
+				track.write(dos);
+			}
+			index.addBlock(offset, writeBlock(nofBlocks++, bytes.toByteArray()));
+			track = null;
+		}
+
+		/**
+		 * Encrypt and authenticate a block, and write it.
+		 * @return The length of the block and its MAC.
+		 */
+		private int writeBlock(long number, byte[] block) throws IOException {
+			if (null != encryptionKey) {
+				block = cipher(encryptionKey, number).encrypt(block, null);
+				block = Arrays.copyOf(block, block.length + MAC_LENGTH);
+				System.arraycopy(mac(authenticationKey, number, block,
+						block.length - MAC_LENGTH), 0, block, block.length
+						- MAC_LENGTH, MAC_LENGTH);
+			}
+			os.write(block);
+			offset += block.length;
+			return block.length;
+		}
+
+		/**
+		 * Write the last chunk, the index and the trailer, and close the file.
+		 */
+		@Override
+		public void close() throws IOException {
+			flushChunk();
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (DataOutputStream dos = new DataOutputStream(
+					new DeflaterOutputStream(bytes))) {
+				dos.writeInt(indexes.length);
+				for (int i = 0; i < indexes.length; i++) {
+					dos.writeInt(referenceLengths[i]);
+					indexes[i].write(dos);
+				}
+			}
+			long indexOffset = offset;
+			int indexLength = writeBlock(INDEX_BLOCK, bytes.toByteArray());
+			DataOutputStream dos = new DataOutputStream(os);
+			dos.writeLong(indexOffset);
+			dos.writeInt(indexLength);
+			dos.close();
+		}
+	}
+
+	/**
+	 * Summary of the depth of a range of positions.
+	 */
+	public static class Summary {
+		private long length = 0;
+		private long coveredPositions = 0;
+		private long sum = 0;
+		private int min = Integer.MAX_VALUE;
+		private int max = 0;
+
+		void add(long length, long coveredPositions, long sum, int min,
+				int max) {
+			if (length == 0)
+				return;
+			this.length += length;
+			this.coveredPositions += coveredPositions;
+			this.sum += sum;
+			this.min = Math.min(this.min, coveredPositions < length ? 0 : min);
+			this.max = Math.max(this.max, max);
+		}
+
+		/**
+		 * @return Number of positions of the range on the reference.
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * @return Number of positions with a depth above 0.
+		 */
+		public long getCoveredPositions() {
+			return coveredPositions;
+		}
+
+		/**
+		 * @return Sum of the depth of the positions.
+		 */
+		public long getSum() {
+			return sum;
+		}
+
+		public int getMin() {
+			return length == 0 ? 0 : min;
+		}
+
+		public int getMax() {
+			return max;
+		}
+
+		/**
+		 * @return Mean depth over all the positions of the range.
+		 */
+		public double getMean() {
+			return length == 0 ? 0 : (double) sum / length;
+		}
+
+		@Override
+		public String toString() {
+			return "length=" + length + " covered=" + coveredPositions
+					+ " sum=" + sum + " min=" + getMin() + " max=" + max
+					+ " mean=" + getMean();
+		}
+	}
+
+	/**
+	 * The coarsest bins of a reference, which are its chunks, and the blocks
+	 * where the chunks are stored.
+	 */
+	private static class ReferenceIndex {
+		private Level chunks = new Level();
+		private long[] offsets = new long[16];
+		private int[] lengths = new int[16];
+		/**
+		 * Number of the block of the first chunk.
+		 */
+		private long firstBlock;
+
+		/**
+		 * Add the block of the last chunk.
+		 */
+		void addBlock(long offset, int length) {
+			int i = chunks.nofBins - 1;
+			if (i == offsets.length) {
+				offsets = Arrays.copyOf(offsets, 2 * i);
+				lengths = Arrays.copyOf(lengths, 2 * i);
+			}
+			offsets[i] = offset;
+			lengths[i] = length;
+		}
+
+		void write(DataOutputStream os) throws IOException {
+			chunks.write(os);
+			for (int i = 0; i < chunks.nofBins; i++) {
+				os.writeLong(offsets[i]);
+				os.writeInt(lengths[i]);
+			}
+		}
+
+		static ReferenceIndex read(DataInputStream is, long firstBlock)
+				throws IOException {
+			ReferenceIndex index = new ReferenceIndex();
+			index.firstBlock = firstBlock;
+			index.chunks = Level.read(is);
+			index.offsets = new long[index.chunks.nofBins];
+			index.lengths = new int[index.chunks.nofBins];
+			for (int i = 0; i < index.chunks.nofBins; i++) {
+				index.offsets[i] = is.readLong();
+				index.lengths[i] = is.readInt();
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * The runs and the bins finer than a chunk, of a chunk.
+	 */
+	private static class Track {
+		private int nofRuns = 0;
+		private int[] runStarts = new int[16];
+		private int[] runLengths = new int[16];
+		private int[] runDepths = new int[16];
+		private Level[] levels = new Level[BIN_SIZES.length - 1];
+
+		Track() {
+			for (int i = 0; i < levels.length; i++)
+				levels[i] = new Level();
+		}
+
+		void addRun(int position, int depth) {
+			if (nofRuns > 0
+					&& runStarts[nofRuns - 1] + runLengths[nofRuns - 1] == position
+					&& runDepths[nofRuns - 1] == depth) {
+				runLengths[nofRuns - 1]++;
+				return;
+			}
+			if (nofRuns == runStarts.length) {
+				runStarts = Arrays.copyOf(runStarts, 2 * nofRuns);
+				runLengths = Arrays.copyOf(runLengths, 2 * nofRuns);
+				runDepths = Arrays.copyOf(runDepths, 2 * nofRuns);
+			}
+			runStarts[nofRuns] = position;
+			runLengths[nofRuns] = 1;
+			runDepths[nofRuns] = depth;
+			nofRuns++;
+		}
+
+		void summarizeRuns(int start, int end, Summary summary) {
+			int i = Arrays.binarySearch(runStarts, 0, nofRuns, start);
+			if (i < 0)
+				i = Math.max(-i - 2, 0);
+			long covered = 0, sum = 0;
+			int min = Integer.MAX_VALUE, max = 0;
+			for (; i < nofRuns && runStarts[i] <= end; i++) {
+				long overlap = Math.min(end, runStarts[i] + runLengths[i] - 1L)
+						- Math.max(start, runStarts[i]) + 1;
+				if (overlap <= 0)
+					continue;
+				covered += overlap;
+				sum += overlap * runDepths[i];
+				min = Math.min(min, runDepths[i]);
+				max = Math.max(max, runDepths[i]);
+			}
+			summary.add(end - start + 1L, covered, sum, min, max);
+		}
+
+		void write(DataOutputStream os) throws IOException {
+			os.writeInt(nofRuns);
+			int previousEnd = 0;
+			for (int i = 0; i < nofRuns; i++) {
+				os.writeInt(runStarts[i] - previousEnd);
+				os.writeInt(runLengths[i]);
+				os.writeInt(runDepths[i]);
+				previousEnd = runStarts[i] + runLengths[i];
+			}
+			for (Level level : levels)
+				level.write(os);
+		}
+
+		static Track read(DataInputStream is) throws IOException {
+			Track track = new Track();
+			track.nofRuns = is.readInt();
+			track.runStarts = new int[track.nofRuns];
+			track.runLengths = new int[track.nofRuns];
+			track.runDepths = new int[track.nofRuns];
+			int previousEnd = 0;
+			for (int i = 0; i < track.nofRuns; i++) {
+				track.runStarts[i] = previousEnd + is.readInt();
+				track.runLengths[i] = is.readInt();
+				track.runDepths[i] = is.readInt();
+				previousEnd = track.runStarts[i] + track.runLengths[i];
+			}
+			for (int i = 0; i < track.levels.length; i++)
+				track.levels[i] = Level.read(is);
+			return track;
+		}
+	}
+
+	/**
+	 * The bins of a level of a reference, with at least one covered position.
+	 */
+	private static class Level {
+		private int nofBins = 0;
+		private int[] bins = new int[16];
+		private int[] coveredPositions = new int[16];
+		private long[] sums = new long[16];
+		private int[] mins = new int[16];
+		private int[] maxs = new int[16];
+
+		// the bin being filled
+		private int bin = -1;
+		private int covered;
+		private long sum;
+		private int min;
+		private int max;
+
+		void add(int bin, int depth) {
+			if (bin != this.bin) {
+				flush();
+				this.bin = bin;
+				covered = 0;
+				sum = 0;
+				min = Integer.MAX_VALUE;
+				max = 0;
+			}
+			covered++;
+			sum += depth;
+			min = Math.min(min, depth);
+			max = Math.max(max, depth);
+		}
+
+		void flush() {
+			if (bin < 0 || covered == 0)
+				return;
+			if (nofBins == bins.length) {
+				bins = Arrays.copyOf(bins, 2 * nofBins);
+				coveredPositions = Arrays.copyOf(coveredPositions, 2 * nofBins);
+				sums = Arrays.copyOf(sums, 2 * nofBins);
+				mins = Arrays.copyOf(mins, 2 * nofBins);
+				maxs = Arrays.copyOf(maxs, 2 * nofBins);
+			}
+			bins[nofBins] = bin;
+			coveredPositions[nofBins] = covered;
+			sums[nofBins] = sum;
+			mins[nofBins] = min;
+			maxs[nofBins] = max;
+			nofBins++;
+			covered = 0;
+		}
+
+		void summarize(int firstBin, int lastBin, int binSize, Summary summary) {
+			int i = Arrays.binarySearch(bins, 0, nofBins, firstBin);
+			if (i < 0)
+				i = -i - 1;
+			int nofCoveredBins = 0;
+			for (; i < nofBins && bins[i] <= lastBin; i++, nofCoveredBins++)
+				summary.add(binSize, coveredPositions[i], sums[i], mins[i],
+						maxs[i]);
+			// the bins without covered position
+			summary.add((long) (lastBin - firstBin + 1 - nofCoveredBins)
+					* binSize, 0, 0, 0, 0);
+		}
+
+		void write(DataOutputStream os) throws IOException {
+			os.writeInt(nofBins);
+			int previousBin = 0;
+			for (int i = 0; i < nofBins; i++) {
+				os.writeInt(bins[i] - previousBin);
+				os.writeInt(coveredPositions[i]);
+				os.writeLong(sums[i]);
+				os.writeInt(mins[i]);
+				os.writeInt(maxs[i]);
+				previousBin = bins[i];
+			}
+		}
+
+		static Level read(DataInputStream is) throws IOException {
+			Level level = new Level();
+			level.nofBins = is.readInt();
+			level.bins = new int[level.nofBins];
+			level.coveredPositions = new int[level.nofBins];
+			level.sums = new long[level.nofBins];
+			level.mins = new int[level.nofBins];
+			level.maxs = new int[level.nofBins];
+			int previousBin = 0;
+			for (int i = 0; i < level.nofBins; i++) {
+				level.bins[i] = previousBin + is.readInt();
+				level.coveredPositions[i] = is.readInt();
+				level.sums[i] = is.readLong();
+				level.mins[i] = is.readInt();
+				level.maxs[i] = is.readInt();
+				previousBin = level.bins[i];
+			}
+			return level;
+		}
+	}
+}
@@ -52,21 +52,37 @@ public class SECRAMContainerIterator implements Iterator<SecramContainer> {
 	private SECRAMSecurityFilter filter;
 	private SecramContainer nextContainer = null;
 	private boolean eof = false;
+	private boolean decrypt;
 
 	/**
 	 * Constructs the iterator over an input stream, with a security filter for decryption. 
 	 */
 	public SECRAMContainerIterator(InputStream inputStream,
 			SECRAMSecurityFilter filter) {
+		this(inputStream, filter, true);
+	}
+
+	/**
+	 * Constructs the iterator over an input stream, with a security filter
+	 * for decryption.
+	 * 
+	 * @param decrypt
+	 *            Whether the sensitive block of each container is decrypted
+	 *            before it is returned. If not, the caller is responsible for
+	 *            calling {@link #decryptContainer(SecramContainer, SECRAMSecurityFilter)}.
+	 */
+	public SECRAMContainerIterator(InputStream inputStream,
+			SECRAMSecurityFilter filter, boolean decrypt) {
 		this.inputStream = inputStream;
 		this.filter = filter;
+		this.decrypt = decrypt;
 	}
 
 	private void readNextContainer() {
 		try {
 			long nanoStart = System.nanoTime();
 			nextContainer = SecramContainerIO.readContainer(inputStream);
-			Timings.IO += System.nanoTime() - nanoStart;
+			Timings.IO.add(System.nanoTime() - nanoStart);
 
 		} catch (final IOException e) {
 			throw new RuntimeException(e);
@@ -75,23 +91,34 @@ public class SECRAMContainerIterator implements Iterator<SecramContainer> {
 		if (null == nextContainer
 				|| !filter.isContainerPermitted(nextContainer.absolutePosStart))
 			eof = true;
-		else {
-			// initialize the block encryption for this container, and decrypt
-			// the sensitive block
-			try {
-				filter.initContainerEM(nextContainer.containerSalt,
-						nextContainer.containerID);
-			} catch (NoSuchAlgorithmException e) {
-				throw new RuntimeException(e);
-			}
-			SecramBlock sensitiveBlock = nextContainer.external
-					.get(SecramCompressionHeaderFactory.SENSITIVE_FIELD_EXTERNAL_ID);
-			long nanoStart = System.nanoTime();
-			byte[] orginalBlock = filter.decryptBlock(
-					sensitiveBlock.getRawContent(), nextContainer.containerID);
-			Timings.decryption += System.nanoTime() - nanoStart;
-			sensitiveBlock.setContent(orginalBlock, orginalBlock);
+		else if (decrypt)
+			decryptContainer(nextContainer, filter);
+	}
+
+	/**
+	 * Initialize the block encryption for a container, and decrypt its
+	 * sensitive block in place, unless the filter decrypts the sensitive
+	 * fields of the permitted records only.
+	 */
+	static void decryptContainer(SecramContainer container,
+			SECRAMSecurityFilter filter) {
+		try {
+			filter.initContainerEM(container.containerSalt,
+					container.containerID);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		if (filter.decryptsBlockRanges(container.containerID)) {
+			container.sensitiveBlockEncrypted = true;
+			return;
 		}
+		SecramBlock sensitiveBlock = container.external
+				.get(SecramCompressionHeaderFactory.SENSITIVE_FIELD_EXTERNAL_ID);
+		long nanoStart = System.nanoTime();
+		byte[] orginalBlock = filter.decryptBlock(
+				sensitiveBlock.getRawContent(), container.containerID);
+		Timings.decryption.add(System.nanoTime() - nanoStart);
+		sensitiveBlock.setContent(orginalBlock, orginalBlock);
 	}
 
 	@Override
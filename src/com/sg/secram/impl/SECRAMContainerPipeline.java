@@ -0,0 +1,210 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.impl;
+
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import com.sg.secram.impl.records.SecramRecord;
+import com.sg.secram.structure.SecramContainer;
+import com.sg.secram.structure.SecramContainerParser;
+
+/**
+ * Read-ahead pipeline over the containers of a SECRAM file. A background
+ * thread reads the containers from the input stream, and a pool of worker
+ * threads decrypts and decodes them into SECRAM records. At most a fixed
+ * number of decoded containers are kept ahead of the consumer, and they are
+ * returned in the order they appear in the file.
+ * 
+ * @author zhihuang
+ *
+ */
+class SECRAMContainerPipeline {
+	private static final Future<List<SecramRecord>> END = new FutureTask<>(
+			() -> Collections.<SecramRecord> emptyList());
+	/**
+	 * How long the reader waits for room in the queue before checking
+	 * whether the pipeline is closed.
+	 */
+	private static final long PUT_TIMEOUT_MS = 100;
+
+	private BlockingQueue<Future<List<SecramRecord>>> decodedContainers;
+	private ExecutorService decoders;
+	private Thread reader;
+	private SECRAMContainerIterator containerIterator;
+	private SECRAMSecurityFilter filter;
+	private volatile boolean closed = false;
+	private boolean finished = false;
+
+	/**
+	 * @param inputStream
+	 *            The input stream where we read SECRAM containers.
+	 * @param filter
+	 *            Security filter for decryption.
+	 * @param depth
+	 *            Maximum number of containers that are read and decoded ahead
+	 *            of the consumer.
+	 * @param nofThreads
+	 *            Number of threads decoding the containers.
+	 */
+	SECRAMContainerPipeline(InputStream inputStream,
+			SECRAMSecurityFilter filter, int depth, int nofThreads) {
+		this.filter = filter;
+		this.containerIterator = new SECRAMContainerIterator(inputStream,
+				filter, false);
+		this.decodedContainers = new ArrayBlockingQueue<>(depth);
+		this.decoders = Executors.newFixedThreadPool(nofThreads, (r) -> {
+			Thread t = new Thread(r, "secram-container-decoder");
+			t.setDaemon(true);
+			return t;
+		});
+		this.reader = new Thread(() -> readContainers(),
+				"secram-container-reader");
+		this.reader.setDaemon(true);
+		this.reader.start();
+	}
+
+	/**
+	 * Read the containers until the end of the stream, or until the pipeline
+	 * is closed. The thread is never interrupted, as interrupting a read from
+	 * a {@link java.nio.channels.FileChannel} closes the channel, which is
+	 * shared by all the iterators of a {@link SECRAMFileReader}.
+	 */
+	private void readContainers() {
+		try {
+			while (!closed && containerIterator.hasNext()) {
+				SecramContainer container = containerIterator.next();
+				if (closed || !put(decoders.submit(() -> decode(container))))
+					return;
+			}
+			put(END);
+		} catch (Exception e) {
+			if (closed)
+				return;
+			FutureTask<List<SecramRecord>> failure = new FutureTask<>(() -> {
+				throw e;
+			});
+			failure.run();
+			try {
+				put(failure);
+			} catch (InterruptedException ie) {
+				// not expected, the thread is not interrupted
+			}
+		}
+	}
+
+	/**
+	 * Queue a decoded container, waiting for room until the pipeline is
+	 * closed.
+	 * @return Whether the container was queued.
+	 */
+	private boolean put(Future<List<SecramRecord>> records)
+			throws InterruptedException {
+		while (!closed)
+			if (decodedContainers.offer(records, PUT_TIMEOUT_MS,
+					TimeUnit.MILLISECONDS))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Decrypt and decode a container. Its cipher is acquired for the whole
+	 * decoding, so that it is not erased while the other threads initialize
+	 * the ciphers of the next containers.
+	 */
+	private List<SecramRecord> decode(SecramContainer container)
+			throws Exception {
+		filter.acquireContainerEM(container.containerSalt,
+				container.containerID);
+		try {
+			SECRAMContainerIterator.decryptContainer(container, filter);
+			return SECRAMIterator.decodeContainer(container,
+					new SecramContainerParser(), filter);
+		} finally {
+			filter.releaseContainerEM(container.containerID);
+		}
+	}
+
+	/**
+	 * Get the records of the next container, blocking until it is decoded.
+	 * 
+	 * @return The records of the next container, or null if there are no
+	 *         more containers.
+	 */
+	List<SecramRecord> next() {
+		if (finished)
+			return null;
+		try {
+			Future<List<SecramRecord>> records = decodedContainers.take();
+			if (records == END) {
+				finished = true;
+				decoders.shutdown();
+				return null;
+			}
+			return records.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Stop reading ahead, and release the threads. This waits for the reader
+	 * thread to finish reading the current container, if any, so that the
+	 * input stream, which is left open, is no longer used once this method
+	 * returns.
+	 */
+	void close() {
+		closed = true;
+		finished = true;
+		// make room for a blocked reader, which then sees the flag
+		decodedContainers.clear();
+		decoders.shutdownNow();
+		try {
+			reader.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		decodedContainers.clear();
+	}
+}
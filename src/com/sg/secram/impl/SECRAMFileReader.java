@@ -33,28 +33,53 @@ package com.sg.secram.impl;
 
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.reference.ReferenceSequenceFile;
-import htsjdk.samtools.seekablestream.SeekableFileStream;
-import htsjdk.samtools.seekablestream.SeekableStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sg.secram.encryption.OPETreeFile;
+import com.sg.secram.structure.SecramContainer;
+import com.sg.secram.structure.SecramContainerIO;
 import com.sg.secram.structure.SecramHeader;
 import com.sg.secram.structure.SecramIO;
+import com.sg.secram.util.PositionalFileInputStream;
 import com.sg.secram.util.ReferenceUtils;
 import com.sg.secram.util.SECRAMUtils;
 import com.sg.secram.util.Timings;
 
 /**
  * Reader of a SECRAM file. It supports sequential access and random access.
+ * <p>
+ * The reader is thread-safe: the header, the index and the position
+ * encryption are shared read-only, while each iterator reads the file with
+ * positional reads and has its own security filter. One reader per file can
+ * thus serve concurrent queries.
  * @author zhihuang
  *
  */
 public class SECRAMFileReader {
-	private SeekableStream inputStream;
+	private FileChannel channel;
 	private File secramFile;
 	private SecramHeader secramHeader;
 	private ReferenceSequenceFile mRsf;
 	private SecramIndex secramIndex;
+	/**
+	 * Template of the per-iterator filters, which holds the key and the
+	 * position encryption.
+	 */
 	private SECRAMSecurityFilter filter;
+	/**
+	 * File offset of the first container.
+	 */
+	private long dataOffset;
+	/**
+	 * Coverage pyramid of the file, loaded on first use.
+	 */
+	private CoveragePyramid coverage;
+	private boolean coverageLoaded = false;
 
 	/**
 	 * Construct the reader by specifying the SECRAM file name, the reference file name, and the decryption key.
@@ -66,17 +91,24 @@ public class SECRAMFileReader {
 	public SECRAMFileReader(String input, String referenceInput, byte[] key)
 			throws IOException {
 		secramFile = new File(input);
-		inputStream = new SeekableFileStream(secramFile);
+		channel = FileChannel.open(secramFile.toPath(),
+				StandardOpenOption.READ);
 		mRsf = ReferenceUtils.findReferenceFile(referenceInput);
-		secramIndex = new SecramIndex(new File(secramFile.getAbsolutePath()
-				+ ".secrai"));
 		filter = new SECRAMSecurityFilter(key);
 
 		readHeader();
+		filter.initPositionEM(secramHeader);
+		secramIndex = new SecramIndex(new File(secramFile.getAbsolutePath()
+				+ ".secrai"), filter.getEncryptedPositionComparator());
+		filter.loadPositionTree(new File(secramFile.getAbsolutePath()
+				+ OPETreeFile.EXTENSION), secramHeader.getOpeSalt());
 	}
 
 	private void readHeader() throws IOException {
+		PositionalFileInputStream inputStream = new PositionalFileInputStream(
+				channel, 0);
 		secramHeader = SecramIO.readSecramHeader(inputStream);
+		dataOffset = inputStream.position();
 	}
 
 	public SecramHeader getSecramHeader() {
@@ -87,17 +119,72 @@ public class SECRAMFileReader {
 		return secramHeader.getSamFileHeader();
 	}
 
+	/**
+	 * Encrypt an absolute position with the position encryption of this file,
+	 * e.g., to build the bounds of {@link #query(long, long)}. This method is
+	 * thread-safe.
+	 */
+	public long encryptPosition(long absolutePosition) {
+		return filter.encryptPositions(new long[] { absolutePosition })[0];
+	}
+
 	public SECRAMIterator getCompleteIterator() {
-		filter.initPositionEM(secramHeader.getOpeSalt());
+		return getCompleteIterator(0);
+	}
+
+	/**
+	 * Get an iterator over all the records, which reads and decodes up to
+	 * <code>prefetchContainers</code> containers on background threads ahead
+	 * of the consumer. The iterator should be closed when it is not exhausted.
+	 * @param prefetchContainers Number of containers to read ahead, or 0 to
+	 * decode each container synchronously.
+	 */
+	public SECRAMIterator getCompleteIterator(int prefetchContainers) {
 		SECRAMIterator secramIterator = new SECRAMIterator(secramHeader,
-				inputStream, mRsf, filter);
+				new PositionalFileInputStream(channel, dataOffset), mRsf,
+				filter.copy(), prefetchContainers);
 		return secramIterator;
 	}
 
 	/**
-	 * Query for a range of positions on the reference.
-	 * <p>
-	 * NOTE: This method is only used for non-encrypted secram file
+	 * Get an iterator over the records from a container to the end of the
+	 * file, e.g., to process a file in shards. The iterator should be closed
+	 * when it is not exhausted.
+	 * @param containerOffset File offset of the first container to read (see
+	 * {@link #getContainerHeaders()}).
+	 * @param prefetchContainers Number of containers to read ahead, or 0 to
+	 * decode each container synchronously.
+	 */
+	public SECRAMIterator getIterator(long containerOffset,
+			int prefetchContainers) {
+		return new SECRAMIterator(secramHeader, new PositionalFileInputStream(
+				channel, containerOffset), mRsf, filter.copy(),
+				prefetchContainers);
+	}
+
+	/**
+	 * Read the headers of all the containers, without their blocks. The
+	 * offset of each container is set.
+	 */
+	public List<SecramContainer> getContainerHeaders() throws IOException {
+		List<SecramContainer> containers = new ArrayList<SecramContainer>();
+		long offset = dataOffset;
+		while (true) {
+			PositionalFileInputStream inputStream = new PositionalFileInputStream(
+					channel, offset, 64);
+			SecramContainer container = new SecramContainer();
+			if (!SecramContainerIO.readContainerHeader(container, inputStream))
+				break;
+			container.offset = offset;
+			containers.add(container);
+			offset = inputStream.position() + container.containerByteSize;
+		}
+		return containers;
+	}
+
+	/**
+	 * Query for a range of positions on the reference. The bounds are
+	 * encrypted with the key of this reader.
 	 * @param ref Reference name.
 	 * @param start Starting position of the query on the reference.
 	 * @param end Ending position of the query on the reference (inclusive).
@@ -107,7 +194,8 @@ public class SECRAMFileReader {
 		int refID = secramHeader.getSamFileHeader().getSequenceIndex(ref);
 		long absoluteStart = SECRAMUtils.getAbsolutePosition(start, refID), absoluteEnd = SECRAMUtils
 				.getAbsolutePosition(end, refID);
-		return query(absoluteStart, absoluteEnd);
+		return query(encryptPosition(absoluteStart),
+				encryptPosition(absoluteEnd));
 	}
 
 	/**
@@ -124,12 +212,93 @@ public class SECRAMFileReader {
 		long offset = secramIndex.getContainerOffset(start);
 		if (offset < 0)
 			return null;
-		inputStream.seek(offset);
-		Timings.locateQueryPosition += System.nanoTime() - nanoStart;
-		filter.initPositionEM(secramHeader.getOpeSalt());
-		filter.setBounds(start, end);
+		Timings.locateQueryPosition.add(System.nanoTime() - nanoStart);
+		SECRAMSecurityFilter queryFilter = filter.copy();
+		queryFilter.setBounds(start, end);
 		SECRAMIterator secramIterator = new SECRAMIterator(secramHeader,
-				inputStream, mRsf, filter);
+				new PositionalFileInputStream(channel, offset), mRsf,
+				queryFilter);
 		return secramIterator;
 	}
+
+	/**
+	 * Query for a range of positions, starting from an earlier container than
+	 * the one which contains the start of the range, e.g., to reconstruct the
+	 * reads that overlap the start of the range.
+	 * @param start
+	 *            The encrypted absolute start position
+	 * @param end
+	 *            The encrypted absolute end position (inclusive)
+	 * @param lookbackContainers
+	 *            Number of containers to read before the one containing the
+	 *            start position
+	 * @return An iterator over the positions from the start of the earlier
+	 *         container to the end, or null if the file has no container.
+	 */
+	public SECRAMIterator query(long start, long end, int lookbackContainers)
+			throws IOException {
+		Long containerStart = secramIndex.getContainerStart(start,
+				lookbackContainers);
+		if (null == containerStart)
+			return null;
+		return query(containerStart, end);
+	}
+
+	/**
+	 * Get the number of containers before the one which contains a position,
+	 * which hold reads overlapping the first position of that container.
+	 * @param position
+	 *            The encrypted absolute position
+	 * @return The number of containers, or
+	 *         {@link SecramIndex#UNKNOWN_LOOKBACK} if the index does not
+	 *         record it.
+	 */
+	public int getLookback(long position) {
+		return secramIndex.getLookback(position);
+	}
+
+	/**
+	 * Get the start of a container some containers before the one which
+	 * contains a position.
+	 * @param position
+	 *            The encrypted absolute position
+	 * @param lookbackContainers
+	 *            Number of containers to go back
+	 * @return The encrypted start of the container, or null if the file has
+	 *         no container.
+	 */
+	public Long getContainerStart(long position, int lookbackContainers) {
+		return secramIndex.getContainerStart(position, lookbackContainers);
+	}
+
+	/**
+	 * Get the coverage pyramid saved along with the file, to answer depth and
+	 * summary queries without decoding the records. This method is
+	 * thread-safe.
+	 * @return The pyramid, or null if the file has none, or if it is not
+	 *         authentic.
+	 */
+	public synchronized CoveragePyramid getCoverage() throws IOException {
+		if (!coverageLoaded) {
+			coverage = filter.loadCoverage(new File(secramFile
+					.getAbsolutePath() + CoveragePyramid.EXTENSION));
+			coverageLoaded = true;
+		}
+		return coverage;
+	}
+
+	/**
+	 * @return The number of containers in the file.
+	 */
+	public int getNumberOfContainers() {
+		return secramIndex.size();
+	}
+
+	/**
+	 * Close the SECRAM file. Iterators created by this reader can no longer be
+	 * used.
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
 }
@@ -43,6 +43,9 @@ import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.sg.secram.encryption.OPE;
+import com.sg.secram.encryption.SECRAMEncryptionFactory;
+import com.sg.secram.encryption.OPETreeFile;
 import com.sg.secram.impl.records.ReadHeader;
 import com.sg.secram.impl.records.SecramRecord;
 import com.sg.secram.structure.SecramBlock;
@@ -52,6 +55,7 @@ import com.sg.secram.structure.SecramContainerFactory;
 import com.sg.secram.structure.SecramContainerIO;
 import com.sg.secram.structure.SecramHeader;
 import com.sg.secram.structure.SecramIO;
+import com.sg.secram.util.GenomeDomain;
 import com.sg.secram.util.Timings;
 
 /**
@@ -60,6 +64,10 @@ import com.sg.secram.util.Timings;
  *
  */
 public class SECRAMFileWriter {
+	/**
+	 * Default number of levels of the OPE tree saved along with the file.
+	 */
+	public static final int DEFAULT_OPE_TREE_LEVELS = 12;
 
 	private File secramFile;
 	private int recordsPerContainer = SecramContainer.DEFATUL_RECORDS_PER_CONTAINER;
@@ -68,6 +76,17 @@ public class SECRAMFileWriter {
 	private SECRAMSecurityFilter filter;
 	private SecramHeader secramHeader;
 	private SecramIndex secramIndex;
+	private SecramContainerIO.SizeStatistics sizeStatistics = new SecramContainerIO.SizeStatistics();
+	private int opeTreeLevels;
+	private int positionScheme;
+	private boolean encrypted;
+	private CoveragePyramid.Writer coverage;
+	/**
+	 * Last position of the reads starting in each container, and the first
+	 * container whose reads may overlap the next containers.
+	 */
+	private List<Long> containerAlignmentEnds = new ArrayList<Long>();
+	private int firstOverlappingContainer = 0;
 
 	private final OutputStream outputStream;
 	private long offset;
@@ -80,14 +99,43 @@ public class SECRAMFileWriter {
 	 */
 	public SECRAMFileWriter(final File output, final SAMFileHeader header,
 			final byte[] key) throws IOException {
+		this(output, header, key, DEFAULT_OPE_TREE_LEVELS);
+	}
+
+	/**
+	 * Construct the writer by specifying an output file, an original SAM file
+	 * header, an encryption key, and the number of levels of the OPE tree to
+	 * precompute in a sidecar file for the readers (0 for no sidecar).
+	 * @throws IOException
+	 */
+	public SECRAMFileWriter(final File output, final SAMFileHeader header,
+			final byte[] key, final int opeTreeLevels) throws IOException {
+		this(output, header, key, opeTreeLevels,
+				SECRAMEncryptionFactory.POSITION_SCHEME_OPE);
+	}
+
+	/**
+	 * Construct the writer by specifying an output file, an original SAM file
+	 * header, an encryption key, the number of levels of the OPE tree to
+	 * precompute in a sidecar file (0 for no sidecar), and the encryption
+	 * scheme of the positions (see {@link SECRAMEncryptionFactory}).
+	 * @throws IOException
+	 */
+	public SECRAMFileWriter(final File output, final SAMFileHeader header,
+			final byte[] key, final int opeTreeLevels, final int positionScheme)
+			throws IOException {
 		this.secramFile = output;
+		this.opeTreeLevels = opeTreeLevels;
+		this.positionScheme = positionScheme;
+		this.encrypted = key != null;
 		this.outputStream = new BufferedOutputStream(new FileOutputStream(
 				output));
 		this.samFileHeader = header;
 		this.filter = new SECRAMSecurityFilter(key);
 		this.containerFactory = new SecramContainerFactory(header,
 				recordsPerContainer);
-		this.secramIndex = new SecramIndex();
+		this.coverage = filter.createCoverage(new File(output.getAbsolutePath()
+				+ CoveragePyramid.EXTENSION), header.getSequenceDictionary());
 
 		writeHeader();
 	}
@@ -100,16 +148,27 @@ public class SECRAMFileWriter {
 		return this.containerFactory.getGlobalRecordCounter();
 	}
 
+	/**
+	 * @return Storage size of each type of information written so far.
+	 */
+	public SecramContainerIO.SizeStatistics getSizeStatistics() {
+		return sizeStatistics;
+	}
+
 	public void close() {
 		try {
 			if (!secramRecords.isEmpty())
 				flushContainer();
 			outputStream.flush();
 			outputStream.close();
+			filter.destroyContainerEMs();
 
 			// Write the index file
 			File indexFile = new File(secramFile.getAbsolutePath() + ".secrai");
 			secramIndex.writeIndexToFile(indexFile);
+
+			// Complete the coverage of the file
+			coverage.close();
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -132,6 +191,14 @@ public class SECRAMFileWriter {
 				System.exit(1);
 			}
 		}
+		// the positions are not encrypted yet
+		long position = record.getAbsolutePosition();
+		try {
+			coverage.add((int) (position >> 32), (int) position,
+					record.mPosCigar.mCoverage);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 		secramRecords.add(record);
 	}
 
@@ -143,28 +210,27 @@ public class SECRAMFileWriter {
 	 */
 	private void flushContainer() throws IllegalArgumentException,
 			IllegalAccessException, IOException {
+		// the number of previous containers with reads overlapping the first
+		// position of this one, for the queries of the reads overlapping a
+		// position
+		long containerStart = secramRecords.get(0).getAbsolutePosition();
+		while (firstOverlappingContainer < containerAlignmentEnds.size()
+				&& containerAlignmentEnds.get(firstOverlappingContainer) < containerStart)
+			firstOverlappingContainer++;
+		int lookback = containerAlignmentEnds.size()
+				- firstOverlappingContainer;
+		long alignmentEnd = -1;
+		for (SecramRecord record : secramRecords)
+			for (ReadHeader header : record.mReadHeaders)
+				alignmentEnd = Math.max(alignmentEnd,
+						record.getAbsolutePosition() + header.mReferenceLength
+								- 1);
+		containerAlignmentEnds.add(alignmentEnd);
+
 		// encrypt the positions
-		long prevOrgPosition = secramRecords.get(0).getAbsolutePosition();
-		long prevEncPosition = -1;
 		long nanoStart = System.nanoTime();
-		for (SecramRecord record : secramRecords) {
-			if (record.getAbsolutePosition() - prevOrgPosition != 1) {
-				long encPos = filter.encryptPosition(record
-						.getAbsolutePosition());
-				prevOrgPosition = record.getAbsolutePosition();
-				record.setAbsolutionPosition(encPos);
-				prevEncPosition = encPos;
-			} else {
-				record.setAbsolutionPosition(prevEncPosition);
-				prevOrgPosition += 1;
-			}
-			for (ReadHeader rh : record.mReadHeaders) {
-				long encNextPos = filter.encryptPosition(rh
-						.getNextAbsolutePosition());
-				rh.setNextAbsolutionPosition(encNextPos);
-			}
-		}
-		Timings.encryption += System.nanoTime() - nanoStart;
+		filter.encryptRecords(secramRecords);
+		Timings.encryption.add(System.nanoTime() - nanoStart);
 
 		// process all delta information for relative integer/long encoding
 		long prevAbsolutePosition = secramRecords.get(0).getAbsolutePosition();
@@ -194,7 +260,7 @@ public class SECRAMFileWriter {
 		nanoStart = System.nanoTime();
 		SecramContainer container = containerFactory.buildContainer(
 				secramRecords, containerSalt);
-		Timings.compression += System.nanoTime() - nanoStart;
+		Timings.compression.add(System.nanoTime() - nanoStart);
 
 		// encrypt the sensitive block (the first external block)
 		SecramBlock sensitiveBlock = container.external
@@ -202,13 +268,15 @@ public class SECRAMFileWriter {
 		nanoStart = System.nanoTime();
 		byte[] encBlock = filter.encryptBlock(sensitiveBlock.getRawContent(),
 				containerID);
-		Timings.encryption += System.nanoTime() - nanoStart;
+		Timings.encryption.add(System.nanoTime() - nanoStart);
 		sensitiveBlock.setContent(encBlock, encBlock);
 
 		// write out the container, and log the index
 		container.offset = offset;
-		secramIndex.addTuple(container.absolutePosStart, container.offset);
-		offset += SecramContainerIO.writeContainer(container, outputStream);
+		secramIndex.addTuple(container.absolutePosStart, container.offset,
+				lookback);
+		offset += SecramContainerIO.writeContainer(container, outputStream,
+				sizeStatistics);
 
 		secramRecords.clear();
 	}
@@ -224,13 +292,36 @@ public class SECRAMFileWriter {
 			SecureRandom sr = SecureRandom.getInstance("SHA1PRNG");
 			opeSalt = sr.nextLong();
 			opeSalt = -275065164286408096L;
-			filter.initPositionEM(opeSalt);
 		} catch (NoSuchAlgorithmException e) {
 			e.printStackTrace();
 		}
 
 		secramHeader = new SecramHeader(secramFile.getName(), samFileHeader,
 				opeSalt);
+		if (encrypted) {
+			// encrypt the positions in the linear coordinates of the
+			// references, rather than in the sparse absolute positions
+			int domainBits = new GenomeDomain(
+					samFileHeader.getSequenceDictionary()).getBits();
+			secramHeader.setOption(SecramHeader.POSITION_SCHEME, positionScheme);
+			secramHeader.setOption(SecramHeader.OPE_COINS, OPE.COINS_AES_CTR);
+			secramHeader.setOption(SecramHeader.OPE_DOMAIN_BITS, domainBits);
+			secramHeader.setOption(SecramHeader.OPE_RANGE_BITS, domainBits
+					+ OPE.DEFAULT_CIPHERTEXT_BITS - OPE.DEFAULT_PLAINTEXT_BITS);
+			// keep the mate positions in the sensitive field, under AES
+			secramHeader.setOption(SecramHeader.MATE_OFFSETS, 1);
+		}
+		filter.initPositionEM(secramHeader);
+		containerFactory.setMateOffsets(filter.hasMateOffsets());
+		secramIndex = new SecramIndex(filter.getEncryptedPositionComparator());
+
+		// precompute the top of the OPE tree for the readers
+		File opeTreeFile = new File(secramFile.getAbsolutePath()
+				+ OPETreeFile.EXTENSION);
+		opeTreeFile.delete();
+		if (opeTreeLevels > 0)
+			filter.savePositionTree(opeTreeFile, opeSalt, opeTreeLevels);
+
 		offset = SecramIO.writeSecramHeader(secramHeader, outputStream);
 	}
 }
@@ -40,12 +40,10 @@ import java.io.InputStream;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import com.sg.secram.impl.records.ReadHeader;
 import com.sg.secram.impl.records.SecramRecord;
 import com.sg.secram.structure.SecramContainer;
 import com.sg.secram.structure.SecramContainerParser;
 import com.sg.secram.structure.SecramHeader;
-import com.sg.secram.util.Timings;
 
 /**
  * Iterates the SECRAM records in a SECRAM file. There will be two levels of
@@ -60,7 +58,7 @@ public class SECRAMIterator implements Iterator<SecramRecord> {
 	private ReferenceSequenceFile mRsf;
 	private List<SecramRecord> secramRecords = null;
 	private Iterator<SecramContainer> containerIterator;
-	private SecramContainer container;
+	private SECRAMContainerPipeline pipeline = null;
 	private SecramContainerParser parser;
 	private SECRAMSecurityFilter filter;
 	private Iterator<SecramRecord> iterator = Collections
@@ -69,9 +67,6 @@ public class SECRAMIterator implements Iterator<SecramRecord> {
 	private byte[] cachedRefSequence = null;
 	private int cachedRefID = -1;
 
-	private long encPosition = -1;
-	private int offset = -1;
-
 	/**
 	 * @param header SECRAM file header
 	 * @param inputStream The input stream where we read SECRAM records.
@@ -80,76 +75,101 @@ public class SECRAMIterator implements Iterator<SecramRecord> {
 	 */
 	public SECRAMIterator(SecramHeader header, InputStream inputStream,
 			ReferenceSequenceFile referenceFile, SECRAMSecurityFilter filter) {
+		this(header, inputStream, referenceFile, filter, 0);
+	}
+
+	/**
+	 * @param header SECRAM file header
+	 * @param inputStream The input stream where we read SECRAM records.
+	 * @param referenceFile Reference sequence file.
+	 * @param filter Security filter for decryption.
+	 * @param prefetchContainers Number of containers that are read and decoded
+	 * on background threads ahead of the current one. If 0, each container is
+	 * read and decoded synchronously when the previous one is exhausted.
+	 */
+	public SECRAMIterator(SecramHeader header, InputStream inputStream,
+			ReferenceSequenceFile referenceFile, SECRAMSecurityFilter filter,
+			int prefetchContainers) {
 		this.secramHeader = header;
 		this.mRsf = referenceFile;
 		this.filter = filter;
-		this.containerIterator = new SECRAMContainerIterator(inputStream,
-				filter);
+		if (prefetchContainers > 0)
+			this.pipeline = new SECRAMContainerPipeline(inputStream, filter,
+					prefetchContainers, Runtime.getRuntime()
+							.availableProcessors());
+		else
+			this.containerIterator = new SECRAMContainerIterator(
+					inputStream, filter);
 		this.parser = new SecramContainerParser();
 	}
 
 	private void nextContainer() throws IllegalArgumentException,
 			IllegalAccessException, IOException {
-		if (!containerIterator.hasNext()) {
-			container = null;
+		if (null != pipeline)
+			secramRecords = pipeline.next();
+		else if (containerIterator.hasNext())
+			secramRecords = decodeContainer(containerIterator.next(), parser,
+					filter);
+		else
 			secramRecords = null;
+		if (null == secramRecords)
 			return;
-		}
-		container = containerIterator.next();
-		long nanoStart = System.nanoTime();
-		secramRecords = parser.getRecords(container, filter);
-		Timings.decompression += System.nanoTime() - nanoStart;
 		iterator = secramRecords.iterator();
-		encPosition = container.absolutePosStart;
-		offset = -1;
+	}
+
+	/**
+	 * Parse the records of a container prepared by
+	 * {@link SECRAMContainerIterator#decryptContainer(SecramContainer, SECRAMSecurityFilter)},
+	 * and decrypt their positions.
+	 * @return The records in the permitted range.
+	 */
+	static List<SecramRecord> decodeContainer(SecramContainer container,
+			SecramContainerParser parser, SECRAMSecurityFilter filter)
+			throws IllegalArgumentException, IllegalAccessException,
+			IOException {
+		return parser.getPermittedRecords(container, filter);
+	}
+
+	/**
+	 * Stop the background decoding, if any, and erase the container keys. The
+	 * underlying input stream is not closed.
+	 */
+	public void close() {
+		if (null != pipeline)
+			pipeline.close();
+		filter.destroyContainerEMs();
 	}
 
 	@Override
 	public boolean hasNext() {
-		if (!iterator.hasNext()) {
+		while (!iterator.hasNext()) {
 			try {
 				nextContainer();
 			} catch (Exception e) {
 				throw new RuntimeException(e);
 			}
+			if (null == secramRecords) {
+				filter.destroyContainerEMs();
+				return false;
+			}
 		}
-		return iterator.hasNext();
+		return true;
 	}
 
 	@Override
 	public SecramRecord next() {
-		while (hasNext()) {
-			SecramRecord record = iterator.next();
-			if (record.getAbsolutePosition() == encPosition)
-				offset += 1;
-			else {
-				encPosition = record.getAbsolutePosition();
-				offset = 0;
-			}
-			if (!filter.isRecordPermitted(encPosition, offset))
-				continue;
-			long nanoStart = System.nanoTime();
-			{// decrypt the position
-				long orgPos = offset + filter.decryptPosition(encPosition);
-				record.setAbsolutionPosition(orgPos);
-				for (ReadHeader rh : record.mReadHeaders) {
-					long nextPos = filter.decryptPosition(rh
-							.getNextAbsolutePosition());
-					rh.setNextAbsolutionPosition(nextPos);
-				}
-			}
-			Timings.decryption += System.nanoTime() - nanoStart;
-			try {
-				record.setReferenceBase(getReferenceBase(record
-						.getAbsolutePosition()));
-			} catch (Exception e) {
-				throw new RuntimeException(
-						"Error while getting reference base for position: "
-								+ record.getAbsolutePosition());
-			}
-			return record;
+		if (!hasNext())
+			return null;
+		SecramRecord record = iterator.next();
+		try {
+			record.setReferenceBase(getReferenceBase(record
+					.getAbsolutePosition()));
+		} catch (Exception e) {
+			throw new RuntimeException(
+					"Error while getting reference base for position: "
+							+ record.getAbsolutePosition());
 		}
-		return null;
+		return record;
 	}
 
 	private char getReferenceBase(long pos)
@@ -160,7 +180,11 @@ public class SECRAMIterator implements Iterator<SecramRecord> {
 		}
 		SAMSequenceRecord seq = secramHeader.getSamFileHeader().getSequence(
 				refID);
-		ReferenceSequence rs = mRsf.getSequence(seq.getSequenceName());
+		ReferenceSequence rs;
+		// the reference file is shared by the iterators of a reader
+		synchronized (mRsf) {
+			rs = mRsf.getSequence(seq.getSequenceName());
+		}
 
 		if (rs == null || rs.length() != seq.getSequenceLength()) {
 			System.err.println("Could not find the reference sequence "
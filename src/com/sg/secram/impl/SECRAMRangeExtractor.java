@@ -0,0 +1,179 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+
+import com.sg.secram.encryption.OPETreeFile;
+import com.sg.secram.encryption.SECRAMEncryptionFactory;
+import com.sg.secram.structure.SecramContainer;
+import com.sg.secram.structure.SecramContainerIO;
+import com.sg.secram.structure.SecramHeader;
+import com.sg.secram.structure.SecramIO;
+import com.sg.secram.util.PositionalFileInputStream;
+
+/**
+ * Extract the containers covering a range of encrypted positions from a SECRAM
+ * file, without the key. The containers are copied verbatim, neither
+ * decompressed nor decrypted, into a self-contained SECRAM file with the same
+ * header and its own index, which the owner of the key can then read as
+ * usual. This allows a storage node to ship only the part of a file that a
+ * client queries.
+ * 
+ * @author zhihuang
+ *
+ */
+public class SECRAMRangeExtractor {
+	private File secramFile;
+	private FileChannel channel;
+	private SecramHeader secramHeader;
+	private SecramIndex secramIndex;
+	private Comparator<Long> positionOrder;
+	/**
+	 * File offset of the first container, i.e., the length of the header.
+	 */
+	private long dataOffset;
+
+	/**
+	 * Construct the extractor by specifying the SECRAM file name. The index
+	 * of the file must be next to it.
+	 * @throws IOException
+	 */
+	public SECRAMRangeExtractor(String input) throws IOException {
+		secramFile = new File(input);
+		channel = FileChannel.open(secramFile.toPath(),
+				StandardOpenOption.READ);
+
+		PositionalFileInputStream inputStream = new PositionalFileInputStream(
+				channel, 0);
+		secramHeader = SecramIO.readSecramHeader(inputStream);
+		dataOffset = inputStream.position();
+
+		// the order of the encrypted positions only depends on the scheme
+		int scheme = (int) secramHeader.getOption(
+				SecramHeader.POSITION_SCHEME,
+				SECRAMEncryptionFactory.POSITION_SCHEME_OPE);
+		positionOrder = SECRAMEncryptionFactory.getPositionComparator(scheme);
+		secramIndex = new SecramIndex(new File(secramFile.getAbsolutePath()
+				+ ".secrai"), positionOrder);
+	}
+
+	public SecramHeader getSecramHeader() {
+		return secramHeader;
+	}
+
+	/**
+	 * Write the containers overlapping a range of positions to a new SECRAM
+	 * file, along with its index and the OPE tree sidecar of the original
+	 * file, if any.
+	 * @param start
+	 *            The encrypted absolute start position
+	 * @param end
+	 *            The encrypted absolute end position (inclusive)
+	 * @param output
+	 *            The SECRAM file to write
+	 * @return The number of containers extracted
+	 * @throws IOException
+	 */
+	public int extract(long start, long end, File output) throws IOException {
+		long offset = secramIndex.getContainerOffset(start);
+		if (offset < 0)
+			offset = dataOffset;
+
+		SecramIndex outputIndex = new SecramIndex(positionOrder);
+		int nofContainers = 0;
+		try (FileChannel outputChannel = FileChannel.open(output.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			// the header, including the salt of the position encryption
+			transfer(0, dataOffset, outputChannel);
+
+			SecramContainer container = new SecramContainer();
+			while (true) {
+				PositionalFileInputStream inputStream = new PositionalFileInputStream(
+						channel, offset, 64);
+				if (!SecramContainerIO.readContainerHeader(container,
+						inputStream))
+					break;
+				if (positionOrder.compare(container.absolutePosStart, end) > 0)
+					break;
+				// the end of a container only bounds the start of its last run
+				// of consecutive positions, so the first container is always
+				// kept
+				long length = inputStream.position() - offset
+						+ container.containerByteSize;
+				// the containers before the first one are not extracted
+				int lookback = secramIndex
+						.getLookback(container.absolutePosStart);
+				outputIndex.addTuple(container.absolutePosStart,
+						outputChannel.position(),
+						lookback == SecramIndex.UNKNOWN_LOOKBACK ? lookback
+								: Math.min(lookback, nofContainers));
+				transfer(offset, length, outputChannel);
+				nofContainers++;
+				offset += length;
+			}
+		}
+
+		outputIndex.writeIndexToFile(new File(output.getAbsolutePath()
+				+ ".secrai"));
+		File opeTreeFile = new File(secramFile.getAbsolutePath()
+				+ OPETreeFile.EXTENSION);
+		if (opeTreeFile.exists())
+			Files.copy(opeTreeFile.toPath(), new File(output.getAbsolutePath()
+					+ OPETreeFile.EXTENSION).toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		return nofContainers;
+	}
+
+	private void transfer(long position, long count, FileChannel target)
+			throws IOException {
+		while (count > 0) {
+			long n = channel.transferTo(position, count, target);
+			if (n <= 0)
+				throw new IOException("Unexpected end of file at offset "
+						+ position);
+			position += n;
+			count -= n;
+		}
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -31,13 +31,31 @@
  */
 package com.sg.secram.impl;
 
+import htsjdk.samtools.SAMSequenceDictionary;
+
+import java.io.File;
+import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 import com.sg.secram.encryption.SECRAMEncryptionMethod;
 import com.sg.secram.encryption.OPE;
+import com.sg.secram.encryption.OPETreeFile;
 import com.sg.secram.encryption.SECRAMEncryptionFactory;
+import com.sg.secram.encryption.SECRAMPositionEncryption;
+import com.sg.secram.encryption.SECRAMSeekableCipher;
+import com.sg.secram.impl.records.ReadHeader;
+import com.sg.secram.impl.records.SecramRecord;
+import com.sg.secram.structure.SecramHeader;
+import com.sg.secram.util.GenomeDomain;
 
 /**
  * Defines everything related to protection of the data, including encryption / decryption and access control.
@@ -46,10 +64,63 @@ import com.sg.secram.encryption.SECRAMEncryptionFactory;
  */
 public class SECRAMSecurityFilter {
 
+	/**
+	 * Number of positions encrypted by each parallel task of
+	 * {@link #encryptRecords(List)}.
+	 */
+	private static final int PARALLEL_ENCRYPTION_CHUNK = 1024;
+	/**
+	 * Maximum number of unused container ciphers kept by a filter. The
+	 * ciphers acquired with {@link #acquireContainerEM(long, int)} are kept
+	 * in addition to these until they are released, so that the number of
+	 * containers decrypted concurrently with the same filter is not bounded.
+	 */
+	public static final int CONTAINER_CIPHER_POOL_SIZE = 32;
+
+	/**
+	 * Block cipher of a container, with the salt its key was derived from.
+	 */
+	private static class ContainerCipher {
+		final long salt;
+		final SECRAMEncryptionMethod<byte[]> em;
+		/**
+		 * Number of acquisitions not released yet.
+		 */
+		int users = 0;
+		/**
+		 * Whether the cipher should be erased once it is released.
+		 */
+		boolean discarded = false;
+
+		ContainerCipher(long salt, SECRAMEncryptionMethod<byte[]> em) {
+			this.salt = salt;
+			this.em = em;
+		}
+	}
+
 	private byte[] masterKey = null;
 
-	private Map<Integer, SECRAMEncryptionMethod<byte[]>> containerEMs = new HashMap<>();
-	private SECRAMEncryptionMethod<Long> positionEM = null;
+	/**
+	 * Least recently used container ciphers, by container ID. All accesses
+	 * are synchronized on the map.
+	 */
+	private final Map<Integer, ContainerCipher> containerEMs = new LinkedHashMap<Integer, ContainerCipher>(
+			16, 0.75f, true);
+	private SECRAMPositionEncryption positionEM = null;
+	/**
+	 * Order of the encrypted positions, which is known even without the key.
+	 */
+	private Comparator<Long> positionOrder = Comparator.naturalOrder();
+	/**
+	 * Linear coordinates in which the positions are encrypted, or null if the
+	 * absolute positions are encrypted directly.
+	 */
+	private GenomeDomain domain = null;
+	/**
+	 * Whether the next positions are stored as plain offsets in the
+	 * AES-encrypted sensitive field, rather than encrypted with the OPE.
+	 */
+	private boolean mateOffsets = false;
 	private long[] lastOPEPair = new long[] { -1, -1 };
 
 	/**
@@ -59,12 +130,35 @@ public class SECRAMSecurityFilter {
 	/**
 	 * Upper bound of access right
 	 */
-	private long upperBound = OPE.MAX_PLAINTEXT;
+	private long upperBound = Long.MAX_VALUE;
+	/**
+	 * Encrypted upper bound, so that checking containers does not touch the
+	 * position cache used by record decryption.
+	 */
+	private long encUpperBound = Long.MAX_VALUE;
 
 	public SECRAMSecurityFilter(byte[] masterKey) {
 		this.masterKey = masterKey;
 	}
 
+	/**
+	 * Create a filter for a new iterator. The copy shares the master key and
+	 * the position encryption of this filter, which are read-only, but has its
+	 * own access bounds, container ciphers and position cache. Each concurrent
+	 * iterator over a file should thus use its own copy.
+	 */
+	public SECRAMSecurityFilter copy() {
+		SECRAMSecurityFilter copy = new SECRAMSecurityFilter(masterKey);
+		copy.positionEM = positionEM;
+		copy.positionOrder = positionOrder;
+		copy.domain = domain;
+		copy.mateOffsets = mateOffsets;
+		copy.lowerBound = lowerBound;
+		copy.upperBound = upperBound;
+		copy.encUpperBound = encUpperBound;
+		return copy;
+	}
+
 	/**
 	 * Initialize the encryption for a container with a salt.
 	 * @param salt A random salt used for deriving a block cipher key for the container.
@@ -73,17 +167,266 @@ public class SECRAMSecurityFilter {
 	 */
 	public void initContainerEM(long salt, int containerID)
 			throws NoSuchAlgorithmException {
-		containerEMs.put(containerID,
+		initContainerEM(salt, containerID, false);
+	}
+
+	/**
+	 * Initialize the encryption for a container, and keep it until
+	 * {@link #releaseContainerEM(int)} is called, even if more containers are
+	 * initialized concurrently or the ciphers of the filter are destroyed in
+	 * the meantime. Each call must be followed by a release.
+	 * @param salt A random salt used for deriving a block cipher key for the container.
+	 * @param containerID ID of the container.
+	 * @throws NoSuchAlgorithmException
+	 */
+	public void acquireContainerEM(long salt, int containerID)
+			throws NoSuchAlgorithmException {
+		initContainerEM(salt, containerID, true);
+	}
+
+	/**
+	 * Release a container cipher acquired with
+	 * {@link #acquireContainerEM(long, int)}.
+	 */
+	public void releaseContainerEM(int containerID) {
+		synchronized (containerEMs) {
+			ContainerCipher cipher = containerEMs.get(containerID);
+			if (cipher == null || cipher.users == 0)
+				throw new IllegalStateException("The encryption of container "
+						+ containerID + " is not acquired.");
+			cipher.users--;
+			if (cipher.users == 0 && cipher.discarded) {
+				containerEMs.remove(containerID);
+				cipher.em.destroy();
+			}
+			evictContainerEMs();
+		}
+	}
+
+	private void initContainerEM(long salt, int containerID, boolean acquire)
+			throws NoSuchAlgorithmException {
+		synchronized (containerEMs) {
+			ContainerCipher cipher = containerEMs.get(containerID);
+			if (cipher != null && cipher.salt == salt) {
+				if (acquire) {
+					cipher.users++;
+					cipher.discarded = false;
+				}
+				return;
+			}
+		}
+		// derive the key outside of the lock
+		ContainerCipher cipher = new ContainerCipher(salt,
 				SECRAMEncryptionFactory.createContainerEM(masterKey, salt));
+		synchronized (containerEMs) {
+			ContainerCipher previous = containerEMs.get(containerID);
+			if (previous != null && previous.salt == salt) {
+				// initialized concurrently with the same key
+				cipher.em.destroy();
+				cipher = previous;
+			} else if (previous != null && previous.users > 0) {
+				cipher.em.destroy();
+				throw new IllegalStateException("The encryption of container "
+						+ containerID + " is in use with another salt.");
+			} else {
+				if (previous != null)
+					previous.em.destroy();
+				containerEMs.put(containerID, cipher);
+			}
+			if (acquire) {
+				cipher.users++;
+				cipher.discarded = false;
+			}
+			evictContainerEMs();
+		}
 	}
 
 	/**
-	 * Initialized the encryption for positions.
+	 * Erase the least recently used ciphers that are not in use, beyond the
+	 * size of the pool. The caller must hold the lock of the map.
+	 */
+	private void evictContainerEMs() {
+		int unused = 0;
+		for (ContainerCipher cipher : containerEMs.values())
+			if (cipher.users == 0)
+				unused++;
+		Iterator<ContainerCipher> iterator = containerEMs.values().iterator();
+		while (unused > CONTAINER_CIPHER_POOL_SIZE && iterator.hasNext()) {
+			ContainerCipher cipher = iterator.next();
+			if (cipher.users > 0)
+				continue;
+			iterator.remove();
+			cipher.em.destroy();
+			unused--;
+		}
+	}
+
+	/**
+	 * Erase the keys of all the container ciphers of this filter. The ciphers
+	 * still acquired are erased when they are released.
+	 */
+	public void destroyContainerEMs() {
+		synchronized (containerEMs) {
+			Iterator<ContainerCipher> iterator = containerEMs.values()
+					.iterator();
+			while (iterator.hasNext()) {
+				ContainerCipher cipher = iterator.next();
+				if (cipher.users > 0) {
+					cipher.discarded = true;
+					continue;
+				}
+				iterator.remove();
+				cipher.em.destroy();
+			}
+		}
+	}
+
+	private SECRAMEncryptionMethod<byte[]> getContainerEM(int containerID) {
+		ContainerCipher cipher;
+		synchronized (containerEMs) {
+			cipher = containerEMs.get(containerID);
+		}
+		if (cipher == null)
+			throw new IllegalStateException(
+					"The encryption of container " + containerID
+							+ " is not initialized.");
+		return cipher.em;
+	}
+
+	/**
+	 * Initialized the encryption for positions, with the original OPE coin
+	 * generation.
 	 * @param salt A random salt used for deriving an OPE key
 	 */
 	public void initPositionEM(long salt) {
-		positionEM = SECRAMEncryptionFactory.createPositionEM(masterKey, salt);
+		initPositionEM(salt, OPE.COINS_SHA1PRNG);
+	}
+
+	/**
+	 * Initialized the encryption for positions.
+	 * @param salt A random salt used for deriving an OPE key
+	 * @param coinsVersion Coin generation version of the OPE
+	 */
+	public void initPositionEM(long salt, int coinsVersion) {
+		domain = null;
+		mateOffsets = false;
+		positionOrder = Comparator.naturalOrder();
+		positionEM = SECRAMEncryptionFactory.createPositionEM(masterKey, salt,
+				coinsVersion);
+		resetPositionCache();
+	}
+
+	/**
+	 * Initialized the encryption for positions as recorded in the header of a
+	 * file: the encryption scheme, the OPE salt, the coin generation, the
+	 * domain of the positions, and whether the next positions are stored as
+	 * offsets.
+	 */
+	public void initPositionEM(SecramHeader header) {
+		boolean mateOffsets = header.getOption(SecramHeader.MATE_OFFSETS, 0) != 0;
+		initDomainPositionEM(header);
+		this.mateOffsets = mateOffsets;
+	}
+
+	/**
+	 * @return Whether the next positions are stored as offsets in the
+	 *         sensitive field (see {@link ReadHeader#nextPositionOffset}).
+	 */
+	public boolean hasMateOffsets() {
+		return mateOffsets;
+	}
+
+	private void initDomainPositionEM(SecramHeader header) {
+		int coinsVersion = (int) header.getOption(SecramHeader.OPE_COINS,
+				OPE.COINS_SHA1PRNG);
+		int plainTextBits = (int) header.getOption(
+				SecramHeader.OPE_DOMAIN_BITS, -1);
+		if (plainTextBits < 0) {
+			initPositionEM(header.getOpeSalt(), coinsVersion);
+			return;
+		}
+		domain = new GenomeDomain(header.getSamFileHeader()
+				.getSequenceDictionary());
+		if (domain.getBits() > plainTextBits)
+			throw new IllegalArgumentException(
+					"The sequence dictionary does not fit the OPE domain of the file.");
+		int cipherTextBits = (int) header.getOption(
+				SecramHeader.OPE_RANGE_BITS, plainTextBits
+						+ OPE.DEFAULT_CIPHERTEXT_BITS
+						- OPE.DEFAULT_PLAINTEXT_BITS);
+		int scheme = (int) header.getOption(SecramHeader.POSITION_SCHEME,
+				SECRAMEncryptionFactory.POSITION_SCHEME_OPE);
+		positionEM = SECRAMEncryptionFactory.createPositionEM(masterKey,
+				header.getOpeSalt(), scheme, coinsVersion, plainTextBits,
+				cipherTextBits);
+		positionOrder = SECRAMEncryptionFactory.getPositionComparator(scheme);
+		resetPositionCache();
+	}
+
+	/**
+	 * Compare two encrypted positions, whose numerical order may not be the
+	 * order of the positions, depending on the encryption scheme.
+	 * @return A negative integer, zero, or a positive integer as the first
+	 *         position is before, equal to, or after the second position.
+	 */
+	public int compareEncryptedPositions(long encPosition1, long encPosition2) {
+		return positionOrder.compare(encPosition1, encPosition2);
+	}
+
+	/**
+	 * @return A comparator of the encrypted positions, for the index.
+	 */
+	public Comparator<Long> getEncryptedPositionComparator() {
+		return positionOrder;
+	}
+
+	private void resetPositionCache() {
 		lastOPEPair[0] = lastOPEPair[1] = -1;
+		if (upperBound != Long.MAX_VALUE)
+			encUpperBound = encryptPosition(upperBound);
+	}
+
+	/**
+	 * Save the top levels of the OPE tree to a sidecar file, see
+	 * {@link OPETreeFile}. Nothing is saved if the positions are not
+	 * encrypted.
+	 * @param salt The salt of the position encryption.
+	 * @param levels Number of levels from the root.
+	 */
+	public void savePositionTree(File file, long salt, int levels)
+			throws IOException {
+		if (positionEM instanceof OPE)
+			OPETreeFile.write(file, (OPE) positionEM, masterKey, salt, levels);
+	}
+
+	/**
+	 * Load the top levels of the OPE tree from a sidecar file, if it exists
+	 * and is authentic, see {@link OPETreeFile}.
+	 * @param salt The salt of the position encryption.
+	 * @return Whether the tree was loaded.
+	 */
+	public boolean loadPositionTree(File file, long salt) throws IOException {
+		if (positionEM instanceof OPE)
+			return OPETreeFile.load(file, (OPE) positionEM, masterKey, salt);
+		return false;
+	}
+
+	/**
+	 * Create the sidecar file of a coverage pyramid, encrypted under the
+	 * master key, see {@link CoveragePyramid}.
+	 */
+	public CoveragePyramid.Writer createCoverage(File file,
+			SAMSequenceDictionary dictionary) throws IOException {
+		return new CoveragePyramid.Writer(file, dictionary, masterKey);
+	}
+
+	/**
+	 * Load a coverage pyramid from a sidecar file, if it exists and is
+	 * authentic, see {@link CoveragePyramid}.
+	 * @return The pyramid, or null.
+	 */
+	public CoveragePyramid loadCoverage(File file) throws IOException {
+		return CoveragePyramid.read(file, masterKey);
 	}
 
 	/**
@@ -94,6 +437,7 @@ public class SECRAMSecurityFilter {
 	public void setBounds(long encLowerBound, long encUpperBound) {
 		lowerBound = decryptPosition(encLowerBound);
 		upperBound = decryptPosition(encUpperBound);
+		this.encUpperBound = encUpperBound;
 	}
 
 	/**
@@ -101,17 +445,38 @@ public class SECRAMSecurityFilter {
 	 * @return Encrypted block.
 	 */
 	public byte[] encryptBlock(byte[] block, int containerID) {
-		SECRAMEncryptionMethod<byte[]> cypher = containerEMs.get(containerID);
+		SECRAMEncryptionMethod<byte[]> cypher = getContainerEM(containerID);
 		byte[] encBlock = cypher.encrypt(block, null);
 		return encBlock;
 	}
 
+	/**
+	 * Whether the sensitive block of a container should be decrypted by range,
+	 * with {@link #decryptBlockRange(byte[], long, int)}, rather than as a
+	 * whole. This is the case for queries, which usually return a few records
+	 * of a container, when its cipher is seekable.
+	 */
+	public boolean decryptsBlockRanges(int containerID) {
+		return (lowerBound != OPE.MIN_PLAINTEXT || upperBound != Long.MAX_VALUE)
+				&& getContainerEM(containerID) instanceof SECRAMSeekableCipher;
+	}
+
+	/**
+	 * Decrypt in place a range of the sensitive block of a container.
+	 * @param buffer The encrypted bytes of the range.
+	 * @param position Position of the range in the block.
+	 */
+	public void decryptBlockRange(byte[] buffer, long position, int containerID) {
+		((SECRAMSeekableCipher) getContainerEM(containerID)).decryptRange(
+				buffer, 0, buffer.length, position);
+	}
+
 	/**
 	 * Decrypt a block with the block encryption method of the specified container.
 	 * @return Plaintext block.
 	 */
 	public byte[] decryptBlock(byte[] encBlock, int containerID) {
-		SECRAMEncryptionMethod<byte[]> decypher = containerEMs.get(containerID);
+		SECRAMEncryptionMethod<byte[]> decypher = getContainerEM(containerID);
 		byte[] block = decypher.decrypt(encBlock, null);
 		return block;
 	}
@@ -119,25 +484,219 @@ public class SECRAMSecurityFilter {
 	public long encryptPosition(long pos) {
 		if (lastOPEPair[0] != pos) {
 			lastOPEPair[0] = pos;
-			lastOPEPair[1] = positionEM.encrypt(pos, null);
+			lastOPEPair[1] = positionEM.encryptPosition(toDomain(pos));
 		}
 		return lastOPEPair[1];
 	}
 
 	public long decryptPosition(long encPos) {
 		if (lastOPEPair[1] != encPos) {
-			lastOPEPair[0] = positionEM.decrypt(encPos, null);
+			lastOPEPair[0] = fromDomain(positionEM.decryptPosition(encPos));
 			lastOPEPair[1] = encPos;
 		}
 		return lastOPEPair[0];
 	}
 
+	private long toDomain(long pos) {
+		return domain == null ? pos : domain.toLinear(pos);
+	}
+
+	private long fromDomain(long pos) {
+		return domain == null ? pos : domain.toAbsolute(pos);
+	}
+
+	/**
+	 * Encrypt a sorted array of positions in batch. With OPE, the positions
+	 * are encrypted in a single traversal of the OPE tree.
+	 * @return The encrypted positions, in the same order.
+	 */
+	public long[] encryptPositions(long[] sortedPositions) {
+		if (domain != null) {
+			long[] linear = new long[sortedPositions.length];
+			for (int i = 0; i < linear.length; i++)
+				linear[i] = domain.toLinear(sortedPositions[i]);
+			sortedPositions = linear;
+		}
+		return positionEM.encryptPositions(sortedPositions);
+	}
+
+	/**
+	 * Decrypt in batch an array of encrypted positions sorted in numerical
+	 * order. With OPE, the positions are decrypted in a single traversal of
+	 * the OPE tree.
+	 * @return The decrypted positions, in the same order.
+	 */
+	public long[] decryptPositions(long[] sortedEncPositions) {
+		long[] result = positionEM.decryptPositions(sortedEncPositions);
+		if (domain != null)
+			for (int i = 0; i < result.length; i++)
+				result[i] = domain.toAbsolute(result[i]);
+		return result;
+	}
+
+	/**
+	 * Encrypt a sorted array of positions, in parallel chunks on the common
+	 * fork-join pool.
+	 * @return The encrypted positions, in the same order.
+	 */
+	public long[] encryptPositionsInParallel(long[] sortedPositions) {
+		int chunks = (sortedPositions.length + PARALLEL_ENCRYPTION_CHUNK - 1)
+				/ PARALLEL_ENCRYPTION_CHUNK;
+		if (chunks <= 1)
+			return encryptPositions(sortedPositions);
+		long[] result = new long[sortedPositions.length];
+		IntStream.range(0, chunks).parallel().forEach(i -> {
+			int from = i * PARALLEL_ENCRYPTION_CHUNK;
+			int to = Math.min(from + PARALLEL_ENCRYPTION_CHUNK,
+					sortedPositions.length);
+			long[] encChunk = encryptPositions(Arrays.copyOfRange(
+					sortedPositions, from, to));
+			System.arraycopy(encChunk, 0, result, from, encChunk.length);
+		});
+		return result;
+	}
+
+	/**
+	 * Encrypt in place the positions of the records of a container, and the
+	 * next positions of their read headers, or, with mate offsets, compute
+	 * the offsets of the next positions that go in the sensitive field. Only the first position of each
+	 * run of consecutive positions is encrypted, and the records of the run
+	 * get the same encrypted position (see {@link #decryptRecords(List)}).
+	 * All the distinct values of the container are encrypted in parallel.
+	 * @param records Records of a container, sorted by position.
+	 */
+	public void encryptRecords(List<SecramRecord> records) {
+		// collect the starting positions of the runs of consecutive records,
+		// and the next positions
+		int nofValues = 0;
+		for (SecramRecord record : records)
+			nofValues += 1 + (mateOffsets ? 0 : record.mReadHeaders.size());
+		long[] values = new long[nofValues];
+		int n = 0;
+		long firstPosition = records.isEmpty() ? 0 : records.get(0)
+				.getAbsolutePosition();
+		long prevPosition = firstPosition;
+		for (SecramRecord record : records) {
+			if (record.getAbsolutePosition() - prevPosition != 1)
+				values[n++] = record.getAbsolutePosition();
+			prevPosition = record.getAbsolutePosition();
+			if (mateOffsets)
+				continue;
+			for (ReadHeader rh : record.mReadHeaders)
+				values[n++] = rh.getNextAbsolutePosition();
+		}
+		Arrays.sort(values, 0, n);
+		int distinct = 0;
+		for (int i = 0; i < n; i++)
+			if (distinct == 0 || values[i] != values[distinct - 1])
+				values[distinct++] = values[i];
+		values = Arrays.copyOf(values, distinct);
+		long[] encValues = encryptPositionsInParallel(values);
+
+		prevPosition = firstPosition;
+		long encPosition = -1;
+		for (SecramRecord record : records) {
+			long position = record.getAbsolutePosition();
+			if (position - prevPosition != 1)
+				encPosition = encValues[Arrays.binarySearch(values, position)];
+			prevPosition = position;
+			record.setAbsolutionPosition(encPosition);
+			for (ReadHeader rh : record.mReadHeaders) {
+				if (mateOffsets)
+					rh.nextPositionOffset = rh.getNextAbsolutePosition()
+							- position;
+				else
+					rh.setNextAbsolutionPosition(encValues[Arrays
+							.binarySearch(values, rh.getNextAbsolutePosition())]);
+			}
+		}
+	}
+
+	/**
+	 * Decrypt in place the positions of the records of a container, and the
+	 * next positions of their read headers. All the distinct encrypted values
+	 * of the container are decrypted in one batch. With mate offsets, the
+	 * next positions are only restored for the permitted records.
+	 * @param records Records of a container, in their original order.
+	 * @return The records that are in the permitted range.
+	 */
+	public List<SecramRecord> decryptRecords(List<SecramRecord> records) {
+		return decryptRecords(records, null);
+	}
+
+	/**
+	 * Decrypt in place the positions of the records of a container, like
+	 * {@link #decryptRecords(List)}, and decode the sensitive fields of the
+	 * permitted records only, once their positions are decrypted.
+	 * @param records Records of a container, in their original order.
+	 * @param sensitiveFieldDecoder Decoder of the sensitive field of a
+	 * permitted record, or null if the sensitive fields are decoded.
+	 * @return The records that are in the permitted range.
+	 */
+	public List<SecramRecord> decryptRecords(List<SecramRecord> records,
+			Consumer<SecramRecord> sensitiveFieldDecoder) {
+		// collect the encrypted starting positions of the runs of consecutive
+		// records, and the encrypted next positions
+		int nofValues = 0;
+		for (SecramRecord record : records)
+			nofValues += 1 + (mateOffsets ? 0 : record.mReadHeaders.size());
+		long[] encValues = new long[nofValues];
+		int n = 0;
+		long encPosition = -1;
+		for (SecramRecord record : records) {
+			if (record.getAbsolutePosition() != encPosition) {
+				encPosition = record.getAbsolutePosition();
+				encValues[n++] = encPosition;
+			}
+			if (mateOffsets)
+				continue;
+			for (ReadHeader rh : record.mReadHeaders)
+				encValues[n++] = rh.getNextAbsolutePosition();
+		}
+		Arrays.sort(encValues, 0, n);
+		int distinct = 0;
+		for (int i = 0; i < n; i++)
+			if (distinct == 0 || encValues[i] != encValues[distinct - 1])
+				encValues[distinct++] = encValues[i];
+		encValues = Arrays.copyOf(encValues, distinct);
+		long[] values = decryptPositions(encValues);
+
+		List<SecramRecord> permitted = new ArrayList<SecramRecord>(
+				records.size());
+		encPosition = -1;
+		long startPosition = -1;
+		int offset = -1;
+		for (SecramRecord record : records) {
+			if (record.getAbsolutePosition() == encPosition)
+				offset += 1;
+			else {
+				encPosition = record.getAbsolutePosition();
+				startPosition = values[Arrays.binarySearch(encValues,
+						encPosition)];
+				offset = 0;
+			}
+			long pos = startPosition + offset;
+			if (pos < lowerBound || pos > upperBound)
+				continue;
+			record.setAbsolutionPosition(pos);
+			if (null != sensitiveFieldDecoder)
+				sensitiveFieldDecoder.accept(record);
+			for (ReadHeader rh : record.mReadHeaders)
+				rh.setNextAbsolutionPosition(mateOffsets ? pos
+						+ rh.nextPositionOffset : values[Arrays.binarySearch(
+						encValues, rh.getNextAbsolutePosition())]);
+			permitted.add(record);
+		}
+		return permitted;
+	}
+
 	/**
 	 * Whether this container is after the permitted upper bound.
 	 * @param encContainerStart Starting position of the container.
 	 */
 	public boolean isContainerPermitted(long encContainerStart) {
-		return encContainerStart <= encryptPosition(upperBound);
+		return upperBound == Long.MAX_VALUE
+				|| compareEncryptedPositions(encContainerStart, encUpperBound) <= 0;
 	}
 
 	/**
@@ -37,6 +37,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Comparator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -44,33 +45,72 @@ import java.util.TreeMap;
 
 /**
  * The index is simple a map from absolute positions to file offsets. Each file
- * offset points to the beginning of a container.
+ * offset points to the beginning of a container. The index also records, if
+ * known, how many containers before each container hold reads overlapping its
+ * first position, to find where the reads overlapping a position start.
  * 
  * @author zhihuang
  *
  */
 public class SecramIndex {
-	private TreeMap<Long, Long> index = new TreeMap<Long, Long>();
+	/**
+	 * Value of an unknown lookback, in the indexes written before it was
+	 * recorded.
+	 */
+	public static final int UNKNOWN_LOOKBACK = -1;
+
+	private TreeMap<Long, Long> index;
+	private TreeMap<Long, Integer> lookbacks;
 
 	/**
 	 * Construct a SECRAM index from an existing index file.
+	 * @param comparator Order of the encrypted positions.
 	 * @throws IOException
 	 */
-	SecramIndex(File indexFile) throws IOException {
+	SecramIndex(File indexFile, Comparator<Long> comparator)
+			throws IOException {
+		this(comparator);
 		readIndexFromFile(indexFile);
 	}
 
 	/**
 	 * Create an empty SECRAM index (used when writing a SECRAM file). 
+	 * @param comparator Order of the encrypted positions.
 	 */
-	SecramIndex() {
+	SecramIndex(Comparator<Long> comparator) {
+		index = new TreeMap<Long, Long>(comparator);
+		lookbacks = new TreeMap<Long, Integer>(comparator);
 	};
 
 	/**
 	 * Add an index record (position, offset).
 	 */
 	public void addTuple(long position, long offset) {
+		addTuple(position, offset, UNKNOWN_LOOKBACK);
+	}
+
+	/**
+	 * Add an index record (position, offset), with the number of containers
+	 * before it which hold reads overlapping its first position.
+	 */
+	public void addTuple(long position, long offset, int lookback) {
 		index.put(position, offset);
+		lookbacks.put(position, lookback);
+	}
+
+	/**
+	 * Get the number of containers before the one which contains a position,
+	 * which hold reads overlapping the first position of that container. All
+	 * the reads overlapping the position start in these containers or after.
+	 * @param position The position to be queried.
+	 * @return The number of containers, 0 if no container contains the
+	 *         position, or {@link #UNKNOWN_LOOKBACK} if it is not recorded.
+	 */
+	public int getLookback(long position) {
+		Long start = index.floorKey(position);
+		if (null == start)
+			return 0;
+		return lookbacks.get(start);
 	}
 
 	/**
@@ -85,12 +125,43 @@ public class SecramIndex {
 		return entry.getValue();
 	}
 
+	/**
+	 * Get the start of a container some containers before the one which
+	 * contains a position.
+	 * @param position The position to be queried.
+	 * @param lookback Number of containers to go back.
+	 * @return Starting position of the container, or of the first container
+	 *         if there are not enough containers before, or null if the index
+	 *         is empty.
+	 */
+	public Long getContainerStart(long position, int lookback) {
+		Long start = index.floorKey(position);
+		if (null == start)
+			return index.isEmpty() ? null : index.firstKey();
+		for (int i = 0; i < lookback; i++) {
+			Long previous = index.lowerKey(start);
+			if (null == previous)
+				break;
+			start = previous;
+		}
+		return start;
+	}
+
+	/**
+	 * @return The number of containers.
+	 */
+	public int size() {
+		return index.size();
+	}
+
 	private void readIndexFromFile(File indexFile) throws IOException {
 		BufferedReader bufReader = new BufferedReader(new FileReader(indexFile));
 		String line = bufReader.readLine();
 		while (null != line) {
-			String[] pair = line.split("\t");
-			index.put(Long.valueOf(pair[0]), Long.valueOf(pair[1]));
+			String[] fields = line.split("\t");
+			addTuple(Long.valueOf(fields[0]), Long.valueOf(fields[1]),
+					fields.length > 2 ? Integer.valueOf(fields[2])
+							: UNKNOWN_LOOKBACK);
 			line = bufReader.readLine();
 		}
 		bufReader.close();
@@ -105,8 +176,13 @@ public class SecramIndex {
 		entries.stream().forEach(
 				(x) -> {
 					try {
-						bufWriter.write(String.format("%d\t%d\n", x.getKey(),
-								x.getValue()));
+						int lookback = lookbacks.get(x.getKey());
+						if (lookback == UNKNOWN_LOOKBACK)
+							bufWriter.write(String.format("%d\t%d\n",
+									x.getKey(), x.getValue()));
+						else
+							bufWriter.write(String.format("%d\t%d\t%d\n",
+									x.getKey(), x.getValue(), lookback));
 					} catch (IOException e) {
 						e.printStackTrace();
 					}
@@ -32,25 +32,55 @@
 package com.sg.secram.impl.converters;
 
 import htsjdk.samtools.BAMRecord;
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
 
-import java.io.ByteArrayOutputStream;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 
 import com.sg.secram.impl.records.PosCigarFeature;
 
 /**
  * Builder for constructing a BAM record when collecting information from SECRAM records.
+ * The CIGAR operators, the bases and the quality scores are accumulated in
+ * growable primitive arrays, and set in their binary form on the record when
+ * it is closed.
  * @author zhihuang
  *
  */
 public class BAMRecordBuilder {
+	private static final CigarOperator[] CIGAR_OPERATORS = CigarOperator
+			.values();
+
+	/**
+	 * Order of the records in a BAM file: by reference and alignment start,
+	 * and then in the order the builders were created.
+	 */
+	public static final Comparator<BAMRecordBuilder> ORDER = Comparator
+			.comparingInt(BAMRecordBuilder::getReferenceIndex)
+			.thenComparingInt(BAMRecordBuilder::getAlignmentStart)
+			.thenComparingLong(BAMRecordBuilder::getOrdinal);
+
 	private BAMRecord record;
+	private int alignmentStart;
 	private int alignmentEnd;
-	private LinkedList<PosCigarFeature> cigar = new LinkedList<PosCigarFeature>();
+	private long ordinal;
 
-	private ByteArrayOutputStream qualityScores = new ByteArrayOutputStream(100);
+	/**
+	 * CIGAR elements, each packed as in BAM: the length shifted by 4 bits,
+	 * and the operator in the low bits.
+	 */
+	private int[] cigar = new int[4];
+	private int cigarLength = 0;
+
+	private byte[] bases;
+	private int basesLength = 0;
 
-	private String readString = "";
+	private byte[] qualityScores;
+	private int qualityScoresLength = 0;
 
 	private int expectedNext = -1;
 
@@ -62,10 +92,28 @@ public class BAMRecordBuilder {
 	 */
 	public BAMRecordBuilder(BAMRecord record, int alignmentStart,
 			int alignmentEnd) {
+		this(record, alignmentStart, alignmentEnd, 0);
+	}
+
+	/**
+	 * Construct a builder with an incomplete BAM record.
+	 * @param record An incomplete BAM record.
+	 * @param alignmentStart Alignment start of the record.
+	 * @param alignmentEnd Alignment end of the record.
+	 * @param ordinal Rank of the record among those with the same alignment start.
+	 */
+	public BAMRecordBuilder(BAMRecord record, int alignmentStart,
+			int alignmentEnd, long ordinal) {
 		this.record = record;
 		record.setAlignmentStart(alignmentStart);
+		this.alignmentStart = alignmentStart;
 		this.alignmentEnd = alignmentEnd;
+		this.ordinal = ordinal;
 		expectedNext = alignmentStart;
+		// most reads have as many bases as aligned positions
+		int capacity = Math.max(16, alignmentEnd - alignmentStart + 1);
+		bases = new byte[capacity];
+		qualityScores = new byte[capacity];
 	}
 
 	/**
@@ -77,8 +125,12 @@ public class BAMRecordBuilder {
 	 */
 	public void addScores(byte[] b, int off, int len, int position) {
 		check(position);
+		if (qualityScoresLength + len > qualityScores.length)
+			qualityScores = Arrays.copyOf(qualityScores, Math.max(
+					2 * qualityScores.length, qualityScoresLength + len));
 		try {
-			qualityScores.write(b, off, len);
+			System.arraycopy(b, off, qualityScores, qualityScoresLength, len);
+			qualityScoresLength += len;
 		} catch (IndexOutOfBoundsException ex) {
 			ex.printStackTrace();
 		}
@@ -88,10 +140,22 @@ public class BAMRecordBuilder {
 		return expectedNext;
 	}
 
+	public int getReferenceIndex() {
+		return record.getReferenceIndex();
+	}
+
+	public int getAlignmentStart() {
+		return alignmentStart;
+	}
+
 	public int getAlignmentEnd() {
 		return alignmentEnd;
 	}
 
+	public long getOrdinal() {
+		return ordinal;
+	}
+
 	/**
 	 * Advance the position by 1 because the current position is completed.
 	 * Must call this method after all information of one position has been
@@ -119,62 +183,91 @@ public class BAMRecordBuilder {
 	}
 
 	/**
-	 * Add a PosCigar feature to the position.
+	 * Add a PosCigar feature to the position, with its bases if any.
+	 * @return The number of bases added.
 	 */
-	public void addElement(PosCigarFeature element, int position) {
+	public int addFeature(PosCigarFeature feature, int position) {
 		check(position);
-		cigar.add(element);
+		int length;
+		switch (feature.mOP) {
+		case F:
+		case R:
+		case G:
+		case O:
+		case I:
+		case S:
+		case H:
+		case P:
+			length = feature.mLength;
+			break;
+		default:
+			length = 1;
+		}
+		addCigarElement(feature.mOP.getBAMOperator(), length);
+
+		switch (feature.mOP) {
+		case M:
+		case X:
+		case F:
+		case I:
+		case R:
+		case S:
+			String featureBases = feature.mBases;
+			int n = featureBases.length();
+			ensureBasesCapacity(n);
+			for (int i = 0; i < n; i++)
+				bases[basesLength++] = (byte) featureBases.charAt(i);
+			return n;
+		default:
+			return 0;
+		}
 	}
 
 	/**
-	 * Add read bases to the position.
+	 * Add a match of the reference base to the position.
 	 */
-	public void addReadElement(String readStr, int position) {
+	public void addMatch(char refBase, int position) {
 		check(position);
-		readString += readStr;
+		addCigarElement(CigarOperator.M, 1);
+		ensureBasesCapacity(1);
+		bases[basesLength++] = (byte) refBase;
+	}
+
+	/**
+	 * Extend the last CIGAR element if it has the same operator, or append a
+	 * new one.
+	 */
+	private void addCigarElement(CigarOperator operator, int length) {
+		int op = operator.ordinal();
+		if (cigarLength > 0 && (cigar[cigarLength - 1] & 0xF) == op) {
+			cigar[cigarLength - 1] += length << 4;
+			return;
+		}
+		if (cigarLength == cigar.length)
+			cigar = Arrays.copyOf(cigar, 2 * cigarLength);
+		cigar[cigarLength++] = length << 4 | op;
+	}
+
+	private void ensureBasesCapacity(int n) {
+		if (basesLength + n > bases.length)
+			bases = Arrays.copyOf(bases, Math.max(2 * bases.length, basesLength
+					+ n));
 	}
 
 	/**
 	 * Close this builder, and return a complete BAM record.
 	 */
 	public BAMRecord close() {
-		record.setBaseQualities(qualityScores.toByteArray());
-		record.setReadString(readString);
-
-		if (cigar.size() == 0) {
-			record.setCigarString("*");
-		} else {
-			char lastChar = 'M';
-			int currentLen = 0;
-			String finalString = "";
-			for (PosCigarFeature feature : cigar) {
-				char currentChar = feature.mOP.getBAMCharacter();
-				if (lastChar != currentChar) {
-					if (currentLen > 0) {
-						finalString += currentLen + String.valueOf(lastChar);
-						currentLen = 0;
-					}
-					lastChar = feature.mOP.getBAMCharacter();
-				}
-
-				switch (feature.mOP) {
-				case F:
-				case R:
-				case G:
-				case O:
-				case I:
-				case S:
-				case H:
-				case P:
-					currentLen += feature.mLength;
-					break;
-				default:
-					++currentLen;
-				}
-			}
-			finalString += currentLen + String.valueOf(lastChar);
-			record.setCigarString(finalString);
-		}
+		record.setBaseQualities(qualityScoresLength == qualityScores.length ? qualityScores
+				: Arrays.copyOf(qualityScores, qualityScoresLength));
+		record.setReadBases(basesLength == bases.length ? bases : Arrays
+				.copyOf(bases, basesLength));
+
+		List<CigarElement> elements = new ArrayList<CigarElement>(cigarLength);
+		for (int i = 0; i < cigarLength; i++)
+			elements.add(new CigarElement(cigar[i] >>> 4,
+					CIGAR_OPERATORS[cigar[i] & 0xF]));
+		record.setCigar(new Cigar(elements));
 		return record;
 	}
 }
@@ -0,0 +1,391 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.impl.converters;
+
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFormatException;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read-ahead pipeline over the records of a BAM file. A background thread
+ * reads the BGZF blocks of the file, a pool of worker threads inflates them,
+ * and another background thread decodes the inflated data into BAM records.
+ * The records are handed to the consumer in batches through a bounded queue,
+ * in the order of the file.
+ * 
+ * @author zhihuang
+ *
+ */
+class BAMRecordPipeline implements Iterator<SAMRecord> {
+	private static final Future<byte[]> END_OF_BLOCKS = new FutureTask<>(
+			() -> new byte[0]);
+	private static final List<SAMRecord> END_OF_RECORDS = Collections
+			.emptyList();
+	/**
+	 * Number of records decoded in a batch.
+	 */
+	private static final int BATCH_SIZE = 1024;
+	private static final byte[] BAM_MAGIC = "BAM\1".getBytes();
+
+	private static final ThreadLocal<Inflater> inflater = ThreadLocal
+			.withInitial(() -> new Inflater(true));
+
+	private InputStream inputStream;
+	private BlockingQueue<Future<byte[]>> inflatedBlocks;
+	private BlockingQueue<List<SAMRecord>> decodedRecords;
+	private ExecutorService inflaters;
+	private Thread reader;
+	private Thread decoder;
+	private volatile boolean closed = false;
+	private volatile Exception failure;
+	private boolean finished = false;
+
+	private List<SAMRecord> batch = Collections.emptyList();
+	private int batchIndex = 0;
+
+	/**
+	 * @param bamFile
+	 *            The BAM file to read.
+	 * @param header
+	 *            The header of the file, which the records refer to.
+	 * @param nofThreads
+	 *            Number of threads inflating the BGZF blocks.
+	 */
+	BAMRecordPipeline(File bamFile, SAMFileHeader header, int nofThreads)
+			throws IOException {
+		this.inputStream = new BufferedInputStream(
+				new FileInputStream(bamFile), 1 << 20);
+		this.inflatedBlocks = new ArrayBlockingQueue<>(4 * nofThreads);
+		this.decodedRecords = new ArrayBlockingQueue<>(4);
+		this.inflaters = Executors.newFixedThreadPool(nofThreads, (r) -> {
+			Thread t = new Thread(r, "bam-block-inflater");
+			t.setDaemon(true);
+			return t;
+		});
+		this.reader = new Thread(() -> readBlocks(), "bam-block-reader");
+		this.reader.setDaemon(true);
+		this.decoder = new Thread(() -> decodeRecords(header),
+				"bam-record-decoder");
+		this.decoder.setDaemon(true);
+		this.reader.start();
+		this.decoder.start();
+	}
+
+	private void readBlocks() {
+		try {
+			byte[] block;
+			while (!closed && (block = readBlock(inputStream)) != null) {
+				final byte[] compressedBlock = block;
+				inflatedBlocks.put(inflaters
+						.submit(() -> inflate(compressedBlock)));
+			}
+			inflatedBlocks.put(END_OF_BLOCKS);
+		} catch (InterruptedException e) {
+			// the pipeline has been closed
+		} catch (Exception e) {
+			FutureTask<byte[]> failedBlock = new FutureTask<>(() -> {
+				throw e;
+			});
+			failedBlock.run();
+			try {
+				inflatedBlocks.put(failedBlock);
+			} catch (InterruptedException ie) {
+				// the pipeline has been closed
+			}
+		}
+	}
+
+	/**
+	 * Read a complete BGZF block.
+	 * 
+	 * @return The block, or null at the end of the file.
+	 */
+	private static byte[] readBlock(InputStream is) throws IOException {
+		byte[] header = new byte[BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+		int n = readFully(is, header, 0, header.length);
+		if (n == 0)
+			return null;
+		if (n < header.length
+				|| header[0] != BlockCompressedStreamConstants.GZIP_ID1
+				|| (header[1] & 0xFF) != BlockCompressedStreamConstants.GZIP_ID2
+				|| header[12] != BlockCompressedStreamConstants.BGZF_ID1
+				|| header[13] != BlockCompressedStreamConstants.BGZF_ID2)
+			throw new SAMFormatException("Invalid BGZF block header");
+		int blockSize = unpackShort(header,
+				BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET) + 1;
+		byte[] block = new byte[blockSize];
+		System.arraycopy(header, 0, block, 0, header.length);
+		if (readFully(is, block, header.length, blockSize - header.length) < blockSize
+				- header.length)
+			throw new EOFException("Truncated BGZF block");
+		return block;
+	}
+
+	/**
+	 * Inflate the data of a BGZF block, with the inflater of the thread.
+	 */
+	private static byte[] inflate(byte[] block) throws DataFormatException {
+		int dataOffset = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH;
+		int dataLength = block.length - dataOffset
+				- BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+		int size = unpackInt(block, block.length - 4);
+		byte[] data = new byte[size];
+		Inflater blockInflater = inflater.get();
+		blockInflater.reset();
+		blockInflater.setInput(block, dataOffset, dataLength);
+		int n = blockInflater.inflate(data, 0, size);
+		if (n != size)
+			throw new SAMFormatException("Inflated " + n
+					+ " bytes from a BGZF block of " + size + " bytes");
+		return data;
+	}
+
+	private void decodeRecords(SAMFileHeader header) {
+		try {
+			DataInputStream blockStream = new DataInputStream(
+					new InflatedBlockInputStream());
+			skipHeader(blockStream);
+			BAMRecordCodec codec = new BAMRecordCodec(header);
+			codec.setInputStream(blockStream);
+			SAMRecord record = null;
+			do {
+				List<SAMRecord> records = new ArrayList<SAMRecord>(BATCH_SIZE);
+				while (records.size() < BATCH_SIZE
+						&& (record = codec.decode()) != null) {
+					decodeFields(record);
+					records.add(record);
+				}
+				decodedRecords.put(records);
+			} while (!closed && record != null);
+			decodedRecords.put(END_OF_RECORDS);
+		} catch (InterruptedException e) {
+			// the pipeline has been closed
+		} catch (Exception e) {
+			failure = e;
+			try {
+				decodedRecords.put(END_OF_RECORDS);
+			} catch (InterruptedException ie) {
+				// the pipeline has been closed
+			}
+		}
+	}
+
+	/**
+	 * Decode the variable-length fields of a record, which BAMRecord only
+	 * decodes on first access, so that it is done on the decoder thread
+	 * rather than by the consumer.
+	 */
+	private static void decodeFields(SAMRecord record) {
+		record.getCigar();
+		record.getReadBases();
+		record.getBaseQualities();
+		record.getAttributes();
+	}
+
+	/**
+	 * Skip the header of the BAM file: the magic number, the text header and
+	 * the sequence dictionary.
+	 */
+	private static void skipHeader(DataInputStream is) throws IOException {
+		byte[] magic = new byte[BAM_MAGIC.length];
+		is.readFully(magic);
+		for (int i = 0; i < magic.length; i++)
+			if (magic[i] != BAM_MAGIC[i])
+				throw new SAMFormatException("Invalid BAM file header");
+		skip(is, readInt(is));
+		int nofSequences = readInt(is);
+		for (int i = 0; i < nofSequences; i++) {
+			skip(is, readInt(is));
+			readInt(is);
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (batchIndex < batch.size())
+			return true;
+		if (finished)
+			return false;
+		try {
+			do {
+				batch = decodedRecords.take();
+				batchIndex = 0;
+				if (batch == END_OF_RECORDS) {
+					finished = true;
+					if (failure != null)
+						throw new RuntimeException(failure);
+					return false;
+				}
+			} while (batch.isEmpty());
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public SAMRecord next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return batch.get(batchIndex++);
+	}
+
+	/**
+	 * Stop reading ahead, release the threads, and close the file.
+	 */
+	public void close() {
+		closed = true;
+		finished = true;
+		reader.interrupt();
+		decoder.interrupt();
+		inflaters.shutdownNow();
+		inflatedBlocks.clear();
+		decodedRecords.clear();
+		batch = END_OF_RECORDS;
+		batchIndex = 0;
+		try {
+			inputStream.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * The data of the inflated blocks, in the order of the file.
+	 */
+	private class InflatedBlockInputStream extends InputStream {
+		private byte[] block = new byte[0];
+		private int position = 0;
+		private boolean lastBlock = false;
+
+		private boolean fill() throws IOException {
+			while (position == block.length) {
+				if (lastBlock)
+					return false;
+				try {
+					Future<byte[]> next = inflatedBlocks.take();
+					if (next == END_OF_BLOCKS) {
+						lastBlock = true;
+						inflaters.shutdown();
+						return false;
+					}
+					block = next.get();
+					position = 0;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException(e);
+				} catch (ExecutionException e) {
+					throw new IOException(e.getCause());
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fill())
+				return -1;
+			return block[position++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!fill())
+				return -1;
+			int n = Math.min(len, block.length - position);
+			System.arraycopy(block, position, b, off, n);
+			position += n;
+			return n;
+		}
+	}
+
+	private static int readFully(InputStream is, byte[] b, int off, int len)
+			throws IOException {
+		int n = 0;
+		while (n < len) {
+			int count = is.read(b, off + n, len - n);
+			if (count < 0)
+				break;
+			n += count;
+		}
+		return n;
+	}
+
+	private static int readInt(DataInputStream is) throws IOException {
+		return Integer.reverseBytes(is.readInt());
+	}
+
+	private static void skip(DataInputStream is, int n) throws IOException {
+		while (n > 0) {
+			int skipped = is.skipBytes(n);
+			if (skipped <= 0)
+				throw new EOFException("Truncated BAM file header");
+			n -= skipped;
+		}
+	}
+
+	private static int unpackShort(byte[] b, int off) {
+		return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8);
+	}
+
+	private static int unpackInt(byte[] b, int off) {
+		return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8)
+				| ((b[off + 2] & 0xFF) << 16) | ((b[off + 3] & 0xFF) << 24);
+	}
+}
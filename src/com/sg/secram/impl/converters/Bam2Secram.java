@@ -50,10 +50,12 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import com.sg.secram.encryption.SECRAMEncryptionFactory;
 import com.sg.secram.impl.SECRAMFileWriter;
 import com.sg.secram.impl.records.PosCigarFeature;
 import com.sg.secram.impl.records.PosCigarFeatureCode;
 import com.sg.secram.impl.records.SecramRecord;
+import com.sg.secram.structure.SecramContainerIO;
 import com.sg.secram.util.ReferenceUtils;
 import com.sg.secram.util.SECRAMUtils;
 import com.sg.secram.util.Timings;
@@ -66,7 +68,13 @@ import com.sg.secram.util.Timings;
 public class Bam2Secram {
 
 	// TODO handle unaligned reads
-	
+
+	/**
+	 * Number of threads inflating the BGZF blocks of the input BAM file.
+	 */
+	private static final int INFLATER_THREADS = Runtime.getRuntime()
+			.availableProcessors();
+
 	private ReferenceSequenceFile mRsf;
 
 	private byte[] cachedRefSequence = null;
@@ -170,10 +178,27 @@ public class Bam2Secram {
 	 * @param refFileName
 	 *            Path of the reference file
 	 * @param key Encryption key.
+	 * @return Storage size of each type of information in the SECRAM file.
 	 * @throws IOException
 	 */
-	public static void convertFile(File input, File output, String refFileName,
-			byte[] key) throws IOException {
+	public static SecramContainerIO.SizeStatistics convertFile(File input,
+			File output, String refFileName, byte[] key) throws IOException {
+		return convertFile(input, output, refFileName, key,
+				SECRAMEncryptionFactory.POSITION_SCHEME_OPE);
+	}
+
+	/**
+	 * Convert a BAM file to a SECRAM file, with a given encryption scheme of
+	 * the positions.
+	 * 
+	 * @param positionScheme
+	 *            Encryption scheme of the positions, see
+	 *            {@link SECRAMEncryptionFactory}.
+	 * @see #convertFile(File, File, String, byte[])
+	 */
+	public static SecramContainerIO.SizeStatistics convertFile(File input,
+			File output, String refFileName, byte[] key, int positionScheme)
+			throws IOException {
 		SamReader reader = SamReaderFactory.makeDefault()
 				.validationStringency(ValidationStringency.SILENT).open(input);
 
@@ -182,21 +207,33 @@ public class Bam2Secram {
 		SAMFileHeader samFileHeader = reader.getFileHeader();
 
 		SECRAMFileWriter secramFileWriter = new SECRAMFileWriter(output,
-				samFileHeader, key);
+				samFileHeader, key, SECRAMFileWriter.DEFAULT_OPE_TREE_LEVELS,
+				positionScheme);
 
 		Bam2Secram converter = new Bam2Secram(samFileHeader, refFileName);
 
+		// inflate and decode the BAM records ahead of the conversion
+		BAMRecordPipeline pipeline = null;
+		Iterator<SAMRecord> samIterator;
+		if (reader.type() == SamReader.Type.BAM_TYPE) {
+			pipeline = new BAMRecordPipeline(input, samFileHeader,
+					INFLATER_THREADS);
+			samIterator = pipeline;
+		} else
+			samIterator = reader.iterator();
+
 		// a map that returns the record corresponding to this position
 		TreeMap<Long, SecramRecordBuilder> pos2Builder = new TreeMap<Long, SecramRecordBuilder>();
 		try {
-			for (final SAMRecord samRecord : reader) {
+			while (samIterator.hasNext()) {
+				final SAMRecord samRecord = samIterator.next();
 				if (samRecord.getReadUnmappedFlag())
 					continue;
 				BAMRecord bamRecord = (BAMRecord) samRecord;
 
 				long nanoStart = System.nanoTime();
 				converter.addBamRecordToSecramRecords(bamRecord, pos2Builder);
-				Timings.transposition += System.nanoTime() - nanoStart;
+				Timings.transposition.add(System.nanoTime() - nanoStart);
 
 				long startPosition = SECRAMUtils.getAbsolutePosition(
 						bamRecord.getAlignmentStart() - 1,
@@ -217,6 +254,8 @@ public class Bam2Secram {
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
+			if (pipeline != null)
+				pipeline.close();
 			// Save the remaining SECRAM records
 			while (!pos2Builder.isEmpty()) {
 				SecramRecordBuilder remainingBuilder = pos2Builder
@@ -231,8 +270,9 @@ public class Bam2Secram {
 			long totalTime = System.currentTimeMillis() - startTime;
 			System.out.println("Total time elapsed: "
 					+ SECRAMUtils.timeString(totalTime));
+			reader.close();
 		}
-
+		return secramFileWriter.getSizeStatistics();
 	}
 
 	/**
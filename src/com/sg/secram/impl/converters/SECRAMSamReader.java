@@ -0,0 +1,405 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.impl.converters;
+
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.BrowseableBAMIndex;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileSpan;
+import htsjdk.samtools.SAMFormatException;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.util.CloseableIterator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.sg.secram.impl.SECRAMFileReader;
+
+/**
+ * A {@link SamReader} over a SECRAM file, so that the tools reading SAM/BAM
+ * files can read SECRAM files without converting them first. The reads are
+ * reconstructed on a background thread as the iterators are consumed, and the
+ * queries go through the SECRAM index.
+ * <p>
+ * SECRAM files only store the mapped reads, so {@link #queryUnmapped()} is
+ * always empty, and they have no BAM index, so {@link #indexing()} only
+ * reports that there is no browseable index.
+ * 
+ * @author zhihuang
+ *
+ */
+public class SECRAMSamReader implements SamReader, SamReader.Indexing {
+	private static final List<SAMRecord> END_OF_READS = Collections
+			.emptyList();
+
+	private SECRAMFileReader reader;
+	private String description;
+	private List<ReconstructedReadIterator> iterators = new ArrayList<ReconstructedReadIterator>();
+
+	/**
+	 * Open a SECRAM file, with its reference file and its decryption key.
+	 */
+	public SECRAMSamReader(String input, String referenceInput, byte[] key)
+			throws IOException {
+		this.reader = new SECRAMFileReader(input, referenceInput, key);
+		this.description = new File(input).getAbsolutePath();
+	}
+
+	@Override
+	public SAMFileHeader getFileHeader() {
+		return reader.getSAMFileHeader();
+	}
+
+	/**
+	 * @return Null, since SECRAM is not one of the types known to htsjdk.
+	 */
+	@Override
+	public Type type() {
+		return null;
+	}
+
+	@Override
+	public String getResourceDescription() {
+		return description;
+	}
+
+	@Override
+	public boolean hasIndex() {
+		return true;
+	}
+
+	@Override
+	public Indexing indexing() {
+		return this;
+	}
+
+	@Override
+	public SAMRecordIterator iterator() {
+		return open((output) -> Secram2Bam.convertAll(reader, output));
+	}
+
+	@Override
+	public SAMRecordIterator query(String sequence, int start, int end,
+			boolean contained) {
+		int referenceIndex = getFileHeader().getSequenceIndex(sequence);
+		if (referenceIndex < 0)
+			return open((output) -> {
+			});
+		return query(new QueryInterval[] { new QueryInterval(referenceIndex,
+				start, end) }, contained);
+	}
+
+	@Override
+	public SAMRecordIterator queryOverlapping(String sequence, int start,
+			int end) {
+		return query(sequence, start, end, false);
+	}
+
+	@Override
+	public SAMRecordIterator queryContained(String sequence, int start, int end) {
+		return query(sequence, start, end, true);
+	}
+
+	@Override
+	public SAMRecordIterator query(QueryInterval[] intervals, boolean contained) {
+		QueryInterval[] optimized = QueryInterval.optimizeIntervals(intervals);
+		if (!contained)
+			return open((output) -> Secram2Bam.convertRegions(reader,
+					Arrays.asList(optimized), true, output));
+		// the contained reads start in the intervals, which are disjoint
+		return open((output) -> {
+			for (QueryInterval interval : optimized)
+				Secram2Bam.convertRegions(reader,
+						Collections.singletonList(interval), false, (read) -> {
+							if (interval.end <= 0
+									|| read.getAlignmentEnd() <= interval.end)
+								output.accept(read);
+						});
+		});
+	}
+
+	@Override
+	public SAMRecordIterator queryOverlapping(QueryInterval[] intervals) {
+		return query(intervals, false);
+	}
+
+	@Override
+	public SAMRecordIterator queryContained(QueryInterval[] intervals) {
+		return query(intervals, true);
+	}
+
+	@Override
+	public SAMRecordIterator queryUnmapped() {
+		return open((output) -> {
+		});
+	}
+
+	@Override
+	public SAMRecordIterator queryAlignmentStart(String sequence, int start) {
+		int referenceIndex = getFileHeader().getSequenceIndex(sequence);
+		if (referenceIndex < 0)
+			return open((output) -> {
+			});
+		return open((output) -> Secram2Bam.convertRegions(reader,
+				Collections.singletonList(new QueryInterval(referenceIndex,
+						start, start)), false, output));
+	}
+
+	/**
+	 * Find the mate of a paired read, with the same semantics as the readers
+	 * of htsjdk.
+	 */
+	@Override
+	public SAMRecord queryMate(SAMRecord rec) {
+		if (!rec.getReadPairedFlag())
+			throw new IllegalArgumentException(
+					"queryMate called for unpaired read.");
+		if (rec.getFirstOfPairFlag() == rec.getSecondOfPairFlag())
+			throw new IllegalArgumentException(
+					"SAMRecord must be either first and second of pair, but not both.");
+		boolean firstOfPair = rec.getFirstOfPairFlag();
+		SAMRecord mate = null;
+		try (SAMRecordIterator it = rec.getMateReferenceIndex() == -1 ? queryUnmapped()
+				: queryAlignmentStart(rec.getMateReferenceName(),
+						rec.getMateAlignmentStart())) {
+			while (it.hasNext()) {
+				SAMRecord next = it.next();
+				if (!next.getReadPairedFlag()) {
+					if (rec.getReadName().equals(next.getReadName()))
+						throw new SAMFormatException(
+								"Paired and unpaired reads with same name: "
+										+ rec.getReadName());
+					continue;
+				}
+				if ((firstOfPair ? next.getFirstOfPairFlag() : next
+						.getSecondOfPairFlag())
+						|| next.getNotPrimaryAlignmentFlag()
+						|| next.getSupplementaryAlignmentFlag()
+						|| !rec.getReadName().equals(next.getReadName()))
+					continue;
+				if (mate != null)
+					throw new SAMFormatException("Multiple SAMRecord with read name "
+							+ rec.getReadName() + " for "
+							+ (firstOfPair ? "second" : "first") + " end.");
+				mate = next;
+			}
+		}
+		return mate;
+	}
+
+	/**
+	 * Close the open iterators and the SECRAM file.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (iterators) {
+			for (ReconstructedReadIterator it : iterators)
+				it.close();
+			iterators.clear();
+		}
+		reader.close();
+	}
+
+	@Override
+	public BAMIndex getIndex() {
+		throw new UnsupportedOperationException(
+				"A SECRAM file has no BAM index");
+	}
+
+	@Override
+	public boolean hasBrowseableIndex() {
+		return false;
+	}
+
+	@Override
+	public BrowseableBAMIndex getBrowseableIndex() {
+		throw new UnsupportedOperationException(
+				"A SECRAM file has no BAM index");
+	}
+
+	@Override
+	public SAMRecordIterator iterator(SAMFileSpan chunks) {
+		throw new UnsupportedOperationException(
+				"A SECRAM file has no BAM index");
+	}
+
+	@Override
+	public SAMFileSpan getFilePointerSpanningReads() {
+		throw new UnsupportedOperationException(
+				"A SECRAM file has no BAM index");
+	}
+
+	private SAMRecordIterator open(Reconstruction reconstruction) {
+		ReconstructedReadIterator it = new ReconstructedReadIterator(
+				reconstruction);
+		synchronized (iterators) {
+			iterators.add(it);
+		}
+		return new SamReader.AssertingIterator(it);
+	}
+
+	/**
+	 * Reconstruction of some reads of the file.
+	 */
+	private interface Reconstruction {
+		void run(Consumer<SAMRecord> output) throws IOException;
+	}
+
+	/**
+	 * Iterator over reads reconstructed on a background thread, which hands
+	 * them over in batches through a bounded queue. The thread is not
+	 * interrupted, which would close the channel of the SECRAM file shared by
+	 * all the iterators, but stops at its next batch.
+	 */
+	private class ReconstructedReadIterator implements
+			CloseableIterator<SAMRecord> {
+		/**
+		 * Number of reads handed over in a batch.
+		 */
+		private static final int BATCH_SIZE = 1024;
+
+		private BlockingQueue<List<SAMRecord>> reads = new ArrayBlockingQueue<List<SAMRecord>>(
+				4);
+		private Thread producer;
+		private volatile boolean closed = false;
+		private volatile Exception failure;
+		private boolean finished = false;
+
+		private List<SAMRecord> pending = new ArrayList<SAMRecord>(BATCH_SIZE);
+		private List<SAMRecord> batch = Collections.emptyList();
+		private int batchIndex = 0;
+
+		ReconstructedReadIterator(Reconstruction reconstruction) {
+			producer = new Thread(() -> reconstruct(reconstruction),
+					"secram-read-reconstruction");
+			producer.setDaemon(true);
+			producer.start();
+		}
+
+		private void reconstruct(Reconstruction reconstruction) {
+			try {
+				reconstruction.run((read) -> {
+					pending.add(read);
+					if (pending.size() >= BATCH_SIZE)
+						handOver();
+				});
+				handOver();
+			} catch (CancellationException e) {
+				// the iterator has been closed
+				return;
+			} catch (Exception e) {
+				failure = e;
+			}
+			try {
+				while (!closed
+						&& !reads.offer(END_OF_READS, 100,
+								TimeUnit.MILLISECONDS))
+					;
+			} catch (InterruptedException e) {
+				// the iterator has been closed
+			}
+		}
+
+		private void handOver() {
+			if (pending.isEmpty())
+				return;
+			try {
+				do {
+					if (closed)
+						throw new CancellationException();
+				} while (!reads.offer(pending, 100, TimeUnit.MILLISECONDS));
+			} catch (InterruptedException e) {
+				throw new CancellationException();
+			}
+			pending = new ArrayList<SAMRecord>(BATCH_SIZE);
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (batchIndex < batch.size())
+				return true;
+			if (finished)
+				return false;
+			try {
+				batch = reads.take();
+				batchIndex = 0;
+				if (batch == END_OF_READS) {
+					close();
+					if (failure != null)
+						throw new RuntimeException(failure);
+					return false;
+				}
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public SAMRecord next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return batch.get(batchIndex++);
+		}
+
+		/**
+		 * Stop the reconstruction of the reads.
+		 */
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				synchronized (iterators) {
+					iterators.remove(this);
+				}
+			}
+			finished = true;
+			reads.clear();
+			batch = END_OF_READS;
+			batchIndex = 0;
+		}
+	}
+}
@@ -31,24 +31,55 @@
  */
 package com.sg.secram.impl.converters;
 
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.BAMIndexer;
 import htsjdk.samtools.BAMRecord;
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.BamFileIoUtils;
 import htsjdk.samtools.DefaultSAMRecordFactory;
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
 import htsjdk.samtools.util.Log;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 import com.sg.secram.impl.SECRAMFileReader;
 import com.sg.secram.impl.SECRAMIterator;
+import com.sg.secram.impl.SecramIndex;
+import com.sg.secram.impl.records.PosCigar;
 import com.sg.secram.impl.records.PosCigarFeature;
 import com.sg.secram.impl.records.ReadHeader;
 import com.sg.secram.impl.records.SecramRecord;
+import com.sg.secram.structure.SecramContainer;
 import com.sg.secram.util.SECRAMUtils;
 import com.sg.secram.util.Timings;
 
@@ -62,15 +93,31 @@ public class Secram2Bam {
 
 	private static Log log = Log.getInstance(Secram2Bam.class);
 
+	/**
+	 * Number of containers decoded ahead of the conversion, so that reading,
+	 * decryption and decompression overlap with the inverse transposition.
+	 */
+	private static final int PREFETCH_CONTAINERS = Runtime.getRuntime()
+			.availableProcessors() + 1;
+
+	private static final byte[] BAM_MAGIC = "BAM\1".getBytes();
+
 	private SAMFileHeader mSAMFileHeader;
 
+	/**
+	 * Number of BAM records created so far, which ranks the records with the
+	 * same alignment start.
+	 */
+	private long nofCreatedReads = 0;
+
 	public Secram2Bam(SAMFileHeader samFileHeader) throws IOException {
 		mSAMFileHeader = samFileHeader;
 	}
 
 	/**
 	 * Reads the input file in the SECRAM format and saves it to the output file
-	 * in the BAM format, using the key for decryption.
+	 * in the BAM format, using the key for decryption. The BAI index of the
+	 * output is written along with it.
 	 * 
 	 * @param input
 	 *            The SECRAM file to read from
@@ -84,52 +131,35 @@ public class Secram2Bam {
 	 */
 	public static void convertFile(File input, File output, String refFileName,
 			byte[] key) throws IOException {
+		convertFile(input, output, refFileName, key, true);
+	}
+
+	/**
+	 * Reads the input file in the SECRAM format and saves it to the output file
+	 * in the BAM format, using the key for decryption. The BAM records are
+	 * encoded and compressed on a background thread.
+	 * 
+	 * @param createIndex
+	 *            Whether to build the BAI index of the output in the same pass
+	 *            (only if the header declares the coordinate order)
+	 * @see #convertFile(File, File, String, byte[])
+	 */
+	public static void convertFile(File input, File output, String refFileName,
+			byte[] key, boolean createIndex) throws IOException {
 
 		SECRAMFileReader reader = new SECRAMFileReader(input.getAbsolutePath(),
 				refFileName, key);
-		SAMFileWriter bamWriter = new SAMFileWriterFactory().makeBAMWriter(
-				reader.getSAMFileHeader(), true, output);
+		SAMFileWriter bamWriter = new SAMFileWriterFactory()
+				.setCreateIndex(createIndex).setUseAsyncIo(true)
+				.makeBAMWriter(reader.getSAMFileHeader(), true, output);
 
 		long startTime = System.currentTimeMillis();
 
-		Secram2Bam converter = new Secram2Bam(reader.getSAMFileHeader());
-
-		LinkedList<BAMRecordBuilder> incompleteReads = new LinkedList<BAMRecordBuilder>();
 		try {
-			SECRAMIterator secramIterator = reader.getCompleteIterator();
-			while (secramIterator.hasNext()) {
-				SecramRecord record = secramIterator.next();
-				int oneBasedPosition = record.mPosition + 1;
-
-				long nanoStart = System.nanoTime();
-				converter.addSECRAMRecordToIncompleteBAMRecords(record,
-						incompleteReads);
-				Timings.invTransposition += System.nanoTime() - nanoStart;
-
-				// Adds complete reads to the BAM file.
-				// Sometimes even if a BAM read is complete, we must wait for
-				// any potential read that starts before this read but is longer
-				// before writing it to the BAM file. Hence we stop the "while"
-				// loop when we see a read whose end is
-				// bigger than "oneBasedPosition", even though there could be
-				// subsequent reads whose ends are not
-				// bigger than "oneBasedPosition".
-				while (!incompleteReads.isEmpty()
-						&& incompleteReads.getFirst().getAlignmentEnd() <= oneBasedPosition) {
-					bamWriter.addAlignment(incompleteReads.removeFirst()
-							.close());
-				}
-			}
+			convertAll(reader, bamWriter::addAlignment);
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
-			// there shouldn't be any incomplete records left!
-			if (incompleteReads.size() > 0) {
-				log.error(incompleteReads.size() + " incomplete read(s)!");
-				for (BAMRecordBuilder record : incompleteReads) {
-					bamWriter.addAlignment(record.close());
-				}
-			}
 			bamWriter.close();
 			long totalTime = System.currentTimeMillis() - startTime;
 			System.out.println("Total time elapsed: "
@@ -137,6 +167,472 @@ public class Secram2Bam {
 		}
 	}
 
+	/**
+	 * Reconstruct all the reads of a SECRAM file, in the order of the file.
+	 * 
+	 * @param reader
+	 *            The SECRAM file to read from
+	 * @param output
+	 *            Consumer of the reads
+	 */
+	static void convertAll(SECRAMFileReader reader,
+			Consumer<? super SAMRecord> output) throws IOException {
+		SECRAMIterator secramIterator = reader
+				.getCompleteIterator(PREFETCH_CONTAINERS);
+		try {
+			new Secram2Bam(reader.getSAMFileHeader()).convertRecords(
+					secramIterator, (index, record) -> 0, true, false,
+					output::accept);
+		} finally {
+			secramIterator.close();
+		}
+	}
+
+	/**
+	 * Reads the input file in the SECRAM format and saves it to the output
+	 * file in the BAM format, converting shards of consecutive containers on
+	 * several threads. Each shard is compressed in its own BGZF blocks, and
+	 * the shards are concatenated after the BAM header.
+	 * 
+	 * @param input
+	 *            The SECRAM file to read from
+	 * @param output
+	 *            The new BAM file to create
+	 * @param refFileName
+	 *            Path of the reference file
+	 * @param key
+	 * @param threads
+	 *            Number of shards converted concurrently
+	 * @param createIndex
+	 *            Whether to write a BAI index next to the output
+	 * @throws IOException
+	 *             If an {@link IOException} occurs during the operation
+	 */
+	public static void convertFileInParallel(File input, File output,
+			String refFileName, byte[] key, int threads, boolean createIndex)
+			throws IOException {
+		long startTime = System.currentTimeMillis();
+
+		SECRAMFileReader reader = new SECRAMFileReader(input.getAbsolutePath(),
+				refFileName, key);
+		SAMFileHeader samFileHeader = reader.getSAMFileHeader();
+		List<SecramContainer> containers = reader.getContainerHeaders();
+
+		// split the containers in one shard per thread
+		int nofShards = Math.max(1, Math.min(threads, containers.size()));
+		List<File> shardFiles = new ArrayList<File>();
+		List<Future<?>> shards = new ArrayList<Future<?>>();
+		ExecutorService executor = Executors.newFixedThreadPool(nofShards);
+		try {
+			for (int i = 0; i < nofShards; i++) {
+				int first = containers.size() * i / nofShards;
+				int last = containers.size() * (i + 1) / nofShards;
+				File shardFile = File.createTempFile(output.getName() + ".",
+						".shard", output.getAbsoluteFile().getParentFile());
+				shardFile.deleteOnExit();
+				shardFiles.add(shardFile);
+				shards.add(executor.submit(() -> {
+					convertShard(reader, containers, first, last, shardFile);
+					return null;
+				}));
+			}
+			for (Future<?> shard : shards)
+				shard.get();
+
+			try (FileOutputStream os = new FileOutputStream(output);
+					FileChannel outputChannel = os.getChannel()) {
+				BlockCompressedOutputStream headerStream = new BlockCompressedOutputStream(
+						os, output);
+				writeBAMHeader(samFileHeader, headerStream);
+				headerStream.flush();
+				for (File shardFile : shardFiles) {
+					try (FileChannel shardChannel = FileChannel.open(
+							shardFile.toPath(), StandardOpenOption.READ)) {
+						long position = 0, size = shardChannel.size();
+						while (position < size)
+							position += shardChannel.transferTo(position, size
+									- position, outputChannel);
+					}
+				}
+				os.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdownNow();
+			for (File shardFile : shardFiles)
+				shardFile.delete();
+			reader.close();
+		}
+
+		if (createIndex) {
+			String name = output.getName();
+			if (name.endsWith(BamFileIoUtils.BAM_FILE_EXTENSION))
+				name = name.substring(0, name.length()
+						- BamFileIoUtils.BAM_FILE_EXTENSION.length());
+			File indexFile = new File(output.getAbsoluteFile().getParentFile(),
+					name + BAMIndex.BAMIndexSuffix);
+			indexFile.delete();
+			try (SamReader bamReader = SamReaderFactory.makeDefault()
+					.validationStringency(ValidationStringency.SILENT)
+					.enable(SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS)
+					.open(output)) {
+				BAMIndexer.createIndex(bamReader, indexFile);
+			}
+		}
+
+		long totalTime = System.currentTimeMillis() - startTime;
+		System.out.println("Total time elapsed: "
+				+ SECRAMUtils.timeString(totalTime));
+	}
+
+	/**
+	 * Reads the reads starting in some intervals of a SECRAM file, and adds
+	 * them to a SAM or BAM writer in coordinate order. Each interval is
+	 * queried from a few containers before its start, to know the coverage
+	 * order of the reads starting in it, and up to the end of its reference,
+	 * to complete the reads overlapping its end.
+	 * 
+	 * @param reader
+	 *            The SECRAM file to read from
+	 * @param intervals
+	 *            The intervals, whose reads are written once even if they
+	 *            overlap
+	 * @param writer
+	 *            Writer of the reads, which is not closed
+	 * @throws IOException
+	 *             If an {@link IOException} occurs during the operation
+	 */
+	public static void convertRegions(SECRAMFileReader reader,
+			List<QueryInterval> intervals, SAMFileWriter writer)
+			throws IOException {
+		convertRegions(reader, intervals, false, writer::addAlignment);
+	}
+
+	/**
+	 * Get the reads overlapping some intervals of a SECRAM file, in
+	 * coordinate order.
+	 * 
+	 * @see #convertRegions(SECRAMFileReader, List, boolean, Consumer)
+	 */
+	public static List<SAMRecord> queryOverlapping(SECRAMFileReader reader,
+			QueryInterval... intervals) throws IOException {
+		List<SAMRecord> reads = new ArrayList<SAMRecord>();
+		convertRegions(reader, Arrays.asList(intervals), true, reads::add);
+		return reads;
+	}
+
+	/**
+	 * Reads the reads starting in, or overlapping, some intervals of a SECRAM
+	 * file, in coordinate order. The index records for each container how
+	 * many containers before it hold reads overlapping its first position:
+	 * the reads overlapping an interval start in these containers or after,
+	 * and they are output from the reads still active at its first position.
+	 * 
+	 * @param reader
+	 *            The SECRAM file to read from
+	 * @param intervals
+	 *            The intervals, whose reads are output once even if they
+	 *            overlap
+	 * @param overlapping
+	 *            Whether to output the reads overlapping the intervals, or
+	 *            only the reads starting in them
+	 * @param output
+	 *            Consumer of the reads
+	 * @throws IOException
+	 *             If an {@link IOException} occurs during the operation
+	 */
+	public static void convertRegions(SECRAMFileReader reader,
+			List<QueryInterval> intervals, boolean overlapping,
+			Consumer<? super SAMRecord> output) throws IOException {
+		SAMFileHeader samFileHeader = reader.getSAMFileHeader();
+		long previousEnd = -1;
+		for (QueryInterval interval : QueryInterval
+				.optimizeIntervals(intervals.toArray(new QueryInterval[0]))) {
+			int refLength = samFileHeader.getSequence(interval.referenceIndex)
+					.getSequenceLength();
+			int end = interval.end <= 0 ? refLength : Math.min(interval.end,
+					refLength);
+			long absStart = SECRAMUtils.getAbsolutePosition(
+					Math.max(interval.start, 1) - 1, interval.referenceIndex);
+			long absEnd = SECRAMUtils.getAbsolutePosition(end - 1,
+					interval.referenceIndex);
+			long absRefEnd = SECRAMUtils.getAbsolutePosition(refLength - 1,
+					interval.referenceIndex);
+			if (absEnd < absStart)
+				continue;
+
+			RecordRange range = (index, record) -> record.getAbsolutePosition() < absStart ? -1
+					: record.getAbsolutePosition() <= absEnd ? 0 : 1;
+			// the reads overlapping the previous interval are already output
+			int intervalStart = interval.start;
+			long outputStart = previousEnd + 1;
+			Consumer<BAMRecord> intervalOutput = overlapping ? read -> {
+				if (read.getAlignmentEnd() >= intervalStart
+						&& SECRAMUtils.getAbsolutePosition(
+								read.getAlignmentStart() - 1,
+								read.getReferenceIndex()) >= outputStart)
+					output.accept(read);
+			} : output::accept;
+			previousEnd = absEnd;
+
+			// the lookback is doubled if the index does not record it
+			long encStart = reader.encryptPosition(absStart);
+			int lookback = getLookback(reader, encStart, overlapping);
+			if (lookback == SecramIndex.UNKNOWN_LOOKBACK)
+				lookback = 1;
+			for (;; lookback = Math.max(1, 2 * lookback)) {
+				Long queryStart = reader.getContainerStart(encStart, lookback);
+				if (null == queryStart)
+					return;
+				boolean fileStart = queryStart.equals(reader.getContainerStart(
+						queryStart, 1));
+				SECRAMIterator secramIterator = reader.query(queryStart,
+						reader.encryptPosition(absRefEnd));
+				boolean complete;
+				try {
+					complete = new Secram2Bam(samFileHeader).convertRecords(
+							secramIterator, range, fileStart, overlapping,
+							intervalOutput);
+				} finally {
+					secramIterator.close();
+				}
+				if (complete)
+					break;
+				log.debug("Extend the lookback of interval " + interval
+						+ " from " + lookback + " container(s)");
+			}
+		}
+	}
+
+	/**
+	 * Get the number of containers to read before the one which contains a
+	 * position, to reconstruct the reads overlapping the position or, if they
+	 * are output too, the reads overlapping the start of the first of them.
+	 * 
+	 * @param position
+	 *            The encrypted absolute position
+	 * @return The number of containers, or
+	 *         {@link SecramIndex#UNKNOWN_LOOKBACK} if the index does not
+	 *         record it.
+	 */
+	private static int getLookback(SECRAMFileReader reader, long position,
+			boolean overlapping) {
+		int lookback = reader.getLookback(position);
+		if (!overlapping || lookback == SecramIndex.UNKNOWN_LOOKBACK)
+			return lookback;
+		Long start = reader.getContainerStart(position, lookback);
+		int previousLookback = null == start ? 0 : reader.getLookback(start);
+		if (previousLookback == SecramIndex.UNKNOWN_LOOKBACK)
+			return previousLookback;
+		return lookback + previousLookback;
+	}
+
+	/**
+	 * Convert the reads starting in a range of containers to BGZF blocks,
+	 * without the BAM header and the terminating block. The reads overlapping
+	 * the first position of the range are reconstructed from the previous
+	 * containers, to know the coverage order of the reads in the range. The
+	 * index records how many containers hold these reads; if it does not, the
+	 * lookback is doubled until no read starting before it remains.
+	 */
+	private static void convertShard(SECRAMFileReader reader,
+			List<SecramContainer> containers, int first, int last, File output)
+			throws IOException {
+		long nofRecords = 0;
+		for (int i = first; i < last; i++)
+			nofRecords += containers.get(i).nofRecords;
+
+		int lookback = first == 0 ? 0 : reader.getLookback(containers
+				.get(first).absolutePosStart);
+		if (lookback == SecramIndex.UNKNOWN_LOOKBACK)
+			lookback = 1;
+		for (;; lookback = Math.max(1, 2 * lookback)) {
+			lookback = Math.min(lookback, first);
+			long records = 0;
+			for (int i = first - lookback; i < first; i++)
+				records += containers.get(i).nofRecords;
+			long lookbackRecords = records, endRecords = records + nofRecords;
+			RecordRange range = (index, record) -> index < lookbackRecords ? -1
+					: index < endRecords ? 0 : 1;
+
+			boolean complete;
+			SECRAMIterator secramIterator = reader.getIterator(containers
+					.get(first - lookback).offset, 0);
+			try (FileOutputStream os = new FileOutputStream(output)) {
+				BlockCompressedOutputStream bgzfStream = new BlockCompressedOutputStream(
+						os, output);
+				BAMRecordCodec codec = new BAMRecordCodec(
+						reader.getSAMFileHeader());
+				codec.setOutputStream(bgzfStream, output.getName());
+				complete = new Secram2Bam(reader.getSAMFileHeader())
+						.convertRecords(secramIterator, range, lookback == first,
+								false, codec::encode);
+				// flush the last block, without the terminating block
+				bgzfStream.flush();
+			} finally {
+				secramIterator.close();
+			}
+			if (complete)
+				return;
+			log.debug("Extend the lookback of containers " + first + "-"
+					+ last + " from " + lookback + " container(s)");
+		}
+	}
+
+	/**
+	 * Write the header of a BAM file: the magic number, the text header and
+	 * the sequence dictionary.
+	 */
+	private static void writeBAMHeader(SAMFileHeader samFileHeader,
+			OutputStream os) {
+		StringWriter headerText = new StringWriter();
+		new SAMTextHeaderCodec().encode(headerText, samFileHeader);
+
+		BinaryCodec codec = new BinaryCodec(os);
+		codec.writeBytes(BAM_MAGIC);
+		codec.writeString(headerText.toString(), true, false);
+		codec.writeInt(samFileHeader.getSequenceDictionary().size());
+		for (SAMSequenceRecord sequence : samFileHeader.getSequenceDictionary()
+				.getSequences()) {
+			codec.writeString(sequence.getSequenceName(), true, true);
+			codec.writeInt(sequence.getSequenceLength());
+		}
+	}
+
+	/**
+	 * Location of the SECRAM records relative to the range of positions whose
+	 * reads are output.
+	 */
+	private interface RecordRange {
+		/**
+		 * @param index
+		 *            Index of the record in the converted records
+		 * @return -1 if the record is before the range: its reads are only
+		 *         reconstructed to know the coverage order of the next reads;
+		 *         0 if it is in the range; 1 if it is after the range: it only
+		 *         completes the reads of the range.
+		 */
+		int locate(long index, SecramRecord record);
+	}
+
+	/**
+	 * Reconstruct the BAM records from consecutive SECRAM records, and output
+	 * them in the order of a BAM file, optionally with the reads still active
+	 * at the first output position. These reads are only complete if they
+	 * start once all the reads overlapping a position are known: otherwise,
+	 * or if they are not all known at the first output position, more
+	 * lookback is needed.
+	 * 
+	 * @param records
+	 *            The SECRAM records
+	 * @param range
+	 *            Location of the records whose reads are output
+	 * @param fileStart
+	 *            Whether the records start at the first container of the
+	 *            file: the reads starting before it, e.g., before an extracted
+	 *            range, are not in the file, and no more lookback is possible
+	 * @param outputActiveReads
+	 *            Whether to output the reads active at the first output
+	 *            position, or only the reads starting in the range
+	 * @param output
+	 *            Consumer of the complete BAM records
+	 * @return False if more lookback is needed.
+	 */
+	private boolean convertRecords(Iterator<SecramRecord> records,
+			RecordRange range, boolean fileStart, boolean outputActiveReads,
+			Consumer<BAMRecord> output) {
+		// the reads overlapping the current position, in coverage order, and
+		// the complete reads waiting for the reads that start before them
+		ArrayList<BAMRecordBuilder> activeReads = new ArrayList<BAMRecordBuilder>();
+		PriorityQueue<BAMRecordBuilder> completeReads = new PriorityQueue<BAMRecordBuilder>(
+				BAMRecordBuilder.ORDER);
+		// ordinal of the first read to output, and of the first read created
+		// once all the reads overlapping a position are known
+		long firstOrdinal = Long.MAX_VALUE;
+		long knownOrdinal = -1;
+		boolean started = false;
+
+		for (long index = 0; records.hasNext(); index++) {
+			SecramRecord record = records.next();
+			if (null == record)
+				break;
+			int location = range.locate(index, record);
+			if (location > 0 && activeReads.isEmpty())
+				break;
+			boolean allKnown = activeReads.size() + record.mReadHeaders.size() == record.mPosCigar.mCoverage;
+			if (allKnown && knownOrdinal < 0)
+				knownOrdinal = nofCreatedReads;
+			if (!started && (location == 0 || location > 0 && outputActiveReads)) {
+				if (index > 0 && !allKnown && !fileStart)
+					return false;
+				started = true;
+				firstOrdinal = nofCreatedReads;
+				if (outputActiveReads)
+					for (BAMRecordBuilder builder : activeReads) {
+						// at the start of the file, skip the reads created
+						// while some reads before them were unknown
+						if (knownOrdinal < 0
+								|| builder.getOrdinal() < knownOrdinal) {
+							if (!fileStart)
+								return false;
+							continue;
+						}
+						firstOrdinal = Math.min(firstOrdinal,
+								builder.getOrdinal());
+					}
+			}
+
+			long nanoStart = System.nanoTime();
+			addSECRAMRecordToIncompleteBAMRecords(record, activeReads,
+					location <= 0);
+			moveCompleteReads(activeReads, completeReads);
+			Timings.invTransposition.add(System.nanoTime() - nanoStart);
+
+			// Adds complete reads to the BAM file. Even if a BAM read is
+			// complete, we must wait for any read that starts before it
+			// but is longer before writing it to the BAM file.
+			while (!completeReads.isEmpty()
+					&& (activeReads.isEmpty() || BAMRecordBuilder.ORDER
+							.compare(completeReads.peek(),
+									activeReads.get(0)) < 0)) {
+				BAMRecordBuilder builder = completeReads.poll();
+				if (builder.getOrdinal() >= firstOrdinal)
+					output.accept(builder.close());
+			}
+		}
+
+		if (started) {
+			// there shouldn't be any incomplete records left!
+			if (activeReads.size() > 0) {
+				log.error(activeReads.size() + " incomplete read(s)!");
+				completeReads.addAll(activeReads);
+			}
+			while (!completeReads.isEmpty()) {
+				BAMRecordBuilder builder = completeReads.poll();
+				if (builder.getOrdinal() >= firstOrdinal)
+					output.accept(builder.close());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Move the complete reads to a queue, keeping the order of the others.
+	 */
+	private static void moveCompleteReads(List<BAMRecordBuilder> activeReads,
+			Queue<BAMRecordBuilder> completeReads) {
+		int n = 0;
+		for (int i = 0; i < activeReads.size(); i++) {
+			BAMRecordBuilder builder = activeReads.get(i);
+			if (builder.isComplete())
+				completeReads.add(builder);
+			else
+				activeReads.set(n++, builder);
+		}
+		activeReads.subList(n, activeReads.size()).clear();
+	}
+
 	public List<BAMRecord> completeBAMRecordsWithException(
 			List<BAMRecordBuilder> incompleteReads) {
 		List<BAMRecord> completeReads = new ArrayList<BAMRecord>();
@@ -189,11 +685,21 @@ public class Secram2Bam {
 	 */
 	public void addSECRAMRecordToIncompleteBAMRecords(SecramRecord record,
 			List<BAMRecordBuilder> incompleteReads) {
+		addSECRAMRecordToIncompleteBAMRecords(record, incompleteReads, true);
+	}
+
+	/**
+	 * Add information of the next position (secram record) to the list of
+	 * current BAM reads, and optionally start the reads of the position.
+	 */
+	private void addSECRAMRecordToIncompleteBAMRecords(SecramRecord record,
+			List<BAMRecordBuilder> incompleteReads, boolean newReads) {
 		int refIndex = record.mReferenceIndex;
 		int position = record.mPosition;
 		int alignmentStart = position + 1;
 
-		for (ReadHeader header : record.mReadHeaders) {
+		for (ReadHeader header : newReads ? record.mReadHeaders : Collections
+				.<ReadHeader> emptyList()) {
 			BAMRecord bamRecord = DefaultSAMRecordFactory.getInstance()
 					.createBAMRecord(mSAMFileHeader, refIndex, alignmentStart,
 							(short) 0,// readNameLen - we set it to 0 for now,
@@ -222,11 +728,14 @@ public class Secram2Bam {
 			int alignmentEnd = alignmentStart + header.mReferenceLength - 1;
 
 			incompleteReads.add(new BAMRecordBuilder(bamRecord, alignmentStart,
-					alignmentEnd));
+					alignmentEnd, nofCreatedReads++));
 		}
 
 		int scoreOffset = 0;
 		byte[] scores = record.mQualityScores;
+		PosCigar posCigar = record.mPosCigar;
+		char refBase = posCigar.getReferenceBase();
+		boolean allMatch = !posCigar.hasNonMatchFeatures();
 
 		int order = 0;
 
@@ -234,29 +743,34 @@ public class Secram2Bam {
 			if (builder.isComplete())
 				continue;
 
-			List<PosCigarFeature> features = record.mPosCigar
-					.getCompleteFeaturesOfRead(order);
-			String readStr = "";
-			for (PosCigarFeature f : features) {
-				switch (f.mOP) {
-				case M:
-				case X:
-				case F:
-				case I:
-				case R:
-				case S:
-					readStr += f.mBases;
-					break;
-				default:
+			// the features of the read, with the match of the reference base
+			// if there is no other feature on the position
+			List<PosCigarFeature> features = allMatch ? null : posCigar
+					.getNonMatchFeaturesOfRead(order);
+			int scoreLen = 0;
+			if (null == features) {
+				builder.addMatch(refBase, alignmentStart);
+				scoreLen = 1;
+			} else {
+				boolean matchPending = true;
+				for (PosCigarFeature f : features) {
+					if (matchPending && !f.mOP.isBeforePosition()) {
+						if (!f.mOP.consumesRef()) {
+							builder.addMatch(refBase, alignmentStart);
+							scoreLen++;
+						}
+						matchPending = false;
+					}
+					scoreLen += builder.addFeature(f, alignmentStart);
+				}
+				if (matchPending) {
+					builder.addMatch(refBase, alignmentStart);
+					scoreLen++;
 				}
-				builder.addElement(f, alignmentStart);
 			}
 
-			int scoreLen = readStr.length();
-
 			if (scoreLen > 0) {
 				builder.addScores(scores, scoreOffset, scoreLen, alignmentStart);
-				builder.addReadElement(readStr, alignmentStart);
 				scoreOffset += scoreLen;
 			}
 			builder.advance();
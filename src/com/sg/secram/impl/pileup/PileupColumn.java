@@ -0,0 +1,136 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.impl.pileup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The reads covering a position, in the coverage order of the SECRAM record
+ * of the position, with the counts of their bases and indels.
+ * 
+ * @author zhihuang
+ *
+ */
+public class PileupColumn {
+	private static final String BASES = "ACGTN";
+
+	private int referenceIndex;
+	private int position;
+	private char referenceBase;
+	private int coverage;
+	private List<PileupElement> elements = new ArrayList<PileupElement>();
+	private int[] baseCounts = new int[BASES.length()];
+	private int deletionCount = 0;
+	private int insertionCount = 0;
+
+	PileupColumn(int referenceIndex, int position, char referenceBase,
+			int coverage) {
+		this.referenceIndex = referenceIndex;
+		this.position = position;
+		this.referenceBase = referenceBase;
+		this.coverage = coverage;
+	}
+
+	void add(PileupElement element) {
+		elements.add(element);
+		if (element.isDeletion())
+			deletionCount++;
+		else if (element.getBase() != PileupElement.NO_BASE) {
+			int index = BASES.indexOf(Character.toUpperCase(element.getBase()));
+			baseCounts[index < 0 ? BASES.length() - 1 : index]++;
+		}
+		if (null != element.getInsertedBases())
+			insertionCount++;
+	}
+
+	public int getReferenceIndex() {
+		return referenceIndex;
+	}
+
+	/**
+	 * @return The 0-based position on the reference.
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+	public char getReferenceBase() {
+		return referenceBase;
+	}
+
+	/**
+	 * @return Number of reads overlapping the position, including the reads
+	 *         removed by the filters of the pileup.
+	 */
+	public int getCoverage() {
+		return coverage;
+	}
+
+	/**
+	 * @return The reads that passed the filters of the pileup.
+	 */
+	public List<PileupElement> getElements() {
+		return elements;
+	}
+
+	/**
+	 * @return Number of reads with a base (A, C, G, T, or N for any other
+	 *         base) on the position.
+	 */
+	public int getBaseCount(char base) {
+		int index = BASES.indexOf(Character.toUpperCase(base));
+		return baseCounts[index < 0 ? BASES.length() - 1 : index];
+	}
+
+	/**
+	 * @return Number of reads with a deletion on the position.
+	 */
+	public int getDeletionCount() {
+		return deletionCount;
+	}
+
+	/**
+	 * @return Number of reads with an insertion after the position.
+	 */
+	public int getInsertionCount() {
+		return insertionCount;
+	}
+
+	@Override
+	public String toString() {
+		return referenceIndex + ":" + (position + 1) + " " + referenceBase
+				+ " A=" + baseCounts[0] + " C=" + baseCounts[1] + " G="
+				+ baseCounts[2] + " T=" + baseCounts[3] + " N=" + baseCounts[4]
+				+ " del=" + deletionCount + " ins=" + insertionCount;
+	}
+}
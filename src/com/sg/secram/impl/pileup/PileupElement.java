@@ -0,0 +1,156 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.impl.pileup;
+
+import com.sg.secram.impl.records.ReadHeader;
+
+/**
+ * The base, or the deletion, of a read on a position of a
+ * {@link PileupColumn}, with the attributes of the read.
+ * 
+ * @author zhihuang
+ *
+ */
+public class PileupElement {
+	/**
+	 * Base of an element without base, i.e., a deletion or a skipped region.
+	 */
+	public static final char NO_BASE = '*';
+	/**
+	 * Quality of an element without base.
+	 */
+	public static final byte NO_QUALITY = -1;
+
+	private static final int NEGATIVE_STRAND_FLAG = 0x10;
+
+	private ReadHeader header;
+	private boolean readStart;
+	private char base = NO_BASE;
+	private byte quality = NO_QUALITY;
+	private boolean deletion = false;
+	private boolean refSkip = false;
+	private String insertedBases = null;
+
+	PileupElement(ReadHeader header, boolean readStart) {
+		this.header = header;
+		this.readStart = readStart;
+	}
+
+	void setBase(char base, byte quality) {
+		this.base = base;
+		this.quality = quality;
+	}
+
+	void setDeletion() {
+		this.deletion = true;
+	}
+
+	void setRefSkip() {
+		this.refSkip = true;
+	}
+
+	void addInsertedBases(String bases) {
+		insertedBases = null == insertedBases ? bases : insertedBases + bases;
+	}
+
+	/**
+	 * @return The header of the read, or null if the read starts before the
+	 *         first position of the pileup.
+	 */
+	public ReadHeader getReadHeader() {
+		return header;
+	}
+
+	/**
+	 * @return The mapping quality of the read, or -1 if it is unknown.
+	 */
+	public int getMappingQuality() {
+		return null == header ? -1 : header.mMappingQuality;
+	}
+
+	/**
+	 * @return The SAM flags of the read, or 0 if they are unknown.
+	 */
+	public int getFlags() {
+		return null == header ? 0 : header.mFlags;
+	}
+
+	/**
+	 * @return Whether the read is mapped on the reverse strand (false if it
+	 *         is unknown).
+	 */
+	public boolean isNegativeStrand() {
+		return (getFlags() & NEGATIVE_STRAND_FLAG) != 0;
+	}
+
+	/**
+	 * @return Whether the read starts on this position.
+	 */
+	public boolean isReadStart() {
+		return readStart;
+	}
+
+	/**
+	 * @return The base of the read on this position, or {@link #NO_BASE}.
+	 */
+	public char getBase() {
+		return base;
+	}
+
+	/**
+	 * @return The quality of the base, or {@link #NO_QUALITY}.
+	 */
+	public byte getQuality() {
+		return quality;
+	}
+
+	/**
+	 * @return Whether the position is deleted from the read.
+	 */
+	public boolean isDeletion() {
+		return deletion;
+	}
+
+	/**
+	 * @return Whether the read skips the position (e.g., an intron).
+	 */
+	public boolean isRefSkip() {
+		return refSkip;
+	}
+
+	/**
+	 * @return The bases inserted in the read after this position, or null.
+	 */
+	public String getInsertedBases() {
+		return insertedBases;
+	}
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.impl.pileup;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.sg.secram.impl.records.PosCigar;
+import com.sg.secram.impl.records.PosCigarFeature;
+import com.sg.secram.impl.records.ReadHeader;
+import com.sg.secram.impl.records.SecramRecord;
+
+/**
+ * Pileup of the reads directly over the SECRAM records, without
+ * reconstructing the reads: a SECRAM record already holds the bases and the
+ * quality scores of the reads covering its position, in coverage order. Only
+ * the headers of the reads overlapping the current position are kept, to
+ * report their attributes.
+ * <p>
+ * The records may start anywhere, e.g., from
+ * {@link com.sg.secram.impl.SECRAMFileReader#query(long, long)}: the reads
+ * starting before the first record come first in the coverage order, and
+ * their elements have no header.
+ * 
+ * @author zhihuang
+ *
+ */
+public class SECRAMPileupIterator implements Iterator<PileupColumn> {
+	private Iterator<SecramRecord> records;
+	private int minMappingQuality;
+	private int minBaseQuality;
+
+	/**
+	 * The reads starting on the records so far and overlapping the current
+	 * position, in coverage order.
+	 */
+	private List<ActiveRead> activeReads = new ArrayList<ActiveRead>();
+	private int referenceIndex = -1;
+	private SecramRecord nextRecord = null;
+
+	/**
+	 * Pileup of all the reads.
+	 */
+	public SECRAMPileupIterator(Iterator<SecramRecord> records) {
+		this(records, 0, 0);
+	}
+
+	/**
+	 * @param records
+	 *            The SECRAM records, in the order of a SECRAM file.
+	 * @param minMappingQuality
+	 *            Minimum mapping quality of the reads. If it is positive, the
+	 *            reads starting before the first record, whose mapping
+	 *            quality is unknown, are filtered out.
+	 * @param minBaseQuality
+	 *            Minimum quality of the bases. A base below it is filtered
+	 *            out along with the insertion after it, if any, while the
+	 *            deletions and skipped positions are not filtered.
+	 */
+	public SECRAMPileupIterator(Iterator<SecramRecord> records,
+			int minMappingQuality, int minBaseQuality) {
+		this.records = records;
+		this.minMappingQuality = minMappingQuality;
+		this.minBaseQuality = minBaseQuality;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (null == nextRecord && records.hasNext())
+			nextRecord = records.next();
+		return null != nextRecord;
+	}
+
+	@Override
+	public PileupColumn next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		SecramRecord record = nextRecord;
+		nextRecord = null;
+		return pileup(record);
+	}
+
+	private PileupColumn pileup(SecramRecord record) {
+		int position = record.mPosition;
+		if (record.mReferenceIndex != referenceIndex) {
+			activeReads.clear();
+			referenceIndex = record.mReferenceIndex;
+		}
+		// keep the order of the reads still overlapping the position, and
+		// append the reads starting on it
+		int n = 0;
+		for (ActiveRead read : activeReads)
+			if (read.alignmentEnd >= position)
+				activeReads.set(n++, read);
+		activeReads.subList(n, activeReads.size()).clear();
+		int firstNewRead = activeReads.size();
+		for (ReadHeader header : record.mReadHeaders)
+			activeReads.add(new ActiveRead(header, position
+					+ header.mReferenceLength - 1));
+
+		PosCigar posCigar = record.mPosCigar;
+		int coverage = posCigar.mCoverage;
+		// the reads starting before the first record come first
+		int unknownReads = coverage - activeReads.size();
+		if (unknownReads < 0)
+			throw new IllegalStateException("Coverage " + coverage
+					+ " of position " + record.getAbsolutePosition()
+					+ " is lower than its " + activeReads.size() + " reads");
+
+		char refBase = posCigar.getReferenceBase();
+		boolean allMatch = !posCigar.hasNonMatchFeatures();
+		byte[] scores = record.mQualityScores;
+		int scoreOffset = 0;
+		PileupColumn column = new PileupColumn(record.mReferenceIndex,
+				position, refBase, coverage);
+
+		for (int order = 0; order < coverage; order++) {
+			int readIndex = order - unknownReads;
+			PileupElement element = readIndex < 0 ? new PileupElement(null,
+					false) : new PileupElement(activeReads.get(readIndex).header,
+					readIndex >= firstNewRead);
+
+			// the bases of the read on the position come in the order of
+			// its features, with the match of the reference base before the
+			// first feature on or after the position, unless it consumes the
+			// reference
+			List<PosCigarFeature> features = allMatch ? null : posCigar
+					.getNonMatchFeaturesOfRead(order);
+			if (null == features)
+				element.setBase(refBase, scores[scoreOffset++]);
+			else {
+				boolean matchPending = true;
+				for (PosCigarFeature f : features) {
+					if (matchPending && !f.mOP.isBeforePosition()) {
+						if (!f.mOP.consumesRef())
+							element.setBase(refBase, scores[scoreOffset++]);
+						matchPending = false;
+					}
+					switch (f.mOP) {
+					case X:
+					case M:
+						element.setBase(f.mBases.charAt(0),
+								scores[scoreOffset]);
+						scoreOffset += f.mBases.length();
+						break;
+					case D:
+						element.setDeletion();
+						break;
+					case N:
+						element.setRefSkip();
+						break;
+					case I:
+						element.addInsertedBases(f.mBases);
+						scoreOffset += f.mBases.length();
+						break;
+					case F:
+					case R:
+					case S:
+						scoreOffset += f.mBases.length();
+						break;
+					default:
+					}
+				}
+				if (matchPending)
+					element.setBase(refBase, scores[scoreOffset++]);
+			}
+
+			if (minMappingQuality > 0
+					&& element.getMappingQuality() < minMappingQuality)
+				continue;
+			if (minBaseQuality > 0 && element.getBase() != PileupElement.NO_BASE
+					&& element.getQuality() < minBaseQuality)
+				continue;
+			column.add(element);
+		}
+		return column;
+	}
+
+	/**
+	 * A read overlapping the current position.
+	 */
+	private static class ActiveRead {
+		private ReadHeader header;
+		private int alignmentEnd;
+
+		ActiveRead(ReadHeader header, int alignmentEnd) {
+			this.header = header;
+			this.alignmentEnd = alignmentEnd;
+		}
+	}
+}
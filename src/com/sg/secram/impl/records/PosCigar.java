@@ -73,6 +73,10 @@ public class PosCigar {
 		mRefBase = base;
 	}
 
+	public char getReferenceBase() {
+		return mRefBase;
+	}
+
 	/**
 	 * Get the differences w.r.t the reference on this position.
 	 */
@@ -96,6 +100,13 @@ public class PosCigar {
 		mReadFeaturesMap.put(order, features);
 	}
 
+	/**
+	 * Whether any read differs from the reference on this position.
+	 */
+	public boolean hasNonMatchFeatures() {
+		return !mReadFeaturesMap.isEmpty();
+	}
+
 	public List<PosCigarFeature> getNonMatchFeaturesOfRead(int order) {
 		if (order >= mCoverage)
 			throw new IndexOutOfBoundsException("The coverage is only: "
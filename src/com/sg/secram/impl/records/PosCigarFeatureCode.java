@@ -69,6 +69,7 @@ public enum PosCigarFeatureCode {
 		len = hasLength;
 		bases = hasBases;
 		mConsumesRef = consumesRef;
+		bamOperator = CigarOperator.characterToEnum(bamCharacter);
 
 	}
 
@@ -78,6 +79,7 @@ public enum PosCigarFeatureCode {
 	private final boolean len;
 	private final boolean bases;
 	private final boolean mConsumesRef;
+	private final CigarOperator bamOperator;
 
 	// maintains a map from the character to the corresponding operator
 	private static HashMap<Character, PosCigarFeatureCode> c2op = new HashMap<Character, PosCigarFeatureCode>();
@@ -129,6 +131,21 @@ public enum PosCigarFeatureCode {
 		return bamChar;
 	}
 
+	/**
+	 * @return The operator of the BAM CIGAR element this feature belongs to.
+	 */
+	public CigarOperator getBAMOperator() {
+		return bamOperator;
+	}
+
+	/**
+	 * @return Whether the feature attaches before the position, i.e., at the
+	 *         start of a read.
+	 */
+	public boolean isBeforePosition() {
+		return this == F || this == R || this == G || this == O;
+	}
+
 	@Override
 	public String toString() {
 		if (this == M) {
@@ -50,6 +50,12 @@ public class ReadHeader {
 	public int mNextPosition = -1;
 	public byte[] mTags;
 
+	/**
+	 * Offset of the next absolute position from the (not encrypted) position
+	 * of the record, when it is stored in the sensitive field.
+	 */
+	public long nextPositionOffset;
+
 	/**
 	 * Construct an empty read header.
 	 */
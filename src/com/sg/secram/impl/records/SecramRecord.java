@@ -50,6 +50,15 @@ public class SecramRecord {
 	public int coverageDelta;
 	public int qualityLenDelta;
 
+	/**
+	 * Sensitive field of the record, when it is read but not decoded yet
+	 * (possibly still encrypted), and the position of the field in the
+	 * sensitive block of its container.
+	 */
+	public byte[] sensitiveField = null;
+	public long sensitiveFieldPosition;
+	public int numberOfFeatures;
+
 	/**
 	 * The base in the reference sequence at this position.
 	 */
@@ -123,7 +123,8 @@ public class SecramBlock {
 		InputStreamUtils.readFully(inputStream, block.compressedContent, 0,
 				block.compressedContent.length);
 
-		block.uncompress();
+		// the content is uncompressed lazily in getRawContent(), so that the
+		// decompression can be done by whichever thread decodes the container
 		return block;
 	}
 
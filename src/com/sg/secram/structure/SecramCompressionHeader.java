@@ -65,9 +65,6 @@ public class SecramCompressionHeader {
 
 	public List<Integer> externalIds;
 
-	private static final ByteBuffer mapBuffer = ByteBuffer
-			.allocate(1024 * 5000);
-
 	private static Log log = Log.getInstance(SecramCompressionHeader.class);
 
 	public byte[] toByteArray() {
@@ -95,24 +92,23 @@ public class SecramCompressionHeader {
 					size++;
 			}
 
-			// final ByteBuffer mapBuffer = ByteBuffer.allocate(1024 * 1000);
-			mapBuffer.clear();
-			ITF8.writeUnsignedITF8(size, mapBuffer);
+			// the map is serialized in a buffer local to this call, so that
+			// headers can be written concurrently
+			final ByteArrayOutputStream mapStream = new ByteArrayOutputStream();
+			ITF8.writeUnsignedITF8(size, mapStream);
 			for (final SecramEncodingKey encodingKey : encodingMap.keySet()) {
 				if (encodingMap.get(encodingKey).id == EncodingID.NULL)
 					continue;
 
-				mapBuffer.put((byte) encodingKey.name().charAt(0));
-				mapBuffer.put((byte) encodingKey.name().charAt(1));
+				mapStream.write((byte) encodingKey.name().charAt(0));
+				mapStream.write((byte) encodingKey.name().charAt(1));
 
 				final EncodingParams params = encodingMap.get(encodingKey);
-				mapBuffer.put((byte) (0xFF & params.id.ordinal()));
-				ITF8.writeUnsignedITF8(params.params.length, mapBuffer);
-				mapBuffer.put(params.params);
+				mapStream.write((byte) (0xFF & params.id.ordinal()));
+				ITF8.writeUnsignedITF8(params.params.length, mapStream);
+				mapStream.write(params.params);
 			}
-			mapBuffer.flip();
-			final byte[] mapBytes = new byte[mapBuffer.limit()];
-			mapBuffer.get(mapBytes);
+			final byte[] mapBytes = mapStream.toByteArray();
 
 			ITF8.writeUnsignedITF8(mapBytes.length, outputStream);
 			outputStream.write(mapBytes);
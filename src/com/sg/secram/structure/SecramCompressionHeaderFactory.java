@@ -60,12 +60,22 @@ import com.sg.secram.impl.records.SecramRecord;
  *
  */
 public class SecramCompressionHeaderFactory {
-	public static int SENSITIVE_FIELD_EXTERNAL_ID = 0;
+	public static final int SENSITIVE_FIELD_EXTERNAL_ID = 0;
 
 	/**
 	 * Build up the compression information for a list of SECRAM records (in a container)
 	 */
 	public SecramCompressionHeader build(List<SecramRecord> records) {
+		return build(records, false);
+	}
+
+	/**
+	 * Build up the compression information for a list of SECRAM records (in a container)
+	 * @param mateOffsets Whether the next positions are stored as offsets in the
+	 * sensitive field, in which case the next position series is not used.
+	 */
+	public SecramCompressionHeader build(List<SecramRecord> records,
+			boolean mateOffsets) {
 		final SecramCompressionHeader header = new SecramCompressionHeader();
 		header.externalIds = new ArrayList<Integer>();
 		int exCounter = SENSITIVE_FIELD_EXTERNAL_ID;
@@ -195,7 +205,7 @@ public class SecramCompressionHeaderFactory {
 					ExternalIntegerEncoding.toParam(templateLengthID));
 		}
 
-		{// next absolute position
+		if (!mateOffsets) {// next absolute position
 			header.encodingMap.put(SecramEncodingKey.NP_NextAbsolutePosition,
 					ExternalLongEncoding.toParam(nextAbsolutePositionID));
 		}
@@ -70,6 +70,13 @@ public class SecramContainer {
 
 	public SecramCompressionHeader compressionHeader;
 
+	/**
+	 * Whether the sensitive block is still encrypted when the container is
+	 * parsed, in which case only the sensitive fields of the permitted
+	 * records are decrypted.
+	 */
+	public boolean sensitiveBlockEncrypted = false;
+
 	// for performance measurement:
 	public long buildHeaderTime;
 	public long buildSlicesTime;
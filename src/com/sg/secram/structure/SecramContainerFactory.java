@@ -39,12 +39,22 @@ public class SecramContainerFactory {
 	private int recordsPerContainer = SecramContainer.DEFATUL_RECORDS_PER_CONTAINER;
 	private long globalRecordCounter = 0;
 	private int globalContainerCounter = 0;
+	private boolean mateOffsets = false;
 
 	public SecramContainerFactory(final SAMFileHeader samFileHeader,
 			final int recordsPerContainer) {
 		this.recordsPerContainer = recordsPerContainer;
 	}
 
+	/**
+	 * Set whether the next positions of the reads are stored as offsets in the
+	 * sensitive field (see {@link com.sg.secram.impl.records.ReadHeader#nextPositionOffset}),
+	 * rather than in the next position series.
+	 */
+	public void setMateOffsets(final boolean mateOffsets) {
+		this.mateOffsets = mateOffsets;
+	}
+
 	public int getGlobalContainerCounter() {
 		return globalContainerCounter;
 	}
@@ -68,7 +78,7 @@ public class SecramContainerFactory {
 		}
 		// get stats, create compression header and slices
 		final SecramCompressionHeader compressionHeader = new SecramCompressionHeaderFactory()
-				.build(records);
+				.build(records, mateOffsets);
 
 		final SecramContainer container = new SecramContainer();
 		container.containerID = globalContainerCounter;
@@ -42,6 +42,7 @@ import org.apache.commons.compress.utils.CountingOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map.Entry;
 
@@ -51,13 +52,25 @@ import java.util.Map.Entry;
 public class SecramContainerIO {
 	private static final Log log = Log.getInstance(SecramContainerIO.class);
 
-	/*
-	 * Calculate the storage size of each type of information
+	/**
+	 * Storage size of each type of information in the containers written by
+	 * one writer.
 	 */
-	public static int containerHeaderSize = 0;
-	public static int coreBlockSize = 0;
-	public static int compressionHeaderSize = 0;
-	public static int[] externalSizes = new int[12];
+	public static class SizeStatistics {
+		public long containerHeaderSize = 0;
+		public long coreBlockSize = 0;
+		public long compressionHeaderSize = 0;
+		/**
+		 * Size of the external blocks, indexed by their content IDs.
+		 */
+		public long[] externalSizes = new long[12];
+
+		private void addExternalSize(int contentId, long size) {
+			if (contentId >= externalSizes.length)
+				externalSizes = Arrays.copyOf(externalSizes, contentId + 1);
+			externalSizes[contentId] += size;
+		}
+	}
 
 	/**
 	 * Reads container header only from a {@link InputStream}.
@@ -193,6 +206,26 @@ public class SecramContainerIO {
 	 */
 	public static int writeContainer(final SecramContainer container,
 			final OutputStream outputStream) throws IOException {
+		return writeContainer(container, outputStream, null);
+	}
+
+	/**
+	 * Writes a complete {@link SecramContainer} with its header to a
+	 * {@link OutputStream}, and accounts the size of its parts.
+	 *
+	 * @param container
+	 *            the container to write
+	 * @param outputStream
+	 *            the stream to write to
+	 * @param statistics
+	 *            the statistics to update, or null
+	 * @return the number of bytes written out
+	 * @throws IOException
+	 *             as per java IO contract
+	 */
+	public static int writeContainer(final SecramContainer container,
+			final OutputStream outputStream, final SizeStatistics statistics)
+			throws IOException {
 
 		final long time1 = System.nanoTime();
 		final ExposedByteArrayOutputStream byteArrayOutputStream = new ExposedByteArrayOutputStream();
@@ -205,23 +238,27 @@ public class SecramContainerIO {
 		final byte[] bytes = container.compressionHeader.toByteArray();
 		block.setRawContent(bytes);
 		block.write(byteArrayOutputStream);
-		compressionHeaderSize += bytes.length;
 		container.blockCount = 1;
 
 		container.coreBlock.write(byteArrayOutputStream);
-		coreBlockSize += container.coreBlock.getCompressedContentSize();
 		container.blockCount++;
 		for (final Entry<Integer, SecramBlock> entry : container.external.entrySet()) {
 			((SecramBlock) entry.getValue()).write(byteArrayOutputStream);
-			externalSizes[(int) entry.getKey()] += ((SecramBlock) entry
-					.getValue()).getCompressedContentSize();
+			if (null != statistics)
+				statistics.addExternalSize(entry.getKey(), entry.getValue()
+						.getCompressedContentSize());
 			container.blockCount++;
 		}
 
 		container.containerByteSize = byteArrayOutputStream.size();
 
 		int length = writeContainerHeader(container, outputStream);
-		containerHeaderSize += length;
+		if (null != statistics) {
+			statistics.compressionHeaderSize += bytes.length;
+			statistics.coreBlockSize += container.coreBlock
+					.getCompressedContentSize();
+			statistics.containerHeaderSize += length;
+		}
 		outputStream.write(byteArrayOutputStream.getBuffer(), 0,
 				byteArrayOutputStream.size());
 		length += byteArrayOutputStream.size();
@@ -46,6 +46,7 @@ import com.sg.secram.compression.SecramRecordCodec;
 import com.sg.secram.compression.SecramRecordCodecFactory;
 import com.sg.secram.impl.SECRAMSecurityFilter;
 import com.sg.secram.impl.records.SecramRecord;
+import com.sg.secram.util.Timings;
 
 /**
  * Parser that translates the compressed and encrypted information of a container into SECRAM records. 
@@ -64,6 +65,46 @@ public class SecramContainerParser {
 	public List<SecramRecord> getRecords(SecramContainer container,
 			SECRAMSecurityFilter filter) throws IllegalArgumentException,
 			IllegalAccessException, IOException {
+		return readRecords(container, buildCodec(container));
+	}
+
+	/**
+	 * Get the SECRAM records of a container that are in the permitted range
+	 * of the filter, with their positions decrypted. If the sensitive block of
+	 * the container is still encrypted, only the sensitive fields of the
+	 * permitted records are decrypted and decoded.
+	 * @throws IllegalArgumentException
+	 * @throws IllegalAccessException
+	 * @throws IOException
+	 */
+	public List<SecramRecord> getPermittedRecords(SecramContainer container,
+			SECRAMSecurityFilter filter) throws IllegalArgumentException,
+			IllegalAccessException, IOException {
+		long nanoStart = System.nanoTime();
+		SecramRecordCodec recordCodec = buildCodec(container);
+		recordCodec.setDeferSensitiveField(container.sensitiveBlockEncrypted);
+		List<SecramRecord> records = readRecords(container, recordCodec);
+		Timings.decompression.add(System.nanoTime() - nanoStart);
+
+		nanoStart = System.nanoTime();
+		if (!container.sensitiveBlockEncrypted)
+			records = filter.decryptRecords(records);
+		else
+			records = filter.decryptRecords(records, record -> {
+				filter.decryptBlockRange(record.sensitiveField,
+						record.sensitiveFieldPosition, container.containerID);
+				try {
+					recordCodec.readSensitiveField(record);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+		Timings.decryption.add(System.nanoTime() - nanoStart);
+		return records;
+	}
+
+	private SecramRecordCodec buildCodec(SecramContainer container)
+			throws IllegalArgumentException, IllegalAccessException {
 		SecramRecordCodecFactory codecFactory = new SecramRecordCodecFactory();
 		Map<Integer, InputStream> inputMap = new HashMap<Integer, InputStream>();
 		for (Integer exID : container.external.keySet()) {
@@ -72,11 +113,14 @@ public class SecramContainerParser {
 					new ByteArrayInputStream(container.external.get(exID)
 							.getRawContent()));
 		}
-		SecramRecordCodec recordCodec = codecFactory.buildCodec(
-				container.compressionHeader,
+		return codecFactory.buildCodec(container.compressionHeader,
 				new DefaultBitInputStream(new ByteArrayInputStream(
 						container.coreBlock.getRawContent())), null, inputMap,
 				null);
+	}
+
+	private List<SecramRecord> readRecords(SecramContainer container,
+			SecramRecordCodec recordCodec) throws IOException {
 		List<SecramRecord> records = new ArrayList<SecramRecord>(
 				container.nofRecords);
 
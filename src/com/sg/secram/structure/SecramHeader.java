@@ -34,6 +34,8 @@ package com.sg.secram.structure;
 import htsjdk.samtools.SAMFileHeader;
 
 import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * A starting object when dealing with SECRAM files. A {@link SecramHeader}
@@ -43,11 +45,45 @@ import java.util.Arrays;
  * <li>A 64-bit random salt for order-preserving encryption</li>
  * <li>SAM file header</li>
  * </ol>
+ * It also carries a set of format options, identified by two-character keys,
+ * which record how the file was written. Files without an option are read
+ * with the default value of that option, i.e., as written by the first
+ * version of the format.
  * @author zhihuang
  */
 public final class SecramHeader {
 	public static final byte[] MAGIC = "SECRAM".getBytes();
 
+	/**
+	 * Format option: version of the coin generation of the order-preserving
+	 * encryption, see {@link com.sg.secram.encryption.OPE}.
+	 */
+	public static final String OPE_COINS = "OC";
+	/**
+	 * Format option: number of bits of the plaintext domain of the
+	 * order-preserving encryption. When present, the positions are encrypted
+	 * in the linear coordinates of the sequence dictionary, see
+	 * {@link com.sg.secram.util.GenomeDomain}.
+	 */
+	public static final String OPE_DOMAIN_BITS = "OD";
+	/**
+	 * Format option: number of bits of the ciphertext range of the
+	 * order-preserving encryption.
+	 */
+	public static final String OPE_RANGE_BITS = "OR";
+	/**
+	 * Format option: when non-zero, the next positions of the reads are stored
+	 * as offsets in the AES-encrypted sensitive field rather than encrypted
+	 * with the order-preserving encryption.
+	 */
+	public static final String MATE_OFFSETS = "MO";
+	/**
+	 * Format option: ID of the encryption scheme of the positions, see
+	 * {@link com.sg.secram.encryption.SECRAMPositionEncryption}. The positions
+	 * are OPE-encrypted when it is absent.
+	 */
+	public static final String POSITION_SCHEME = "PS";
+
 	private final byte[] id = new byte[20];
 
 	{
@@ -58,6 +94,8 @@ public final class SecramHeader {
 
 	private SAMFileHeader samFileHeader;
 
+	private final Map<String, Long> options = new TreeMap<String, Long>();
+
 	/**
 	 * Create a new {@link SecramHeader} empty object.
 	 */
@@ -99,6 +137,32 @@ public final class SecramHeader {
 		this.opeSalt = opeSalt;
 	}
 
+	/**
+	 * Set a format option.
+	 * @param key Two-character key of the option.
+	 */
+	public void setOption(final String key, final long value) {
+		if (key.length() != 2)
+			throw new IllegalArgumentException("Invalid option key: " + key);
+		options.put(key, value);
+	}
+
+	/**
+	 * @return The value of a format option, or the default value if the file
+	 *         does not record it.
+	 */
+	public long getOption(final String key, final long defaultValue) {
+		Long value = options.get(key);
+		return value == null ? defaultValue : value;
+	}
+
+	/**
+	 * @return All the format options recorded in this header.
+	 */
+	public Map<String, Long> getOptions() {
+		return options;
+	}
+
 	/**
 	 * Copy the SECRAM header into a new {@link SecramHeader} object.
 	 * 
@@ -109,6 +173,8 @@ public final class SecramHeader {
 		final SecramHeader clone = new SecramHeader();
 		System.arraycopy(id, 0, clone.id, 0, id.length);
 		clone.samFileHeader = getSamFileHeader().clone();
+		clone.opeSalt = opeSalt;
+		clone.options.putAll(options);
 
 		return clone;
 	}
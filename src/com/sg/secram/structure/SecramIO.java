@@ -34,6 +34,7 @@ package com.sg.secram.structure;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMTextHeaderCodec;
 import htsjdk.samtools.cram.io.ExposedByteArrayOutputStream;
+import htsjdk.samtools.cram.io.ITF8;
 import htsjdk.samtools.cram.io.LTF8;
 import htsjdk.samtools.seekablestream.SeekableFileStream;
 import htsjdk.samtools.seekablestream.SeekableStream;
@@ -50,6 +51,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Map;
 
 /**
  * A collection of methods to open and close SECRAM files.
@@ -98,7 +100,8 @@ public class SecramIO {
 			outputStream.write(0);
 
 		long length = SecramIO.writeSAMFileHeader(
-				secramHeader.getSamFileHeader(), outputStream);
+				secramHeader.getSamFileHeader(), secramHeader.getOptions(),
+				outputStream);
 		length += (LTF8.writeUnsignedLTF8(secramHeader.getOpeSalt(),
 				outputStream) + 7) / 8;
 
@@ -133,13 +136,18 @@ public class SecramIO {
 			throws IOException {
 		final SecramHeader header = readFormatDefinition(inputStream);
 
-		final SAMFileHeader samFileHeader = readSAMFileHeader(inputStream,
+		final SecramBlock block = SecramBlock.readFromInputStream(inputStream);
+		final ByteArrayInputStream blockStream = new ByteArrayInputStream(
+				block.getRawContent());
+		final SAMFileHeader samFileHeader = readSAMFileHeader(blockStream,
 				new String(header.getId()));
 
 		final long opeSalt = LTF8.readUnsignedLTF8(inputStream);
 
-		return new SecramHeader(new String(header.getId()), samFileHeader,
-				opeSalt);
+		final SecramHeader secramHeader = new SecramHeader(new String(
+				header.getId()), samFileHeader, opeSalt);
+		readOptions(blockStream, secramHeader);
+		return secramHeader;
 	}
 
 	private static byte[] toByteArray(final SAMFileHeader samFileHeader) {
@@ -171,13 +179,54 @@ public class SecramIO {
 		return headerOS.toByteArray();
 	}
 
+	/**
+	 * Serialize the format options: the number of options, followed by the
+	 * two-character key and the value of each option.
+	 */
+	private static byte[] optionsToByteArray(final Map<String, Long> options)
+			throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		ITF8.writeUnsignedITF8(options.size(), os);
+		for (Map.Entry<String, Long> option : options.entrySet()) {
+			os.write((byte) option.getKey().charAt(0));
+			os.write((byte) option.getKey().charAt(1));
+			LTF8.writeUnsignedLTF8(option.getValue(), os);
+		}
+		return os.toByteArray();
+	}
+
+	/**
+	 * Read the format options following the SAM text header. The files
+	 * written before the options were introduced have zero padding there,
+	 * which reads as no option.
+	 */
+	private static void readOptions(final InputStream inputStream,
+			final SecramHeader secramHeader) throws IOException {
+		if (inputStream.available() == 0)
+			return;
+		final int count = ITF8.readUnsignedITF8(inputStream);
+		for (int i = 0; i < count; i++) {
+			final String key = new String(new byte[] {
+					(byte) inputStream.read(), (byte) inputStream.read() });
+			secramHeader.setOption(key, LTF8.readUnsignedLTF8(inputStream));
+		}
+	}
+
+	/**
+	 * Write the SAM file header and the format options in a block, padded to
+	 * leave room for the header to grow.
+	 */
 	private static long writeSAMFileHeader(final SAMFileHeader samFileHeader,
-			final OutputStream os) throws IOException {
+			final Map<String, Long> options, final OutputStream os)
+			throws IOException {
 		final byte[] data = toByteArray(samFileHeader);
-		final int length = Math.max(1024, data.length + data.length / 2);
+		final byte[] optionData = optionsToByteArray(options);
+		final int length = Math.max(1024, Math.max(
+				data.length + data.length / 2, data.length + optionData.length));
 		final byte[] blockContent = new byte[length];
-		System.arraycopy(data, 0, blockContent, 0,
-				Math.min(data.length, length));
+		System.arraycopy(data, 0, blockContent, 0, data.length);
+		System.arraycopy(optionData, 0, blockContent, data.length,
+				optionData.length);
 		final SecramBlock block = SecramBlock
 				.buildNewFileHeaderBlock(blockContent);
 
@@ -190,12 +239,11 @@ public class SecramIO {
 		return byteArrayOutputStream.size();
 	}
 
-	private static SAMFileHeader readSAMFileHeader(InputStream inputStream,
-			final String id) throws IOException {
-		final SecramBlock block = SecramBlock.readFromInputStream(inputStream);
-
-		inputStream = new ByteArrayInputStream(block.getRawContent());
-
+	/**
+	 * Read the SAM file header from the content of the header block.
+	 */
+	private static SAMFileHeader readSAMFileHeader(
+			final InputStream inputStream, final String id) throws IOException {
 		final ByteBuffer buffer = ByteBuffer.allocate(4);
 		buffer.order(ByteOrder.LITTLE_ENDIAN);
 		for (int i = 0; i < 4; i++)
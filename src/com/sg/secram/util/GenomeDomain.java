@@ -0,0 +1,119 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.util;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+import java.util.Arrays;
+
+/**
+ * Dense linear coordinates of the positions of a genome, as given by the
+ * sequence dictionary of a SAM header.
+ * <p>
+ * An absolute position (see {@link SECRAMUtils#getAbsolutePosition(int, int)})
+ * on reference i, at 0-based position p, is mapped to offset(i) + p + 1, so
+ * that each reference has one slot for position -1 (e.g., the position of a
+ * mate which is placed on the reference but not mapped), followed by its
+ * positions and {@link #OVERHANG} extra positions for the alignments that run
+ * past the end of the reference. The mapping preserves the order of the
+ * positions, and negative absolute positions (e.g., mates on no reference)
+ * are kept as they are.
+ * 
+ * @author zhihuang
+ */
+public class GenomeDomain {
+	/**
+	 * Number of positions allowed past the end of each reference.
+	 */
+	public static final int OVERHANG = 1 << 16;
+
+	/** Linear coordinate of position -1 of each reference, and the total size */
+	private final long[] offsets;
+
+	public GenomeDomain(SAMSequenceDictionary dictionary) {
+		offsets = new long[dictionary.size() + 1];
+		for (SAMSequenceRecord sequence : dictionary.getSequences())
+			offsets[sequence.getSequenceIndex() + 1] = offsets[sequence
+					.getSequenceIndex()]
+					+ sequence.getSequenceLength()
+					+ 1
+					+ OVERHANG;
+	}
+
+	/**
+	 * @return Number of linear coordinates.
+	 */
+	public long size() {
+		return offsets[offsets.length - 1];
+	}
+
+	/**
+	 * @return Number of bits needed by the linear coordinates.
+	 */
+	public int getBits() {
+		return Math.max(1, 64 - Long.numberOfLeadingZeros(size() - 1));
+	}
+
+	/**
+	 * Convert an absolute position to its linear coordinate.
+	 * @throws IllegalArgumentException
+	 *             if the position is not on a reference of the dictionary.
+	 */
+	public long toLinear(long absolutePosition) {
+		if (absolutePosition < 0)
+			return absolutePosition;
+		int refID = (int) (absolutePosition >> 32);
+		long position = (int) absolutePosition;
+		if (refID >= offsets.length - 1 || position < -1
+				|| offsets[refID] + position + 1 >= offsets[refID + 1])
+			throw new IllegalArgumentException("Position " + position
+					+ " of reference " + refID
+					+ " is out of the sequence dictionary.");
+		return offsets[refID] + position + 1;
+	}
+
+	/**
+	 * Convert a linear coordinate back to its absolute position.
+	 */
+	public long toAbsolute(long linearPosition) {
+		if (linearPosition < 0)
+			return linearPosition;
+		int index = Arrays.binarySearch(offsets, linearPosition);
+		int refID = index >= 0 ? index : -index - 2;
+		if (refID >= offsets.length - 1)
+			throw new IllegalArgumentException("Linear position "
+					+ linearPosition + " is out of the sequence dictionary.");
+		return SECRAMUtils.getAbsolutePosition(
+				(int) (linearPosition - offsets[refID] - 1), refID);
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Buffered input stream over a region of a file channel, which reads with
+ * positional reads only. Several such streams can read the same channel
+ * concurrently, because they do not rely on the position of the channel.
+ * Closing the stream does not close the channel.
+ * 
+ * @author zhihuang
+ *
+ */
+public class PositionalFileInputStream extends InputStream {
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	/**
+	 * File offset of the first byte of the buffer.
+	 */
+	private long bufferOffset;
+
+	/**
+	 * @param channel The file channel to read from.
+	 * @param offset File offset where the stream starts.
+	 */
+	public PositionalFileInputStream(FileChannel channel, long offset) {
+		this(channel, offset, DEFAULT_BUFFER_SIZE);
+	}
+
+	public PositionalFileInputStream(FileChannel channel, long offset,
+			int bufferSize) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+		this.buffer.flip();
+		this.bufferOffset = offset;
+	}
+
+	/**
+	 * @return The file offset of the next byte to be read.
+	 */
+	public long position() {
+		return bufferOffset + buffer.position();
+	}
+
+	private boolean fill() throws IOException {
+		if (buffer.hasRemaining())
+			return true;
+		bufferOffset += buffer.limit();
+		buffer.clear();
+		int n = 0;
+		while (n == 0)
+			n = channel.read(buffer, bufferOffset);
+		buffer.flip();
+		return n > 0;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill())
+			return -1;
+		return buffer.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!fill())
+			return -1;
+		int n = Math.min(len, buffer.remaining());
+		buffer.get(b, off, n);
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0)
+			return 0;
+		long skipped = Math.min(n, channel.size() - position());
+		if (skipped <= 0)
+			return 0;
+		if (skipped <= buffer.remaining())
+			buffer.position(buffer.position() + (int) skipped);
+		else {
+			bufferOffset = position() + skipped;
+			buffer.clear();
+			buffer.flip();
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return buffer.remaining();
+	}
+}
@@ -32,28 +32,42 @@
 package com.sg.secram.util;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Accumulated time (in nanoseconds) spent in each step of the conversions and
+ * queries. The counters can be updated concurrently by several conversions
+ * and queries running in the same process.
+ */
 public class Timings {
-	public static long bam2secramConversion = 0;
-	public static long transposition = 0;
-	public static long compression = 0;
-	public static long encryption = 0;
+	public static final LongAdder bam2secramConversion = new LongAdder();
+	public static final LongAdder transposition = new LongAdder();
+	public static final LongAdder compression = new LongAdder();
+	public static final LongAdder encryption = new LongAdder();
 
-	public static long secram2bamConversion = 0;
-	public static long invTransposition = 0;
-	public static long decompression = 0;
-	public static long decryption = 0;
+	public static final LongAdder secram2bamConversion = new LongAdder();
+	public static final LongAdder invTransposition = new LongAdder();
+	public static final LongAdder decompression = new LongAdder();
+	public static final LongAdder decryption = new LongAdder();
 
-	public static long retrieval = 0;
-	public static long communication = 0;
-	public static long locateQueryPosition = 0;
-	public static long queryProcessing = 0;
-	public static long IO = 0;
+	public static final LongAdder retrieval = new LongAdder();
+	public static final LongAdder communication = new LongAdder();
+	public static final LongAdder locateQueryPosition = new LongAdder();
+	public static final LongAdder queryProcessing = new LongAdder();
+	public static final LongAdder IO = new LongAdder();
 
 	public static void printTimings() {
+		printTimings(1);
+	}
+
+	/**
+	 * Print the timings divided by a number of runs.
+	 */
+	public static void printTimings(int runs) {
 		Arrays.stream(Timings.class.getFields()).forEach((x) -> {
 			try {
-				System.out.println(x.getName() + ": " + x.getLong(null));
+				System.out.println(x.getName() + ": "
+						+ ((LongAdder) x.get(null)).sum() / runs);
 			} catch (Exception e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
@@ -64,7 +78,7 @@ public class Timings {
 	public static void reset() {
 		Arrays.stream(Timings.class.getFields()).forEach((x) -> {
 			try {
-				x.setLong(null, 0);
+				((LongAdder) x.get(null)).reset();
 			} catch (Exception e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
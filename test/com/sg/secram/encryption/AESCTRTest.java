@@ -0,0 +1,122 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.encryption;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Check that {@link JCE_AES_CTR} produces the same output as
+ * {@link BouncyCastle_AES_CTR}, so that the containers written with either
+ * implementation can be read with the other, and that both decrypt any range
+ * of a message with {@link SECRAMSeekableCipher#decryptRange}.
+ * 
+ * @author zhihuang
+ *
+ */
+public class AESCTRTest {
+	private static final int[] MESSAGE_LENGTHS = { 0, 1, 15, 16, 17, 1000,
+			(1 << 20) + 7 };
+
+	public static void main(String[] args) throws Exception {
+		Random random = new Random(5);
+		byte[] zeroIV = new byte[16];
+		// an IV whose counter carries into its upper bytes
+		byte[] carryIV = new byte[16];
+		Arrays.fill(carryIV, 8, 16, (byte) 0xFF);
+		carryIV[15] = (byte) 0xF0;
+
+		for (int length : MESSAGE_LENGTHS) {
+			for (byte[] iv : new byte[][] { zeroIV, carryIV, randomBytes(random, 16) }) {
+				byte[] key = randomBytes(random,
+						SECRAMEncryptionFactory.BLOCK_CIPHER_KEY_LEN);
+				byte[] message = randomBytes(random, length);
+				checkCipher(key, iv, message, random);
+			}
+		}
+
+		// the container ciphers of both implementations
+		byte[] masterKey = "SECRET_1SECRET_2SECRET_3".getBytes();
+		byte[] message = randomBytes(random, 4096);
+		byte[] bcOutput = SECRAMEncryptionFactory.createContainerEM(masterKey,
+				42L, SECRAMEncryptionFactory.CONTAINER_CIPHER_BOUNCY_CASTLE)
+				.encrypt(message.clone(), null);
+		byte[] jceOutput = SECRAMEncryptionFactory.createContainerEM(masterKey,
+				42L, SECRAMEncryptionFactory.CONTAINER_CIPHER_JCE).encrypt(
+				message.clone(), null);
+		if (!Arrays.equals(bcOutput, jceOutput))
+			throw new RuntimeException(
+					"The container ciphers of both implementations differ.");
+		System.out.println("JCE and BouncyCastle AES-CTR are identical.");
+	}
+
+	private static void checkCipher(byte[] key, byte[] iv, byte[] message,
+			Random random) {
+		String name = message.length + " bytes, IV "
+				+ Arrays.toString(iv);
+		byte[] expected = new BouncyCastle_AES_CTR(key, iv).encrypt(message,
+				null);
+		// the JCE cipher works in place
+		byte[] encrypted = new JCE_AES_CTR(key, iv).encrypt(message.clone(),
+				null);
+		if (!Arrays.equals(expected, encrypted))
+			throw new RuntimeException("Different encryption of " + name);
+		if (!Arrays.equals(message,
+				new JCE_AES_CTR(key, iv).decrypt(encrypted.clone(), null)))
+			throw new RuntimeException("Wrong JCE decryption of " + name);
+
+		SECRAMSeekableCipher[] ciphers = { new BouncyCastle_AES_CTR(key, iv),
+				new JCE_AES_CTR(key, iv) };
+		for (int q = 0; q < 200 && message.length > 0; q++) {
+			int start = random.nextInt(message.length);
+			int end = start + random.nextInt(Math.min(message.length - start, 100) + 1);
+			for (SECRAMSeekableCipher cipher : ciphers) {
+				// decrypt the range in the middle of a larger buffer
+				byte[] buffer = new byte[end - start + 8];
+				System.arraycopy(encrypted, start, buffer, 3, end - start);
+				cipher.decryptRange(buffer, 3, end - start, start);
+				if (!Arrays.equals(Arrays.copyOfRange(message, start, end),
+						Arrays.copyOfRange(buffer, 3, 3 + end - start)))
+					throw new RuntimeException("Wrong range " + start + "-"
+							+ end + " decrypted by "
+							+ cipher.getClass().getSimpleName() + " for "
+							+ name);
+			}
+		}
+	}
+
+	private static byte[] randomBytes(Random random, int length) {
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.encryption;
+
+import htsjdk.samtools.SAMFileHeader;
+
+import com.sg.secram.impl.SECRAMSecurityFilter;
+import com.sg.secram.structure.SecramHeader;
+
+/**
+ * Check that the positions of the files written before the coin generation
+ * was versioned still decrypt: the ciphertexts below were computed with the
+ * original OPE, and must be reproduced by {@link OPE#COINS_SHA1PRNG}, which is
+ * also the version of a header without format option.
+ * 
+ * @author zhihuang
+ *
+ */
+public class LegacyOPECoinsTest {
+	private static final byte[] KEY = "SECRET_1SECRET_2SECRET_3".getBytes();
+	private static final long OPE_SALT = 0x5EC4A3F1L;
+
+	private static final long[] POSITIONS = { 0L, 1L, 12345L,
+			(1L << 32) | 100000L, (5L << 32) | 123456789L,
+			(24L << 32) | 59373565L, OPE.MAX_PLAINTEXT };
+	/**
+	 * Ciphertexts of the positions with the original OPE and {@link #KEY}.
+	 */
+	private static final long[] OPE_CIPHERTEXTS = { 0L, 4L, 3181596L,
+			1099507487103L, 5529197248517L, 26403598080083L, 281474976708786L };
+	/**
+	 * Ciphertexts of the positions with the original position encryption of
+	 * a file with {@link #KEY} as master key and {@link #OPE_SALT}.
+	 */
+	private static final long[] FILE_CIPHERTEXTS = { 0L, 3L, 3190872L,
+			1099544076318L, 5529129079296L, 26403409996515L, 281474976710581L };
+
+	public static void main(String[] args) throws Exception {
+		OPE legacy = new OPE(KEY, OPE.COINS_SHA1PRNG);
+		OPE current = new OPE(KEY, OPE.COINS_AES_CTR);
+		boolean differ = false;
+		for (int i = 0; i < POSITIONS.length; i++) {
+			check("OPE", POSITIONS[i], OPE_CIPHERTEXTS[i],
+					legacy.encrypt(POSITIONS[i]),
+					legacy.decrypt(OPE_CIPHERTEXTS[i]));
+			check("default OPE", POSITIONS[i], OPE_CIPHERTEXTS[i],
+					new OPE(KEY).encrypt(POSITIONS[i]),
+					new OPE(KEY).decrypt(OPE_CIPHERTEXTS[i]));
+			long ciphertext = current.encrypt(POSITIONS[i]);
+			if (current.decrypt(ciphertext) != POSITIONS[i])
+				throw new RuntimeException("Wrong round trip of "
+						+ POSITIONS[i] + " with the AES-CTR coins");
+			differ |= ciphertext != OPE_CIPHERTEXTS[i];
+		}
+		if (!differ)
+			throw new RuntimeException(
+					"The coin versions produce the same ciphertexts.");
+
+		// the header of an old file has no format option
+		SecramHeader header = new SecramHeader("legacy", new SAMFileHeader(),
+				OPE_SALT);
+		SECRAMSecurityFilter filter = new SECRAMSecurityFilter(KEY);
+		filter.initPositionEM(header);
+		for (int i = 0; i < POSITIONS.length; i++)
+			check("file", POSITIONS[i], FILE_CIPHERTEXTS[i],
+					filter.encryptPosition(POSITIONS[i]),
+					filter.decryptPosition(FILE_CIPHERTEXTS[i]));
+		System.out.println("The legacy OPE coins reproduce the original ciphertexts.");
+	}
+
+	private static void check(String name, long position,
+			long expectedCiphertext, long ciphertext, long plaintext) {
+		if (ciphertext != expectedCiphertext)
+			throw new RuntimeException(name + " encryption of " + position
+					+ ": " + ciphertext + " instead of " + expectedCiphertext);
+		if (plaintext != position)
+			throw new RuntimeException(name + " decryption of "
+					+ expectedCiphertext + ": " + plaintext + " instead of "
+					+ position);
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.encryption;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Check that the lock-free lookups of the OPE node cache are correct while
+ * the tables grow and are cleared concurrently, and that the registry of the
+ * shared caches does not keep the caches without user beyond its size
+ * bound.
+ * 
+ * @author zhihuang
+ *
+ */
+public class OPENodeCacheTest {
+	private static final int NOF_READERS = 4;
+	private static final long DURATION_MS = 2000;
+
+	public static void main(String[] args) throws Exception {
+		checkConcurrentLookups();
+		checkRegistry();
+		System.out.println("The OPE node cache is consistent and bounded.");
+	}
+
+	private static long splitPoint(long y) {
+		return y * 7 + 3;
+	}
+
+	/**
+	 * A small capacity, so that the deep nodes are cleared, and the tables
+	 * grown again, many times during the lookups.
+	 */
+	private static void checkConcurrentLookups() throws Exception {
+		OPENodeCache cache = new OPENodeCache(64);
+		AtomicBoolean stop = new AtomicBoolean(false);
+		ExecutorService threads = Executors.newFixedThreadPool(NOF_READERS + 1);
+		List<Future<Long>> readers = new ArrayList<>();
+		for (int t = 0; t < NOF_READERS; t++) {
+			int seed = t;
+			readers.add(threads.submit(() -> {
+				Random random = new Random(seed);
+				long found = 0;
+				while (!stop.get()) {
+					long y = random.nextInt(20000);
+					int depth = random.nextBoolean() ? 2
+							: OPENodeCache.PINNED_LEVELS + 2;
+					long x = cache.get(y, depth);
+					if (x >= 0 && x != splitPoint(y))
+						throw new RuntimeException("Wrong split point of "
+								+ y + ": " + x);
+					if (x >= 0)
+						found++;
+				}
+				return found;
+			}));
+		}
+		Future<?> writer = threads.submit(() -> {
+			Random random = new Random(-1);
+			while (!stop.get()) {
+				long y = random.nextInt(20000);
+				cache.put(y, y % 50 == 0 ? 2 : OPENodeCache.PINNED_LEVELS + 2,
+						splitPoint(y));
+			}
+		});
+		long found = 0;
+		try {
+			Thread.sleep(DURATION_MS);
+			stop.set(true);
+			writer.get();
+			for (Future<Long> reader : readers)
+				found += reader.get();
+		} finally {
+			stop.set(true);
+			threads.shutdown();
+		}
+		if (cache.getEvictions() == 0 || found == 0)
+			throw new RuntimeException("The cache was not exercised: "
+					+ cache);
+	}
+
+	private static void checkRegistry() throws Exception {
+		OPENodeCache first = OPENodeCache.forKey("test:0");
+		if (OPENodeCache.forKey("test:0") != first)
+			throw new RuntimeException("The cache of a key is not shared.");
+		fill(first);
+		WeakReference<OPENodeCache> firstReference = new WeakReference<>(first);
+		first = null;
+
+		// more caches than the idle bound, without user
+		long bytes = 0;
+		for (int i = 1; bytes <= 2 * OPENodeCache.MAX_IDLE_CACHE_BYTES; i++) {
+			OPENodeCache cache = OPENodeCache.forKey("test:" + i);
+			fill(cache);
+			bytes += cache.getMemoryBytes();
+		}
+		OPENodeCache.forKey("test:last");
+		for (int i = 0; i < 10 && null != firstReference.get(); i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		if (null != firstReference.get())
+			throw new RuntimeException(
+					"The registry keeps idle caches beyond its bound.");
+	}
+
+	private static void fill(OPENodeCache cache) {
+		for (long y = 0; y < OPENodeCache.MAX_DEEP_NODES / 2; y++)
+			cache.put(y, OPENodeCache.PINNED_LEVELS, splitPoint(y));
+	}
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.encryption;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Check that the top levels of an OPE tree are loaded from an authentic
+ * sidecar file without changing the ciphertexts, and that a sidecar which is
+ * tampered with, truncated, or written for another key, salt or coin
+ * version, is rejected. Two sidecars of the same tree must not be encrypted
+ * with the same keystream, and the sidecars of two domains under the same
+ * key must each load only for their own domain.
+ * 
+ * @author zhihuang
+ *
+ */
+public class OPETreeFileTest {
+	private static final byte[] KEY = "SECRET_1SECRET_2SECRET_3".getBytes();
+	private static final long SALT = 0x0123456789ABCDEFL;
+	private static final int LEVELS = 8;
+	/** Magic, random salt and five integers */
+	private static final int PAYLOAD_OFFSET = 8 + 16 + 5 * 4;
+	private static final int MAC_LENGTH = 32;
+
+	public static void main(String[] args) throws Exception {
+		File dir = Files.createTempDirectory("opetree").toFile();
+		File file = new File(dir, "test" + OPETreeFile.EXTENSION);
+		OPE ope = createOPE(KEY, SALT, OPE.COINS_AES_CTR);
+
+		Random random = new Random(3);
+		long[] positions = new long[1000];
+		for (int i = 0; i < positions.length; i++)
+			positions[i] = (long) (random.nextDouble() * OPE.MAX_PLAINTEXT);
+		long[] expected = new long[positions.length];
+		for (int i = 0; i < positions.length; i++)
+			expected[i] = ope.encrypt(positions[i]);
+
+		OPETreeFile.write(file, ope, KEY, SALT, LEVELS);
+		byte[] content = Files.readAllBytes(file.toPath());
+
+		// every single flipped bit is detected
+		for (int offset = 0; offset < content.length; offset++) {
+			byte[] tampered = content.clone();
+			tampered[offset] ^= 1 << (offset % 8);
+			Files.write(file.toPath(), tampered);
+			if (OPETreeFile.load(file, createOPE(KEY, SALT, OPE.COINS_AES_CTR),
+					KEY, SALT))
+				throw new RuntimeException("A sidecar tampered at byte "
+						+ offset + " is accepted.");
+		}
+		Files.write(file.toPath(), Arrays.copyOf(content, content.length - 1));
+		if (OPETreeFile.load(file, createOPE(KEY, SALT, OPE.COINS_AES_CTR),
+				KEY, SALT))
+			throw new RuntimeException("A truncated sidecar is accepted.");
+
+		Files.write(file.toPath(), content);
+		byte[] otherKey = "SECRET_4SECRET_5SECRET_6".getBytes();
+		if (OPETreeFile.load(file,
+				createOPE(otherKey, SALT, OPE.COINS_AES_CTR), otherKey, SALT))
+			throw new RuntimeException(
+					"A sidecar of another master key is accepted.");
+		if (OPETreeFile.load(file,
+				createOPE(KEY, SALT + 1, OPE.COINS_AES_CTR), KEY, SALT + 1))
+			throw new RuntimeException("A sidecar of another salt is accepted.");
+		if (OPETreeFile.load(file, createOPE(KEY, SALT, OPE.COINS_SHA1PRNG),
+				KEY, SALT))
+			throw new RuntimeException(
+					"A sidecar of another coin version is accepted.");
+
+		// the authentic sidecar is loaded, and the split points it pins are
+		// those of the tree
+		OPE loaded = createOPE(KEY, SALT, OPE.COINS_AES_CTR);
+		if (!OPETreeFile.load(file, loaded, KEY, SALT))
+			throw new RuntimeException("The authentic sidecar is rejected.");
+		for (int i = 0; i < positions.length; i++) {
+			if (loaded.encrypt(positions[i]) != expected[i])
+				throw new RuntimeException("Wrong encryption of "
+						+ positions[i] + " after loading the sidecar.");
+			if (loaded.decrypt(expected[i]) != positions[i])
+				throw new RuntimeException("Wrong decryption of "
+						+ expected[i] + " after loading the sidecar.");
+		}
+
+		// rewriting the sidecar with the same keys draws a new keystream
+		OPETreeFile.write(file, ope, KEY, SALT, LEVELS);
+		byte[] rewritten = Files.readAllBytes(file.toPath());
+		if (rewritten.length != content.length
+				|| Arrays.equals(payload(content), payload(rewritten)))
+			throw new RuntimeException(
+					"Two sidecars are encrypted with the same keystream.");
+		if (!OPETreeFile.load(file, createOPE(KEY, SALT, OPE.COINS_AES_CTR),
+				KEY, SALT))
+			throw new RuntimeException("The rewritten sidecar is rejected.");
+
+		checkDomains(dir);
+
+		file.delete();
+		dir.delete();
+		System.out.println("The OPE tree sidecar is authenticated.");
+	}
+
+	private static void checkDomains(File dir) throws Exception {
+		int[][] domains = { { 20, 28 }, { 32, 40 } };
+		File[] files = new File[domains.length];
+		for (int d = 0; d < domains.length; d++) {
+			files[d] = new File(dir, "domain" + d + OPETreeFile.EXTENSION);
+			OPETreeFile.write(files[d], createOPE(KEY, SALT, domains[d]), KEY,
+					SALT, LEVELS);
+		}
+		for (int f = 0; f < domains.length; f++) {
+			for (int d = 0; d < domains.length; d++) {
+				OPE ope = createOPE(KEY, SALT, domains[d]);
+				if (OPETreeFile.load(files[f], ope, KEY, SALT) != (f == d))
+					throw new RuntimeException("The sidecar of the "
+							+ domains[f][0] + "-bit domain is "
+							+ (f == d ? "rejected" : "accepted")
+							+ " for the " + domains[d][0] + "-bit domain.");
+			}
+		}
+
+		// a sidecar relabelled with the bits of the other domain is rejected
+		byte[] content = Files.readAllBytes(files[0].toPath());
+		ByteBuffer.wrap(content, PAYLOAD_OFFSET - 4 * 4, 2 * 4)
+				.putInt(domains[1][0]).putInt(domains[1][1]);
+		Files.write(files[0].toPath(), content);
+		if (OPETreeFile.load(files[0], createOPE(KEY, SALT, domains[1]), KEY,
+				SALT))
+			throw new RuntimeException(
+					"A sidecar relabelled with another domain is accepted.");
+
+		// the loaded split points are those of each tree
+		Random random = new Random(4);
+		for (int d = 0; d < domains.length; d++) {
+			OPE expected = createOPE(KEY, SALT, domains[d]);
+			OPE loaded = createOPE(KEY, SALT, domains[d]);
+			OPETreeFile.write(files[d], expected, KEY, SALT, LEVELS);
+			if (!OPETreeFile.load(files[d], loaded, KEY, SALT))
+				throw new RuntimeException("The sidecar of the "
+						+ domains[d][0] + "-bit domain is rejected.");
+			for (int i = 0; i < 1000; i++) {
+				long position = random.nextInt(1 << domains[0][0]);
+				if (loaded.encrypt(position) != expected.encrypt(position))
+					throw new RuntimeException("Wrong encryption of "
+							+ position + " in the " + domains[d][0]
+							+ "-bit domain after loading the sidecar.");
+			}
+			files[d].delete();
+		}
+	}
+
+	private static OPE createOPE(byte[] masterKey, long salt, int[] domain) {
+		return (OPE) SECRAMEncryptionFactory.createPositionEM(masterKey, salt,
+				OPE.COINS_AES_CTR, domain[0], domain[1]);
+	}
+
+	private static byte[] payload(byte[] content) {
+		return Arrays.copyOfRange(content, PAYLOAD_OFFSET, content.length
+				- MAC_LENGTH);
+	}
+
+	private static OPE createOPE(byte[] masterKey, long salt, int coinsVersion) {
+		return (OPE) SECRAMEncryptionFactory.createPositionEM(masterKey, salt,
+				coinsVersion);
+	}
+}
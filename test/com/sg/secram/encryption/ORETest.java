@@ -0,0 +1,148 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.encryption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Check that the ORE decrypts what it encrypts, single and in batch, and
+ * that the comparison of the ciphertexts, without the key, gives the order of
+ * the plaintexts.
+ * 
+ * @author zhihuang
+ *
+ */
+public class ORETest {
+	private static final byte[] KEY = "SECRET_1SECRET_2SECRET_3".getBytes();
+
+	public static void main(String[] args) throws Exception {
+		// every pair of a small domain
+		ORE small = new ORE(KEY, 6);
+		long[] all = new long[(int) small.getMaxPlaintext() + 1];
+		for (int i = 0; i < all.length; i++)
+			all[i] = i;
+		check(small, all);
+
+		// 32-bit positions, with runs of neighbours sharing long prefixes
+		ORE ore = new ORE(KEY, ORE.MAX_PLAINTEXT_BITS);
+		Random random = new Random(9);
+		long[] positions = new long[2000];
+		for (int i = 0; i < positions.length; i++)
+			positions[i] = i % 4 == 0 ? random.nextInt() & 0xFFFFFFFFL
+					: Math.min(positions[i - 1] + random.nextInt(3),
+							ore.getMaxPlaintext());
+		positions[1] = 0;
+		positions[2] = ore.getMaxPlaintext();
+		check(ore, positions);
+
+		// another key gives other ciphertexts
+		ORE other = new ORE("SECRET_4SECRET_5SECRET_6".getBytes(),
+				ORE.MAX_PLAINTEXT_BITS);
+		int same = 0;
+		for (long position : positions)
+			if (other.encryptPosition(position) == ore.encryptPosition(position))
+				same++;
+		if (same > positions.length / 100)
+			throw new RuntimeException(same
+					+ " positions have the same ciphertext under two keys.");
+
+		try {
+			ore.encryptPosition(ore.getMaxPlaintext() + 1);
+			throw new RuntimeException(
+					"A position out of the domain is encrypted.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		System.out.println("The ORE preserves the order of the positions.");
+	}
+
+	private static void check(ORE ore, long[] positions) {
+		int n = positions.length;
+		long[] encrypted = new long[n];
+		for (int i = 0; i < n; i++) {
+			encrypted[i] = ore.encryptPosition(positions[i]);
+			if (ore.decryptPosition(encrypted[i]) != positions[i])
+				throw new RuntimeException("Wrong round trip of "
+						+ positions[i]);
+		}
+
+		// the order of the ciphertexts is the order of the plaintexts
+		Comparator<Long> comparator = SECRAMEncryptionFactory
+				.getPositionComparator(SECRAMEncryptionFactory.POSITION_SCHEME_ORE);
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++) {
+				int expected = Long.signum(positions[i] - positions[j]);
+				if (Integer.signum(ORE.compare(encrypted[i], encrypted[j])) != expected
+						|| Integer.signum(ore.compareEncrypted(encrypted[i],
+								encrypted[j])) != expected
+						|| Integer.signum(comparator.compare(encrypted[i],
+								encrypted[j])) != expected)
+					throw new RuntimeException("Wrong comparison of "
+							+ positions[i] + " and " + positions[j]);
+			}
+
+		// the batches, in the order of the plaintexts
+		long[] sorted = positions.clone();
+		Arrays.sort(sorted);
+		long[] sortedEncrypted = ore.encryptPositions(sorted);
+		for (int i = 0; i < n; i++)
+			if (sortedEncrypted[i] != ore.encryptPosition(sorted[i]))
+				throw new RuntimeException("Wrong batch encryption of "
+						+ sorted[i]);
+		if (!Arrays.equals(sorted, ore.decryptPositions(sortedEncrypted)))
+			throw new RuntimeException("Wrong batch decryption");
+
+		// and in the numerical order of the ciphertexts, or any order
+		long[] numerical = sortedEncrypted.clone();
+		Arrays.sort(numerical);
+		checkBatchDecryption(ore, numerical);
+		List<Long> shuffled = new ArrayList<>();
+		for (long e : encrypted)
+			shuffled.add(e);
+		Collections.shuffle(shuffled, new Random(1));
+		checkBatchDecryption(ore,
+				shuffled.stream().mapToLong(Long::longValue).toArray());
+	}
+
+	private static void checkBatchDecryption(ORE ore, long[] encrypted) {
+		long[] decrypted = ore.decryptPositions(encrypted);
+		for (int i = 0; i < encrypted.length; i++)
+			if (decrypted[i] != ore.decryptPosition(encrypted[i]))
+				throw new RuntimeException("Wrong batch decryption of "
+						+ encrypted[i]);
+	}
+}
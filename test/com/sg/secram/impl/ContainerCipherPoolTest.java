@@ -0,0 +1,108 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Check that the container ciphers acquired by a filter are neither evicted
+ * nor erased while they are in use, when more containers than
+ * {@link SECRAMSecurityFilter#CONTAINER_CIPHER_POOL_SIZE} are decrypted
+ * concurrently.
+ * 
+ * @author zhihuang
+ *
+ */
+public class ContainerCipherPoolTest {
+	public static void main(String[] args) throws Exception {
+		byte[] key = "SECRET_1SECRET_2SECRET_3".getBytes();
+		int nofContainers = 4 * SECRAMSecurityFilter.CONTAINER_CIPHER_POOL_SIZE;
+
+		// encrypt a block per container
+		SECRAMSecurityFilter writeFilter = new SECRAMSecurityFilter(key);
+		byte[][] blocks = new byte[nofContainers][];
+		byte[][] encBlocks = new byte[nofContainers][];
+		for (int id = 0; id < nofContainers; id++) {
+			blocks[id] = new byte[4096];
+			Arrays.fill(blocks[id], (byte) id);
+			writeFilter.initContainerEM(saltOf(id), id);
+			encBlocks[id] = writeFilter.encryptBlock(blocks[id], id);
+		}
+		writeFilter.destroyContainerEMs();
+
+		// acquire all the ciphers before any block is decrypted
+		SECRAMSecurityFilter filter = new SECRAMSecurityFilter(key);
+		CyclicBarrier acquired = new CyclicBarrier(nofContainers,
+				() -> filter.destroyContainerEMs());
+		ExecutorService threads = Executors.newFixedThreadPool(nofContainers);
+		List<Future<byte[]>> decrypted = new ArrayList<>();
+		for (int id = 0; id < nofContainers; id++) {
+			int containerID = id;
+			decrypted.add(threads.submit(() -> {
+				filter.acquireContainerEM(saltOf(containerID), containerID);
+				try {
+					acquired.await();
+					return filter.decryptBlock(encBlocks[containerID],
+							containerID);
+				} finally {
+					filter.releaseContainerEM(containerID);
+				}
+			}));
+		}
+		for (int id = 0; id < nofContainers; id++)
+			if (!Arrays.equals(blocks[id], decrypted.get(id).get()))
+				throw new RuntimeException("Wrong decryption of container "
+						+ id);
+		threads.shutdown();
+
+		// the released ciphers have been erased with the filter's
+		try {
+			filter.decryptBlock(encBlocks[0], 0);
+			throw new RuntimeException(
+					"The cipher of a released container is still available.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		System.out.println("Decrypted " + nofContainers
+				+ " containers concurrently with one filter.");
+	}
+
+	private static long saltOf(int containerID) {
+		return 0x5EC4A3L * (containerID + 1);
+	}
+}
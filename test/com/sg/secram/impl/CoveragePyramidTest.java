@@ -0,0 +1,178 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.impl;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Check the depth and the summaries of a coverage pyramid spanning several
+ * chunks against the depth it was written from, in clear and encrypted, and
+ * that a tampered sidecar file is rejected.
+ * 
+ * @author zhihuang
+ *
+ */
+public class CoveragePyramidTest {
+	private static final int[] REFERENCE_LENGTHS = {
+			5 * CoveragePyramid.CHUNK_SIZE + 1000,
+			3 * CoveragePyramid.CHUNK_SIZE / 2 };
+
+	public static void main(String[] args) throws Exception {
+		File dir = Files.createTempDirectory("coverage").toFile();
+		File file = new File(dir, "test" + CoveragePyramid.EXTENSION);
+		int[][] depths = createDepths(new Random(7));
+		byte[] key = "SECRET_1SECRET_2SECRET_3".getBytes();
+
+		write(file, depths, null);
+		check(CoveragePyramid.read(file, null), depths);
+		write(file, depths, key);
+		check(CoveragePyramid.read(file, key), depths);
+		if (null != CoveragePyramid.read(file, null))
+			throw new RuntimeException("An encrypted pyramid is read in clear.");
+
+		// tamper with the first chunk, which is only read by the queries
+		tamper(file, 100);
+		CoveragePyramid pyramid = CoveragePyramid.read(file, key);
+		try {
+			pyramid.getDepth(0, 0);
+			throw new RuntimeException("A tampered chunk is accepted.");
+		} catch (RuntimeException e) {
+			if (!e.getMessage().contains("Authentication"))
+				throw e;
+		}
+		// tamper with the index
+		write(file, depths, key);
+		tamper(file, file.length() - 20);
+		if (null != CoveragePyramid.read(file, key))
+			throw new RuntimeException("A tampered index is accepted.");
+
+		try (CoveragePyramid.Writer writer = new CoveragePyramid.Writer(file,
+				dictionary(), key)) {
+			writer.add(1, 0, 1);
+			writer.add(0, 0, 1);
+			throw new RuntimeException("Unsorted positions are accepted.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		file.delete();
+		dir.delete();
+		System.out.println("The coverage pyramid matches the depth.");
+	}
+
+	/**
+	 * Runs of random depth and length, with uncovered gaps of up to two
+	 * chunks.
+	 */
+	private static int[][] createDepths(Random random) {
+		int[][] depths = new int[REFERENCE_LENGTHS.length][];
+		for (int i = 0; i < depths.length; i++) {
+			depths[i] = new int[REFERENCE_LENGTHS[i]];
+			int position = 0;
+			while (position < depths[i].length) {
+				int length = random.nextInt(10) == 0 ? random
+						.nextInt(2 * CoveragePyramid.CHUNK_SIZE) : 1 + random
+						.nextInt(300);
+				int depth = random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(60);
+				for (int end = Math.min(position + length, depths[i].length); position < end; position++)
+					depths[i][position] = depth;
+			}
+		}
+		return depths;
+	}
+
+	private static SAMSequenceDictionary dictionary() {
+		SAMSequenceDictionary dictionary = new SAMSequenceDictionary();
+		for (int i = 0; i < REFERENCE_LENGTHS.length; i++)
+			dictionary.addSequence(new SAMSequenceRecord("chr" + (i + 1),
+					REFERENCE_LENGTHS[i]));
+		return dictionary;
+	}
+
+	private static void write(File file, int[][] depths, byte[] key)
+			throws Exception {
+		try (CoveragePyramid.Writer writer = new CoveragePyramid.Writer(file,
+				dictionary(), key)) {
+			for (int i = 0; i < depths.length; i++)
+				for (int position = 0; position < depths[i].length; position++)
+					writer.add(i, position, depths[i][position]);
+		}
+	}
+
+	private static void check(CoveragePyramid pyramid, int[][] depths) {
+		for (int i = 0; i < depths.length; i++)
+			for (int position = 0; position < depths[i].length; position++)
+				if (pyramid.getDepth(i, position) != depths[i][position])
+					throw new RuntimeException("Wrong depth at " + i + ":"
+							+ position);
+		Random random = new Random(11);
+		for (int q = 0; q < 2000; q++) {
+			int i = random.nextInt(depths.length);
+			int length = depths[i].length;
+			int start = random.nextInt(length);
+			int end = Math.min(length - 1, start
+					+ random.nextInt(q % 2 == 0 ? length : 100000));
+			long covered = 0, sum = 0;
+			int min = Integer.MAX_VALUE, max = 0;
+			for (int position = start; position <= end; position++) {
+				int depth = depths[i][position];
+				if (depth > 0)
+					covered++;
+				sum += depth;
+				min = Math.min(min, depth);
+				max = Math.max(max, depth);
+			}
+			CoveragePyramid.Summary summary = pyramid.summarize(i, start, end);
+			if (summary.getLength() != end - start + 1
+					|| summary.getCoveredPositions() != covered
+					|| summary.getSum() != sum || summary.getMin() != min
+					|| summary.getMax() != max)
+				throw new RuntimeException("Wrong summary of " + i + ":"
+						+ start + "-" + end + ": " + summary);
+		}
+	}
+
+	private static void tamper(File file, long offset) throws Exception {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(offset);
+			int b = raf.read();
+			raf.seek(offset);
+			raf.write(b ^ 1);
+		}
+	}
+}
@@ -33,8 +33,6 @@ package com.sg.secram.impl;
 
 import java.util.Optional;
 
-import com.sg.secram.encryption.OPE;
-import com.sg.secram.encryption.SECRAMEncryptionFactory;
 import com.sg.secram.impl.records.SecramRecord;
 import com.sg.secram.util.SECRAMUtils;
 
@@ -51,15 +49,13 @@ public class CoverageTest {
 
 		SECRAMFileReader secramReader = new SECRAMFileReader(secram,
 				"./data/hs37d5.fa", key);
-		OPE ope = (OPE) SECRAMEncryptionFactory.createPositionEM(
-				"SECRET_1SECRET_2SECRET_3".getBytes(), secramReader
-						.getSecramHeader().getOpeSalt());
 		long absStart = SECRAMUtils.getAbsolutePosition(CFTR_start,
 				secramReader.getSAMFileHeader().getSequenceIndex(CFTR_ref));
 		long absEnd = SECRAMUtils.getAbsolutePosition(CFTR_end, secramReader
 				.getSAMFileHeader().getSequenceIndex(CFTR_ref));
 		SECRAMIterator secramIterator = secramReader.query(
-				ope.encrypt(absStart), ope.encrypt(absEnd));
+				secramReader.encryptPosition(absStart),
+				secramReader.encryptPosition(absEnd));
 		int minCov = 99999, maxCov = 0, numRecord = 0, totalCov = 0;
 		while (secramIterator.hasNext()) {
 			Optional<SecramRecord> record = Optional.ofNullable(secramIterator
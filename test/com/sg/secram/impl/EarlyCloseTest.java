@@ -0,0 +1,94 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.impl;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import com.sg.secram.impl.converters.SplicedReadQueryTest;
+
+/**
+ * Check that closing a prefetching iterator before it is exhausted leaves
+ * the reader usable: the file channel shared by the iterators of a reader
+ * must not be closed by the background reading of the closed iterator.
+ * 
+ * @author zhihuang
+ *
+ */
+public class EarlyCloseTest {
+	private static final int PREFETCH_CONTAINERS = 2;
+	/**
+	 * Number of iterators closed early, at various points of the file.
+	 */
+	private static final int NOF_CLOSED_ITERATORS = 500;
+
+	public static void main(String[] args) throws Exception {
+		File dir = Files.createTempDirectory("earlyclose").toFile();
+		SplicedReadQueryTest.createFiles(dir);
+		SECRAMFileReader reader = new SECRAMFileReader(new File(dir,
+				"spliced.secram").getPath(),
+				new File(dir, "ref.fa").getPath(), SplicedReadQueryTest.KEY);
+		long nofRecords = count(reader.getCompleteIterator());
+		long nofContainers = reader.getContainerHeaders().size();
+
+		// the closed iterators are reading the next containers, or waiting
+		// for the previous ones to be consumed
+		for (int i = 0; i < NOF_CLOSED_ITERATORS; i++) {
+			SECRAMIterator iterator = reader
+					.getCompleteIterator(PREFETCH_CONTAINERS);
+			for (int j = 0; j < i % 4 * nofRecords / 4 / nofContainers
+					&& iterator.hasNext(); j++)
+				iterator.next();
+			iterator.close();
+		}
+		if (count(reader.getCompleteIterator()) != nofRecords)
+			throw new RuntimeException(
+					"Wrong number of records after closing iterators early");
+		long prefetched = count(reader.getCompleteIterator(PREFETCH_CONTAINERS));
+		if (prefetched != nofRecords)
+			throw new RuntimeException(prefetched + " prefetched records, "
+					+ nofRecords + " expected");
+		reader.close();
+		System.out.println("Closed prefetching iterators early over "
+				+ nofContainers + " containers, and read " + nofRecords
+				+ " records again.");
+	}
+
+	private static long count(SECRAMIterator iterator) {
+		long count = 0;
+		while (iterator.hasNext()) {
+			iterator.next();
+			count++;
+		}
+		return count;
+	}
+}
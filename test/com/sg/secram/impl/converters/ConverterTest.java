@@ -40,7 +40,6 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Iterator;
 
-import com.sg.secram.example.Bam2SecramFile;
 import com.sg.secram.example.Secram2BamFile;
 import com.sg.secram.structure.SecramContainerIO;
 
@@ -56,38 +55,39 @@ public class ConverterTest {
 
 	public static void bam2secram(String inName, String outName,
 			String refName, byte[] key) throws Exception {
-		Bam2SecramFile.bam2secram(inName, outName, refName, key);
+		SecramContainerIO.SizeStatistics sizes = Bam2Secram.convertFile(
+				new File(inName), new File(outName), refName, key);
 
 		System.out.println("Container header size: "
-				+ SecramContainerIO.containerHeaderSize / 1000.0);
+				+ sizes.containerHeaderSize / 1000.0);
 		System.out.println("Compression header size: "
-				+ SecramContainerIO.compressionHeaderSize / 1000.0);
+				+ sizes.compressionHeaderSize / 1000.0);
 		System.out.println("Core Block size: "
-				+ SecramContainerIO.coreBlockSize / 1000.0);
+				+ sizes.coreBlockSize / 1000.0);
 		System.out.println("Sensitive Field block size: "
-				+ SecramContainerIO.externalSizes[0] / 1000.0);
+				+ sizes.externalSizes[0] / 1000.0);
 		System.out.println("Sensitive Field length block size: "
-				+ SecramContainerIO.externalSizes[1] / 1000.0);
+				+ sizes.externalSizes[1] / 1000.0);
 		System.out.println("Quality score block size: "
-				+ SecramContainerIO.externalSizes[2] / 1000.0);
+				+ sizes.externalSizes[2] / 1000.0);
 		System.out.println("Tags block size: "
-				+ SecramContainerIO.externalSizes[3] / 1000.0);
+				+ sizes.externalSizes[3] / 1000.0);
 		System.out.println("Absolute position block size: "
-				+ SecramContainerIO.externalSizes[4] / 1000.0);
+				+ sizes.externalSizes[4] / 1000.0);
 		System.out.println("Read name block size: "
-				+ SecramContainerIO.externalSizes[5] / 1000.0);
+				+ sizes.externalSizes[5] / 1000.0);
 		System.out.println("Template length block size: "
-				+ SecramContainerIO.externalSizes[6] / 1000.0);
+				+ sizes.externalSizes[6] / 1000.0);
 		System.out.println("Next absolute position block size: "
-				+ SecramContainerIO.externalSizes[7] / 1000.0);
+				+ sizes.externalSizes[7] / 1000.0);
 		System.out.println("Coverage size: "
-				+ SecramContainerIO.externalSizes[8] / 1000.0);
+				+ sizes.externalSizes[8] / 1000.0);
 		System.out.println("Number of read headers size: "
-				+ SecramContainerIO.externalSizes[9] / 1000.0);
+				+ sizes.externalSizes[9] / 1000.0);
 		System.out.println("Quality score length size: "
-				+ SecramContainerIO.externalSizes[10] / 1000.0);
+				+ sizes.externalSizes[10] / 1000.0);
 		System.out.println("Number of features size: "
-				+ SecramContainerIO.externalSizes[11] / 1000.0);
+				+ sizes.externalSizes[11] / 1000.0);
 
 	}
 
@@ -0,0 +1,125 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.impl.converters;
+
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Compare the queries of a SECRAM file through {@link SECRAMSamReader} with
+ * the same queries of its BAM file through htsjdk, on the file of
+ * {@link SplicedReadQueryTest}.
+ */
+public class SECRAMSamReaderTest {
+	private static final String NAME = SplicedReadQueryTest.REFERENCE_NAME;
+
+	public static void main(String[] args) throws Exception {
+		File dir = Files.createTempDirectory("secram").toFile();
+		SplicedReadQueryTest.createFiles(dir);
+		SamReader bamReader = SamReaderFactory.makeDefault()
+				.validationStringency(ValidationStringency.SILENT)
+				.open(new File(dir, "spliced.bam"));
+		SamReader secramReader = new SECRAMSamReader(new File(dir,
+				"spliced.secram").getPath(),
+				new File(dir, "ref.fa").getPath(), SplicedReadQueryTest.KEY);
+
+		int failures = 0;
+		int[][] intervals = { { 150000, 150000 }, { 1000, 1100 },
+				{ 165000, 165010 }, { 160000, 170500 }, { 201099, 201100 },
+				{ 340000, 400000 } };
+		for (int[] i : intervals) {
+			failures += check("queryOverlapping " + i[0] + "-" + i[1],
+					bamReader, secramReader,
+					r -> r.queryOverlapping(NAME, i[0], i[1]));
+			failures += check("queryContained " + i[0] + "-" + i[1],
+					bamReader, secramReader,
+					r -> r.queryContained(NAME, i[0], i[1]));
+			failures += check("queryAlignmentStart " + i[0], bamReader,
+					secramReader, r -> r.queryAlignmentStart(NAME, i[0]));
+		}
+		QueryInterval[] queries = { new QueryInterval(0, 150000, 150000),
+				new QueryInterval(0, 165000, 165000),
+				new QueryInterval(0, 201000, 201050) };
+		failures += check("query overlapping intervals", bamReader,
+				secramReader, r -> r.query(queries, false));
+		failures += check("query contained intervals", bamReader,
+				secramReader, r -> r.query(queries, true));
+		failures += check("iterator", bamReader, secramReader,
+				SamReader::iterator);
+		bamReader.close();
+		secramReader.close();
+
+		if (failures > 0)
+			throw new RuntimeException(failures + " queries failed");
+		System.out.println("All queries passed");
+	}
+
+	/**
+	 * Compare the reads and the order of their alignment starts.
+	 */
+	private static int check(String name, SamReader bamReader,
+			SamReader secramReader,
+			Function<SamReader, SAMRecordIterator> query) {
+		List<SAMRecord> expected = reads(query.apply(bamReader));
+		List<SAMRecord> actual = reads(query.apply(secramReader));
+		boolean ok = keys(expected).equals(keys(actual));
+		for (int i = 0; ok && i < actual.size(); i++)
+			ok = expected.get(i).getAlignmentStart() == actual.get(i)
+					.getAlignmentStart();
+		System.out.println(name + ": " + actual.size() + " of "
+				+ expected.size() + " reads" + (ok ? "" : " MISMATCH"));
+		return ok ? 0 : 1;
+	}
+
+	private static List<SAMRecord> reads(SAMRecordIterator iterator) {
+		List<SAMRecord> reads = new ArrayList<SAMRecord>();
+		iterator.forEachRemaining(reads::add);
+		iterator.close();
+		return reads;
+	}
+
+	private static List<String> keys(List<SAMRecord> reads) {
+		return reads.stream().map(SplicedReadQueryTest::key).sorted()
+				.collect(Collectors.toList());
+	}
+}
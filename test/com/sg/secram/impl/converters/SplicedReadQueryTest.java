@@ -0,0 +1,219 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.impl.converters;
+
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import com.sg.secram.impl.SECRAMFileReader;
+
+/**
+ * Query the reads overlapping, or starting in, some intervals of a SECRAM
+ * file with a long spliced read, which starts several containers before the
+ * intervals, and compare them with the reads of the BAM file.
+ */
+public class SplicedReadQueryTest {
+	public static final String REFERENCE_NAME = "chr1";
+	public static final int REFERENCE_LENGTH = 400000;
+	public static final String SPLICED_CIGAR = "50M200000N50M";
+	public static final byte[] KEY = "SECRET_1SECRET_2SECRET_3".getBytes();
+
+	/**
+	 * Intervals (1-based, inclusive) around, inside and after the skipped
+	 * region of the spliced read. No read but the spliced read overlaps
+	 * 160100-169999.
+	 */
+	private static final int[][] INTERVALS = { { 150000, 150000 },
+			{ 1000, 1000 }, { 1049, 1051 }, { 120000, 120100 },
+			{ 165000, 165010 }, { 201000, 201200 }, { 201099, 201099 },
+			{ 201100, 201100 }, { 300000, 300500 } };
+
+	public static void main(String[] args) throws Exception {
+		File dir = Files.createTempDirectory("secram").toFile();
+		List<SAMRecord> reads = createFiles(dir);
+		SECRAMFileReader reader = new SECRAMFileReader(new File(dir,
+				"spliced.secram").getPath(),
+				new File(dir, "ref.fa").getPath(), KEY);
+
+		int failures = 0;
+		for (int[] interval : INTERVALS) {
+			QueryInterval query = new QueryInterval(0, interval[0],
+					interval[1]);
+			failures += check("overlapping " + query, overlapping(reads,
+					query), Secram2Bam.queryOverlapping(reader, query));
+			List<SAMRecord> starting = new ArrayList<SAMRecord>();
+			Secram2Bam.convertRegions(reader, Arrays.asList(query), false,
+					starting::add);
+			failures += check("starting in " + query, reads.stream()
+					.filter(r -> r.getAlignmentStart() >= interval[0]
+							&& r.getAlignmentStart() <= interval[1])
+					.collect(Collectors.toList()), starting);
+		}
+		// several intervals, whose reads are output once
+		QueryInterval[] queries = { new QueryInterval(0, 150000, 150000),
+				new QueryInterval(0, 165000, 165000),
+				new QueryInterval(0, 201000, 201000) };
+		failures += check("overlapping " + Arrays.toString(queries),
+				overlapping(reads, queries),
+				Secram2Bam.queryOverlapping(reader, queries));
+		reader.close();
+
+		if (failures > 0)
+			throw new RuntimeException(failures + " queries failed");
+		System.out.println("All queries passed");
+	}
+
+	private static List<SAMRecord> overlapping(List<SAMRecord> reads,
+			QueryInterval... intervals) {
+		return reads
+				.stream()
+				.filter(r -> Arrays.stream(intervals).anyMatch(
+						i -> r.getAlignmentStart() <= i.end
+								&& r.getAlignmentEnd() >= i.start))
+				.collect(Collectors.toList());
+	}
+
+	private static int check(String name, List<SAMRecord> expected,
+			List<SAMRecord> actual) {
+		List<String> e = expected.stream().map(SplicedReadQueryTest::key)
+				.sorted().collect(Collectors.toList());
+		List<String> a = actual.stream().map(SplicedReadQueryTest::key)
+				.sorted().collect(Collectors.toList());
+		boolean ok = e.equals(a);
+		for (int i = 1; i < actual.size(); i++)
+			ok &= actual.get(i - 1).getAlignmentStart() <= actual.get(i)
+					.getAlignmentStart();
+		System.out.println(name + ": " + a.size() + " of " + e.size()
+				+ " reads" + (ok ? "" : " MISMATCH"));
+		return ok ? 0 : 1;
+	}
+
+	/**
+	 * The read fields restored from a SECRAM file.
+	 */
+	static String key(SAMRecord read) {
+		return read.getReadName() + " " + read.getAlignmentStart() + " "
+				+ read.getCigarString() + " " + read.getReadString() + " "
+				+ read.getBaseQualityString() + " " + read.getFlags();
+	}
+
+	/**
+	 * Create a random reference, an indexed BAM file with a spliced read
+	 * spanning several containers and reads of 100 bases every 20 bases, and
+	 * the SECRAM file of the BAM file.
+	 * @return The reads of the BAM file.
+	 */
+	public static List<SAMRecord> createFiles(File dir) throws IOException {
+		Random random = new Random(42);
+		byte[] bases = new byte[REFERENCE_LENGTH];
+		for (int i = 0; i < bases.length; i++)
+			bases[i] = (byte) "ACGT".charAt(random.nextInt(4));
+		File reference = new File(dir, "ref.fa");
+		try (Writer writer = new FileWriter(reference)) {
+			writer.write(">" + REFERENCE_NAME + "\n");
+			for (int i = 0; i < bases.length; i += 60)
+				writer.write(new String(bases, i, Math.min(60, bases.length
+						- i)) + "\n");
+		}
+		try (Writer writer = new FileWriter(new File(dir, "ref.fa.fai"))) {
+			writer.write(REFERENCE_NAME + "\t" + REFERENCE_LENGTH + "\t"
+					+ (REFERENCE_NAME.length() + 2) + "\t60\t61\n");
+		}
+
+		SAMFileHeader header = new SAMFileHeader();
+		header.addSequence(new SAMSequenceRecord(REFERENCE_NAME,
+				REFERENCE_LENGTH));
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		List<SAMRecord> reads = new ArrayList<SAMRecord>();
+		reads.add(createRead(header, bases, "spliced", 1000, SPLICED_CIGAR,
+				random));
+		for (int start = 1000; start < 350000; start += 20)
+			if (start < 160000 || start >= 170000)
+				reads.add(createRead(header, bases, "read" + start, start,
+						"100M", random));
+		reads.sort((r1, r2) -> r1.getAlignmentStart() - r2.getAlignmentStart());
+
+		File bam = new File(dir, "spliced.bam");
+		try (SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(
+				true).makeBAMWriter(header, true, bam)) {
+			reads.forEach(writer::addAlignment);
+		}
+		Bam2Secram.convertFile(bam, new File(dir, "spliced.secram"),
+				reference.getPath(), KEY);
+		return reads;
+	}
+
+	private static SAMRecord createRead(SAMFileHeader header, byte[] bases,
+			String name, int start, String cigar, Random random) {
+		SAMRecord read = new SAMRecord(header);
+		read.setReadName(name);
+		read.setReferenceIndex(0);
+		read.setAlignmentStart(start);
+		read.setCigarString(cigar);
+		read.setMappingQuality(60);
+		read.setReadNegativeStrandFlag(random.nextBoolean());
+		// the bases of the reference, with a mismatch
+		StringBuilder readBases = new StringBuilder();
+		int position = start - 1;
+		for (CigarElement element : read.getCigar()
+				.getCigarElements()) {
+			if (element.getOperator() == CigarOperator.M)
+				readBases.append(new String(bases, position, element
+						.getLength()));
+			position += element.getLength();
+		}
+		readBases.setCharAt(random.nextInt(readBases.length()), 'N');
+		read.setReadString(readBases.toString());
+		byte[] qualities = new byte[readBases.length()];
+		for (int i = 0; i < qualities.length; i++)
+			qualities[i] = (byte) (20 + random.nextInt(20));
+		read.setBaseQualities(qualities);
+		return read;
+	}
+}
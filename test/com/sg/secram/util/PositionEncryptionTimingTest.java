@@ -0,0 +1,203 @@
+/**
+ * Copyright © 2013-2016 Swiss Federal Institute of Technology EPFL and Sophia Genetics SA
+ * 
+ * All rights reserved
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted 
+ * provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of 
+ * conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of 
+ * conditions and the following disclaimer in the documentation and/or other materials provided 
+ * with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used 
+ * to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS 
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT 
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * PATENTS NOTICE: Sophia Genetics SA holds worldwide pending patent applications in relation with this 
+ * software functionality. For more information and licensing conditions, you should contact Sophia Genetics SA 
+ * at info@sophiagenetics.com. 
+ */
+package com.sg.secram.util;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.sg.secram.encryption.SECRAMEncryptionFactory;
+import com.sg.secram.encryption.SECRAMPositionEncryption;
+import com.sg.secram.impl.SECRAMFileReader;
+import com.sg.secram.impl.SECRAMIterator;
+import com.sg.secram.impl.converters.Bam2Secram;
+
+/**
+ * Compare the encryption schemes of the positions, see
+ * {@link SECRAMEncryptionFactory}: the encryption primitives, the lookups in
+ * the index, and the queries on a SECRAM file written with each scheme.
+ */
+public class PositionEncryptionTimingTest {
+	private static final int[] SCHEMES = new int[] {
+			SECRAMEncryptionFactory.POSITION_SCHEME_OPE,
+			SECRAMEncryptionFactory.POSITION_SCHEME_ORE };
+	private static final String[] SCHEME_NAMES = new String[] { "OPE", "ORE" };
+
+	public static void main(String[] args) throws Exception {
+		primitivesTest(32, 100000);
+		indexTest(32, 10000, 1000000);
+		queryTest();
+	}
+
+	/**
+	 * Time the encryption, decryption and comparison of random positions of a
+	 * given number of bits, one by one and in batch.
+	 */
+	public static void primitivesTest(int bits, int n) throws Exception {
+		byte[] key = "SECRET_1SECRET_2SECRET_3".getBytes();
+		Random random = new Random(0);
+		long[] positions = new long[n];
+		for (int i = 0; i < n; i++)
+			positions[i] = (long) (random.nextDouble() * (1L << bits));
+		Arrays.sort(positions);
+
+		for (int s = 0; s < SCHEMES.length; s++) {
+			SECRAMPositionEncryption em = SECRAMEncryptionFactory
+					.createPositionEM(key, random.nextLong(), SCHEMES[s],
+							1, bits, bits + 8);
+			long start = System.nanoTime();
+			long[] enc = new long[n];
+			for (int i = 0; i < n; i++)
+				enc[i] = em.encryptPosition(positions[i]);
+			long encryption = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				em.decryptPosition(enc[i]);
+			long decryption = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			em.encryptPositions(positions);
+			long batchEncryption = System.nanoTime() - start;
+
+			long[] sortedEnc = enc.clone();
+			Arrays.sort(sortedEnc);
+			start = System.nanoTime();
+			em.decryptPositions(sortedEnc);
+			long batchDecryption = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int order = 0;
+			for (int i = 1; i < n; i++)
+				order += em.compareEncrypted(enc[i - 1], enc[i]);
+			long comparison = System.nanoTime() - start;
+			if (order != -(n - 1 - duplicates(positions)))
+				throw new IllegalStateException(SCHEME_NAMES[s]
+						+ " does not reveal the order of the positions");
+
+			System.out.printf(
+					"%s (ns per position): encrypt %d, decrypt %d, batch encrypt %d, batch decrypt %d, compare %d%n",
+					SCHEME_NAMES[s], encryption / n, decryption / n,
+					batchEncryption / n, batchDecryption / n, comparison / n);
+		}
+	}
+
+	private static int duplicates(long[] sortedValues) {
+		int result = 0;
+		for (int i = 1; i < sortedValues.length; i++)
+			if (sortedValues[i] == sortedValues[i - 1])
+				result++;
+		return result;
+	}
+
+	/**
+	 * Time the lookups of encrypted positions in an index of encrypted
+	 * container starts, ordered by the comparator of each scheme.
+	 */
+	public static void indexTest(int bits, int containers, int lookups)
+			throws Exception {
+		byte[] key = "SECRET_1SECRET_2SECRET_3".getBytes();
+		Random random = new Random(0);
+		for (int s = 0; s < SCHEMES.length; s++) {
+			SECRAMPositionEncryption em = SECRAMEncryptionFactory
+					.createPositionEM(key, random.nextLong(), SCHEMES[s],
+							1, bits, bits + 8);
+			Comparator<Long> comparator = SECRAMEncryptionFactory
+					.getPositionComparator(SCHEMES[s]);
+			TreeMap<Long, Long> index = new TreeMap<Long, Long>(comparator);
+			for (int i = 0; i < containers; i++)
+				index.put(em.encryptPosition((long) (random.nextDouble() * (1L << bits))),
+						(long) i);
+			long[] queries = new long[lookups];
+			for (int i = 0; i < lookups; i++)
+				queries[i] = em.encryptPosition((long) (random.nextDouble() * (1L << bits)));
+
+			long start = System.nanoTime();
+			long found = 0;
+			for (long query : queries)
+				if (index.floorEntry(query) != null)
+					found++;
+			long lookup = System.nanoTime() - start;
+			System.out.printf("%s index: %d ns per lookup (%d found)%n",
+					SCHEME_NAMES[s], lookup / lookups, found);
+		}
+	}
+
+	/**
+	 * Convert a BAM file with each scheme, and time the conversion and a
+	 * series of queries on the SECRAM file.
+	 */
+	public static void queryTest() throws Exception {
+		String bam = "./data/miniCaviar_IDT_NEB.runA.NA12878.bwa.bam";
+		String secram = "./data/miniCaviar_IDT_NEB.runA.NA12878.bwa.secram";
+		String ref = "./data/hs37d5.fa";
+		byte[] key = "SECRET_1SECRET_2SECRET_3".getBytes();
+		String CFTR_ref = "7";
+		int CFTR_start = 117120017, CFTR_end = 117308718;
+		for (int s = 0; s < SCHEMES.length; s++) {
+			Timings.reset();
+			long start = System.currentTimeMillis();
+			Bam2Secram.convertFile(new File(bam), new File(secram), ref, key,
+					SCHEMES[s]);
+			System.out.printf("%s conversion: %.3f s (encryption %.3f s)%n",
+					SCHEME_NAMES[s],
+					(System.currentTimeMillis() - start) / 1000.0,
+					Timings.encryption.sum() / 1e9);
+
+			SECRAMFileReader reader = new SECRAMFileReader(secram, ref, key);
+			Random random = new Random(0);
+			Timings.reset();
+			start = System.currentTimeMillis();
+			long records = 0;
+			for (int i = 0; i < 100; i++) {
+				int queryStart = CFTR_start
+						+ random.nextInt(CFTR_end - CFTR_start - 1000);
+				SECRAMIterator iterator = reader.query(CFTR_ref, queryStart,
+						queryStart + 1000);
+				if (iterator == null)
+					continue;
+				while (iterator.hasNext()) {
+					iterator.next();
+					records++;
+				}
+			}
+			System.out.printf(
+					"%s queries: %.3f s per query (%d records, decryption %.3f s)%n",
+					SCHEME_NAMES[s],
+					(System.currentTimeMillis() - start) / 100000.0, records,
+					Timings.decryption.sum() / 1e9);
+			reader.close();
+		}
+	}
+}
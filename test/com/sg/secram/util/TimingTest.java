@@ -54,8 +54,6 @@ import java.util.Optional;
 import java.util.Random;
 import java.util.stream.Collectors;
 
-import com.sg.secram.encryption.OPE;
-import com.sg.secram.encryption.SECRAMEncryptionFactory;
 import com.sg.secram.example.Bam2SecramFile;
 import com.sg.secram.example.Secram2BamFile;
 import com.sg.secram.impl.SECRAMFileReader;
@@ -127,15 +125,13 @@ public class TimingTest {
 		s = System.currentTimeMillis();
 		SECRAMFileReader secramReader = new SECRAMFileReader(secram,
 				"./data/hs37d5.fa", key);
-		OPE ope = (OPE) SECRAMEncryptionFactory.createPositionEM(
-				"SECRET_1SECRET_2SECRET_3".getBytes(), secramReader
-						.getSecramHeader().getOpeSalt());
 		long absStart = SECRAMUtils.getAbsolutePosition(CFTR_start,
 				secramReader.getSAMFileHeader().getSequenceIndex(CFTR_ref));
 		long absEnd = SECRAMUtils.getAbsolutePosition(CFTR_end, secramReader
 				.getSAMFileHeader().getSequenceIndex(CFTR_ref));
 		SECRAMIterator secramIterator = secramReader.query(
-				ope.encrypt(absStart), ope.encrypt(absEnd));
+				secramReader.encryptPosition(absStart),
+				secramReader.encryptPosition(absEnd));
 		while (secramIterator.hasNext()) {
 			Optional<SecramRecord> record = Optional.ofNullable(secramIterator
 					.next());
@@ -174,11 +170,7 @@ public class TimingTest {
 						: 0;
 			}
 		}
-		Timings.decompression /= 100;
-		Timings.decryption /= 100;
-		Timings.IO /= 100;
-		Timings.locateQueryPosition /= 100;
-		Timings.printTimings();
+		Timings.printTimings(100);
 		System.out.println("Total bases: " + bases / 100);
 	}
 
@@ -202,14 +194,14 @@ public class TimingTest {
 						+ coverage[i] + "_" + error[j] + ".bam";
 				Timings.reset();
 				Bam2SecramFile.bam2secram(bam, tmpSecram, refFileName, key);
-				timings[0][i * 2 + j] = Timings.transposition;
-				timings[2][i * 2 + j] = Timings.compression;
-				timings[4][i * 2 + j] = Timings.encryption;
+				timings[0][i * 2 + j] = Timings.transposition.sum();
+				timings[2][i * 2 + j] = Timings.compression.sum();
+				timings[4][i * 2 + j] = Timings.encryption.sum();
 				Timings.reset();
 				Secram2BamFile.secram2bam(tmpSecram, bam, refFileName, key);
-				timings[1][i * 2 + j] = Timings.invTransposition;
-				timings[3][i * 2 + j] = Timings.decompression;
-				timings[5][i * 2 + j] = Timings.decryption;
+				timings[1][i * 2 + j] = Timings.invTransposition.sum();
+				timings[3][i * 2 + j] = Timings.decompression.sum();
+				timings[5][i * 2 + j] = Timings.decryption.sum();
 			}
 		String header = "type\t"
 				+ Arrays.stream(coverage)